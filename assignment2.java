@@ -1,10 +1,43 @@
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
 import java.io.PrintWriter;
 import java.io.FileWriter;
 
@@ -22,35 +55,129 @@ public class Main {
      * We create our future chess board.
      */
     private static Board chessBoard;
+    /**
+     * suffix which is added to the name of an input file to get the name of its output in batch mode.
+     */
+    private static final String BATCH_OUTPUT_SUFFIX = ".out";
+    /**
+     * the input file of the binary format.
+     */
+    private static final String BINARY_INPUT = "input.bin";
+    /**
+     * the output file of the binary format.
+     */
+    private static final String BINARY_OUTPUT = "output.bin";
+    /**
+     * the binary logarithm of the number of entries of the transposition table of perft.
+     */
+    private static final int PERFT_TABLE_BITS = 22;
+    /**
+     * the biggest allowed board size of inputs.
+     */
+    private static int maxBoardSize = BoardInputParser.MAX_BOARD_SIZE;
+    /**
+     * the biggest allowed number of pieces of inputs.
+     */
+    private static long maxPieces = Long.MAX_VALUE;
+    /**
+     * whether all errors of invalid inputs are printed with their lines instead of the first error.
+     */
+    private static boolean allErrors;
 
     /**
-     * In this method we check whether the input file exists, count the number of line in the file at first.
-     * Then get board size, number of pieces and receive pieces data, switch every piece to its type and "arrange"
-     * them on the board, for every piece we count its number of moves and captures and put it in the output file
+     * In this method we check whether the input file exists and map it into memory.
+     * Then the parser gets board size, number of pieces and pieces data in one pass and "arranges" them on the board,
+     * for every piece we count its number of moves and captures and put it in the output file
      * If some input data is invalid we use exceptions and issue a warning message
      *
-     * @param args contains the command-line arguments passed to the Java program upon invocation
+     * @param args contains the command-line arguments passed to the Java program upon invocation, one option each:
+     *             "--engine=ray-walk|bitboard|line-index|line-sort" chooses how rays of sliding pieces are scanned;
+     *             "--threads=N" sets the number of threads which count moves, 1 means no parallelism;
+     *             "--batch=PATH" processes every file of a directory or of a manifest instead of input.txt;
+     *             "--output=DIR" sets the directory for outputs of the batch;
+     *             "--cache=N" keeps counts of N last positions of the batch, see ResultCache;
+     *             "--graph=PATH" also writes the graph of captures of input.txt into a binary file, see AttackGraph;
+     *             "--mode=legal" counts only moves after which the own king is not attacked, "--mode=pseudo" is
+     *             the default;
+     *             "--perft=DEPTH" prints the number of leaves of the tree of moves instead, white moves first;
+     *             "--max-size=N" limits board sizes of inputs, see BoardStorage for sizes which need more memory;
+     *             "--max-pieces=N" limits numbers of pieces of inputs;
+     *             "--stats=true" prints probes, scanned rays and time of phases into the standard error stream;
+     *             "--serve=PORT" or "--serve=unix:PATH" answers inputs of local clients instead, see BoardServer;
+     *             "--format=binary" reads input.bin and writes output.bin, see BinaryBoardFormat;
+     *             "--convert=FROM" with "--to=TO" converts a board or a result between the text and the binary form;
+     *             "--errors=all" prints every error of an invalid text input with its line instead of the first one;
+     *             "--replay=PATH" makes moves of the log after input.txt and prints changed counts, see GameReplay
      */
     public static void main(String[] args) {
-        int lines = 0;
-        try {
-            File file = new File("input.txt");
-            FileInputStream fileStream = new FileInputStream(file);
-            InputStreamReader input = new InputStreamReader(fileStream);
-            BufferedReader reader = new BufferedReader(input);
-            String line;
-            while ((line = reader.readLine()) != null) {
-                lines += 1;
-            }
-        } catch (Exception e) {
-            System.exit(0);
+        if ("true".equals(getOption(args, "stats", "false"))) {
+            // PROPERTY is a constant, so Instrumentation is loaded only below and reads the property set here
+            System.setProperty(Instrumentation.PROPERTY, "true");
         }
-
-        Scanner sc = null;
+        if (Instrumentation.ENABLED) {
+            Instrumentation.printSummaryAtExit();
+        }
+        long sizeLimit = getLimitOption(args, "max-size", BoardInputParser.MAX_BOARD_SIZE, Integer.MAX_VALUE);
+        maxPieces = getLimitOption(args, "max-pieces", Long.MAX_VALUE, Long.MAX_VALUE);
+        if (sizeLimit == 0 || maxPieces == 0) {
+            System.err.println("Invalid limit: --max-size and --max-pieces must be positive integers");
+            System.exit(1);
+        }
+        maxBoardSize = (int) sizeLimit;
+        allErrors = "all".equals(getOption(args, "errors", "first"));
+        SlidingEngine engine = SlidingEngine.parse(getOption(args, "engine", "bitboard"));
+        int threads = Integer.parseInt(getOption(args, "threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        String batch = getOption(args, "batch", null);
+        if (batch != null) {
+            try {
+                int cacheSize = Integer.parseInt(getOption(args, "cache", "0"));
+                runBatch(new File(batch), getOption(args, "output", null), engine, threads,
+                        cacheSize > 0 ? new ResultCache(cacheSize) : null);
+            } catch (Exception exception) {
+                System.exit(0);
+            }
+            return;
+        }
+        String convert = getOption(args, "convert", null);
+        if (convert != null) {
+            try {
+                BinaryBoardFormat.convert(new File(convert), new File(getOption(args, "to", convert + ".converted")),
+                        maxBoardSize, maxPieces);
+            } catch (Exception exception) {
+                System.err.println(exception.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if ("binary".equals(getOption(args, "format", "text"))) {
+            ByteBuffer input;
+            try {
+                PhaseEvent read = new PhaseEvent(PipelinePhase.READ);
+                input = BoardInputParser.map(new File(BINARY_INPUT));
+                read.finish(0);
+                chessBoard = solveBinary(input, new File(BINARY_OUTPUT), engine, threads);
+            } catch (Exception exception) {
+                System.exit(0);
+            }
+            return;
+        }
+        String serve = getOption(args, "serve", null);
+        if (serve != null) {
+            try {
+                BoardServer.open(serve, engine, BoardInputParser.getMaxInputBytes(maxBoardSize, maxPieces)).serve();
+            } catch (Exception exception) {
+                System.exit(0);
+            }
+            return;
+        }
+        ByteBuffer input = null;
         PrintWriter pw = null;
 
         try {
-            sc = new Scanner(new File("input.txt"));
+            PhaseEvent read = new PhaseEvent(PipelinePhase.READ);
+            input = BoardInputParser.map(new File("input.txt"));
+            read.finish(0);
             pw = new PrintWriter(new FileWriter("output.txt"));
         } catch (Exception exception) {
             System.exit(0);
@@ -68,272 +195,6862 @@ public class Main {
             pw.println(exception.getMessage());
             pw.close();
         }
+        String replay = getOption(args, "replay", null);
+        if (replay != null) {
+            chessBoard = solveReplay(input, pw, engine, new File(replay));
+            pw.close();
+            return;
+        }
+        String perft = getOption(args, "perft", null);
+        if (perft != null) {
+            chessBoard = solvePerft(input, pw, engine, threads, Integer.parseInt(perft));
+            pw.close();
+            return;
+        }
+        String graph = getOption(args, "graph", null);
+        boolean legal = "legal".equals(getOption(args, "mode", "pseudo"));
+        chessBoard = solve(input, pw, engine, threads, null, graph != null ? new File(graph) : null, legal, null);
+        pw.close();
+    }
+
+    /**
+     * In this method we parse one input, count moves and captures of every piece and print them.
+     * If some input data is invalid we print the warning message instead
+     *
+     * @param input         bytes of the input file
+     * @param pw            writer for the output
+     * @param engine        the engine which scans rays of bishops, rooks and queens
+     * @param threads       the number of threads which count moves
+     * @param reusableBoard board from the previous input whose storage can be reused, or null
+     * @return the board which was filled, or reusableBoard if the input is invalid
+     */
+    static Board solve(ByteBuffer input, PrintWriter pw, SlidingEngine engine, int threads, Board reusableBoard) {
+        return solve(input, pw, engine, threads, reusableBoard, null, false, null);
+    }
+
+    /**
+     * In this method we parse one input and print counts of every piece, the graph of captures can be written
+     * into a binary file in the same pass over pieces. In the legal mode only legal moves are counted.
+     * Pseudo-legal counts of a position which is in the cache are copied from it.
+     * Invalid inputs are reported by error codes of the parser, so no exception is created for them
+     *
+     * @param input         bytes of the input file
+     * @param pw            writer for the output
+     * @param engine        the engine which scans rays of bishops, rooks and queens
+     * @param threads       the number of threads which count moves
+     * @param reusableBoard board from the previous input whose storage can be reused, or null
+     * @param graphFile     file for the graph of captures, or null
+     * @param legal         whether only legal moves are counted
+     * @param cache         cache of counts of positions, or null
+     * @return the board which was filled, or reusableBoard if the input is invalid
+     */
+    static Board solve(ByteBuffer input, PrintWriter pw, SlidingEngine engine, int threads, Board reusableBoard,
+                       File graphFile, boolean legal, ResultCache cache) {
         try {
-            String n = sc.nextLine();
-            String m = sc.nextLine();
-            int boardSize;
-            try {
-                boardSize = Integer.parseInt(n);
-                final int minBoardSize = 3;
-                final int maxBoardSize = 1000;
-                if (boardSize < minBoardSize || boardSize > maxBoardSize) {
-                    throw new InvalidBoardSizeException();
+            if (allErrors) {
+                InputReport report = new BoardInputParser(input, maxBoardSize, maxPieces).validate();
+                if (report.getErrorsCount() > 0) {
+                    report.print(pw);
+                    return reusableBoard;
                 }
-            } catch (Exception e) {
-                throw new InvalidBoardSizeException();
             }
-
-            int numberOfPieces;
-            try {
-                numberOfPieces = Integer.parseInt(m);
-                if (numberOfPieces < 2 || numberOfPieces > boardSize * boardSize) {
-                    throw new InvalidNumberOfPiecesException();
-                }
-                if (lines - 2 != numberOfPieces) {
-                    throw new InvalidNumberOfPiecesException();
-                }
-            } catch (Exception e) {
-                throw new InvalidNumberOfPiecesException();
-            }
-            chessBoard = new Board(boardSize);
-            String piece;
-            String color;
-            int positionX;
-            int positionY;
-            PiecePosition positionOfPiece;
-            PieceColor colorOfPiece;
-            ChessPiece chessPieces;
-            PiecePosition[] arrayOfPositions = new PiecePosition[numberOfPieces];
-            int numberOfWhiteKings = 0;
-            int numberOfBlackKings = 0;
-            for (int i = 0; i < numberOfPieces; i++) {
-                piece = sc.next();
-                color = sc.next();
-                try {
-                    positionX = Integer.parseInt(sc.next());
-                    positionY = Integer.parseInt(sc.next());
-                    if (positionY < 1 || positionY > boardSize || positionX < 1 || positionX > boardSize) {
-                        throw new InvalidPiecePositionException();
-                    }
-                } catch (Exception e) {
-                    throw new InvalidPiecePositionException();
-                }
-                positionOfPiece = new PiecePosition(positionX, positionY);
-                arrayOfPositions[i] = positionOfPiece;
-                colorOfPiece = PieceColor.parse(color);
-                switch (piece) {
-                    case "Knight":
-                        chessPieces = new Knight(positionOfPiece, colorOfPiece);
-                        break;
-                    case "King":
-                        chessPieces = new King(positionOfPiece, colorOfPiece);
-                        if (colorOfPiece == PieceColor.WHITE) {
-                            numberOfWhiteKings += 1;
-                        }
-                        if (colorOfPiece == PieceColor.BLACK) {
-                            numberOfBlackKings += 1;
-                        }
-                        break;
-                    case "Pawn":
-                        chessPieces = new Pawn(positionOfPiece, colorOfPiece);
-                        break;
-                    case "Bishop":
-                        chessPieces = new Bishop(positionOfPiece, colorOfPiece);
-                        break;
-                    case "Rook":
-                        chessPieces = new Rook(positionOfPiece, colorOfPiece);
-                        break;
-                    case "Queen":
-                        chessPieces = new Queen(positionOfPiece, colorOfPiece);
-                        break;
-                    default:
-                        throw new InvalidPieceNameException();
-                }
-                chessBoard.addPiece(chessPieces);
+            PhaseEvent parse = new PhaseEvent(PipelinePhase.PARSE);
+            BoardInputParser parser = new BoardInputParser(input, maxBoardSize, maxPieces);
+            Board board = parser.tryParse(engine, reusableBoard);
+            if (board == null) {
+                pw.println(parser.getError().getMessage());
+                return reusableBoard;
             }
-            if (numberOfWhiteKings != 1 || numberOfBlackKings != 1) {
-                throw new InvalidGivenKingsException();
+            parse.finish(board.getPiecesCount());
+            board.setResultCache(cache);
+            long[] counts = new long[board.getPiecesCount()];
+            PhaseEvent count = new PhaseEvent(PipelinePhase.COUNT);
+            if (legal) {
+                board.countLegalMovesAndCaptures(counts);
+                if (graphFile != null) {
+                    board.getAttackGraph(null).write(graphFile);
+                }
+            } else if (graphFile != null) {
+                board.getAttackGraph(counts).write(graphFile);
+            } else {
+                board.countAllMovesAndCaptures(counts, threads);
             }
-            ChessPiece newPiece;
-            for (int i = 0; i < numberOfPieces; i++) {
-                newPiece = chessBoard.getPiece(arrayOfPositions[i]);
-                pw.print(chessBoard.getPiecePossibleMovesCount(newPiece));
+            count.finish(counts.length);
+            PhaseEvent output = new PhaseEvent(PipelinePhase.OUTPUT);
+            for (int i = 0; i < counts.length; i++) {
+                pw.print(ChessPiece.unpackMoves(counts[i]));
                 pw.print(" ");
-                pw.println(chessBoard.getPiecePossibleCapturesCount(newPiece));
+                pw.println(ChessPiece.unpackCaptures(counts[i]));
             }
-            pw.close();
-            sc.close();
+            output.finish(counts.length);
+            return board;
         } catch (Exception exception) {
             pw.println(exception.getMessage());
-            pw.close();
+            return reusableBoard;
         }
     }
-}
 
-/**
- * Class which extends Exception and contains a method with string warning related to board size.
- */
-class InvalidBoardSizeException extends Exception {
     /**
-     * Method which returns a string with warning message.
+     * In this method we read one binary board, count moves and captures of every piece and write the binary result.
+     * If some input data is invalid we write the warning message into the result instead
      *
-     * @return "Invalid board size" string in case of illegal board size.
+     * @param input      bytes of the binary board
+     * @param outputFile the file for the binary result
+     * @param engine     the engine which scans rays of bishops, rooks and queens
+     * @param threads    the number of threads which count moves
+     * @return the board which was filled, or null if the input is invalid
+     * @throws IOException if the result can not be written
      */
-    public String getMessage() {
-        return "Invalid board size";
+    static Board solveBinary(ByteBuffer input, File outputFile, SlidingEngine engine, int threads)
+            throws IOException {
+        Board board;
+        try {
+            PhaseEvent parse = new PhaseEvent(PipelinePhase.PARSE);
+            board = BinaryBoardFormat.readBoard(input, engine, null, maxBoardSize, maxPieces);
+            parse.finish(board.getPiecesCount());
+        } catch (Exception exception) {
+            BinaryBoardFormat.writeError(exception.getMessage(), outputFile);
+            return null;
+        }
+        long[] counts = new long[board.getPiecesCount()];
+        PhaseEvent count = new PhaseEvent(PipelinePhase.COUNT);
+        board.countAllMovesAndCaptures(counts, threads);
+        count.finish(counts.length);
+        PhaseEvent output = new PhaseEvent(PipelinePhase.OUTPUT);
+        BinaryBoardFormat.writeResults(counts, outputFile);
+        output.finish(counts.length);
+        return board;
     }
-}
 
-/**
- * Class which extends Exception and contains a method with string warning related to number of pieces on the board.
- */
-class InvalidNumberOfPiecesException extends Exception {
     /**
-     * Method which returns a string with warning message.
+     * In this method we parse the initial position, print counts of all its pieces and then replay the log of moves
+     * printing only changed counts. If the input or the log is invalid we print the warning message and stop
      *
-     * @return "Invalid number of pieces" string in case of illegal number of pieces on this board
+     * @param input   bytes of the input file
+     * @param pw      writer for the output
+     * @param engine  the engine which scans rays of bishops, rooks and queens
+     * @param logFile the log of moves
+     * @return the board after the last made move, or null if the input is invalid
      */
-    public String getMessage() {
-        return "Invalid number of pieces";
+    static Board solveReplay(ByteBuffer input, PrintWriter pw, SlidingEngine engine, File logFile) {
+        Board board = null;
+        try {
+            board = new BoardInputParser(input, maxBoardSize, maxPieces).parse(engine, null);
+            GameReplay replay = new GameReplay(board);
+            replay.printInitialCounts(pw);
+            PhaseEvent count = new PhaseEvent(PipelinePhase.COUNT);
+            replay.replay(new MoveLog(BoardInputParser.map(logFile)), pw);
+            count.finish(board.getPiecesCount());
+        } catch (Exception exception) {
+            pw.println(exception.getMessage());
+        }
+        return board;
     }
-}
 
-/**
- * Class which extends Exception and contains a method with string warning related to invalid names of given pieces.
- */
-class InvalidPieceNameException extends Exception {
     /**
-     * Method which returns a string with warning message.
+     * In this method we parse one input and print the number of leaves of the tree of moves from its position.
+     * If some input data is invalid we print the warning message instead
      *
-     * @return "Invalid piece name" string in case of wrong piece name
+     * @param input   bytes of the input file
+     * @param pw      writer for the output
+     * @param engine  the engine which scans rays of bishops, rooks and queens
+     * @param threads the number of threads which search subtrees of the root
+     * @param depth   the number of moves to the leaves
+     * @return the board which was filled, or null if the input is invalid
      */
-    public String getMessage() {
-        return "Invalid piece name";
+    static Board solvePerft(ByteBuffer input, PrintWriter pw, SlidingEngine engine, int threads, int depth) {
+        try {
+            PhaseEvent parse = new PhaseEvent(PipelinePhase.PARSE);
+            Board board = new BoardInputParser(input, maxBoardSize, maxPieces).parse(engine, null);
+            parse.finish(board.getPiecesCount());
+            PhaseEvent count = new PhaseEvent(PipelinePhase.COUNT);
+            long leaves = new Perft(PERFT_TABLE_BITS).count(board, PieceColor.WHITE, depth, threads);
+            count.finish(board.getPiecesCount());
+            pw.println(leaves);
+            return board;
+        } catch (Exception exception) {
+            pw.println(exception.getMessage());
+            return null;
+        }
     }
-}
 
-/**
- * Class which extends Exception and contains a method with string warning related to invalid colors of given pieces.
- */
-class InvalidPieceColorException extends Exception {
     /**
-     * Method which returns a string with warning message.
+     * In this method we process many inputs in one run on a pool of workers, every worker reuses its board.
+     * The output of "name" is written into "name.out" in the output directory or next to the input
      *
-     * @return "Invalid piece color" string in case of illegal piece color.
+     * @param source    directory with input files or manifest with one path of an input file per line
+     * @param outputDir directory for outputs, or null to write them next to inputs
+     * @param engine    the engine which scans rays of bishops, rooks and queens
+     * @param workers   the number of inputs which are processed at the same time
+     * @param cache     cache of counts which is shared by all workers, or null
+     * @throws Exception if inputs can not be listed or processing of some input fails
      */
-    public String getMessage() {
-        return "Invalid piece color";
+    static void runBatch(File source, String outputDir, SlidingEngine engine, int workers, ResultCache cache)
+            throws Exception {
+        List<File> inputs = listBatchInputs(source);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, workers));
+        ThreadLocal<Board> boards = new ThreadLocal<>();
+        try {
+            List<Future<?>> results = new ArrayList<>(inputs.size());
+            for (File inputFile : inputs) {
+                File outputFile = new File(outputDir != null ? new File(outputDir) : inputFile.getParentFile(),
+                        inputFile.getName() + BATCH_OUTPUT_SUFFIX);
+                results.add(pool.submit(() -> {
+                    boards.set(solveFile(inputFile, outputFile, engine, boards.get(), cache));
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
     }
-}
 
-/**
- * Class which extends Exception and contains a method with string warning related to invalid positions of given pieces.
- */
-class InvalidPiecePositionException extends Exception {
     /**
-     * Method which returns a string with warning message.
+     * In this method we process one input file of the batch.
+     * As for input.txt, nothing is written if the input file can not be read
      *
-     * @return "Invalid piece position" string in case of illegal piece positions
+     * @param inputFile     the input file
+     * @param outputFile    the output file
+     * @param engine        the engine which scans rays of bishops, rooks and queens
+     * @param reusableBoard board from the previous input of this worker, or null
+     * @param cache         cache of counts of positions, or null
+     * @return the board which can be reused by the next input of this worker
+     * @throws IOException if the output file can not be written
      */
-    public String getMessage() {
-        return "Invalid piece position";
+    private static Board solveFile(File inputFile, File outputFile, SlidingEngine engine, Board reusableBoard,
+                                   ResultCache cache) throws IOException {
+        ByteBuffer input;
+        try {
+            PhaseEvent read = new PhaseEvent(PipelinePhase.READ);
+            input = BoardInputParser.map(inputFile);
+            read.finish(0);
+        } catch (IOException exception) {
+            return reusableBoard;
+        }
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(outputFile)))) {
+            return solve(input, pw, engine, 1, reusableBoard, null, false, cache);
+        }
     }
-}
 
-/**
- * Class which extends Exception and contains a method with string warning related to invalid inputs with kings.
- */
-class InvalidGivenKingsException extends Exception {
     /**
-     * Method which returns a string with warning message.
+     * The method lists inputs of the batch: files of the directory except outputs, or files from the manifest.
+     * Relative paths in the manifest are resolved against the directory of the manifest
      *
-     * @return "Invalid given Kings" string in case of illegal kings input
+     * @param source directory with input files or manifest
+     * @return input files in the order in which they are listed, files of a directory are sorted by name
+     * @throws IOException if the manifest can not be read
      */
-    public String getMessage() {
-        return "Invalid given Kings";
+    static List<File> listBatchInputs(File source) throws IOException {
+        List<File> inputs = new ArrayList<>();
+        if (source.isDirectory()) {
+            File[] files = source.listFiles();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File file : files) {
+                    if (file.isFile() && !file.getName().endsWith(BATCH_OUTPUT_SUFFIX)) {
+                        inputs.add(file);
+                    }
+                }
+            }
+            return inputs;
+        }
+        for (String line : Files.readAllLines(source.toPath(), StandardCharsets.UTF_8)) {
+            String path = line.trim();
+            if (!path.isEmpty()) {
+                File file = new File(path);
+                inputs.add(file.isAbsolute() ? file : new File(source.getAbsoluteFile().getParentFile(), path));
+            }
+        }
+        return inputs;
     }
-}
 
-/**
- * Class which extends Exception and contains a method with string warning related to invalid inputs.
- */
-class InvalidInputException extends Exception {
     /**
-     * Method which returns a string with warning message.
+     * The method looks for the "--name=value" command-line argument and returns its value.
      *
-     * @return "Invalid input" string
+     * @param args         contains the command-line arguments passed to the Java program upon invocation
+     * @param name         name of the option
+     * @param defaultValue value which is returned if there is no such option
+     * @return value of the option
      */
-    public String getMessage() {
-        return "Invalid input";
+    static String getOption(String[] args, String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * The method returns the value of an option which limits inputs, such values are positive integers.
+     *
+     * @param args         the command-line arguments
+     * @param name         name of the option without "--" and "="
+     * @param defaultValue value which is returned if there is no such option
+     * @param maxValue     the biggest allowed value
+     * @return value of the option, or 0 if it is not an integer from 1 to maxValue
+     */
+    static long getLimitOption(String[] args, String name, long defaultValue, long maxValue) {
+        String value = getOption(args, name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            long limit = Long.parseLong(value);
+            return limit >= 1 && limit <= maxValue ? limit : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
     }
 }
 
 /**
- * Class which is used to process given pieces: add their positions on a board, count their possible moves and captures.
- * It has also a method, which can return a chess piece using its position
+ * Server which keeps the JVM warm and counts moves and captures of boards sent by local clients.
+ * It listens on a loopback TCP port or on a Unix-domain socket. Every request is a 32-bit big-endian length
+ * followed by that many bytes of an input in the format of input.txt, the reply is the length and the bytes
+ * of what Main would write into output.txt for it. A connection may send any number of requests.
+ * A request which is longer than any input within the limits of boards and pieces closes the connection
  */
-class Board {
+class BoardServer {
     /**
-     * map which contains squares occupied by given chess pieces.
-     * Key - coordinates of taken squares in string representation
-     * Value - chess piece, which is on this position
+     * prefix of addresses of Unix-domain sockets.
      */
-    private Map<String, ChessPiece> positionsToPieces = new HashMap<>();
+    static final String UNIX_PREFIX = "unix:";
     /**
-     * the size of the board, which is represented as the number of squares vertically and horizontally.
+     * the biggest accepted request in bytes whatever the limits of inputs are.
      */
-    private int size;
+    private static final int MAX_REQUEST_BYTES = 1 << 30;
+    /**
+     * requests may be this many times longer than the biggest input with single spaces, as inputs may have
+     * more whitespace.
+     */
+    private static final int WHITESPACE_FACTOR = 2;
+    /**
+     * the biggest number of sessions of closed connections which are kept for new connections.
+     */
+    private static final int MAX_POOLED_SESSIONS = 64;
+    /**
+     * buffers which grew bigger are dropped when their session is pooled.
+     */
+    private static final int MAX_POOLED_BUFFER_BYTES = 1 << 20;
+    /**
+     * boards with more squares are dropped when their session is pooled, bitboards take memory for every square.
+     */
+    private static final long MAX_POOLED_BOARD_SQUARES = 1L << 22;
+    /**
+     * boards with more pieces are dropped when their session is pooled.
+     */
+    private static final int MAX_POOLED_BOARD_PIECES = 1 << 16;
+    /**
+     * the channel which accepts connections.
+     */
+    private final ServerSocketChannel server;
+    /**
+     * the engine which scans rays of bishops, rooks and queens.
+     */
+    private final SlidingEngine engine;
+    /**
+     * the biggest accepted request in bytes.
+     */
+    private final int maxRequestBytes;
+    /**
+     * sessions of closed connections, they are taken by new connections, so their buffers and boards are reused.
+     */
+    private final ConcurrentLinkedQueue<ServerSession> sessions = new ConcurrentLinkedQueue<>();
+    /**
+     * the number of pooled sessions, it is never smaller than the size of the queue.
+     */
+    private final AtomicInteger pooledSessions = new AtomicInteger();
+
+    /**
+     * The method receives the bound channel, the engine and the longest input within the limits.
+     *
+     * @param channel       the channel which accepts connections
+     * @param slideEngine   the engine which scans rays of bishops, rooks and queens
+     * @param maxInputBytes the biggest number of bytes of an input within the limits, see
+     *                      BoardInputParser.getMaxInputBytes
+     */
+    BoardServer(ServerSocketChannel channel, SlidingEngine slideEngine, long maxInputBytes) {
+        this.server = channel;
+        this.engine = slideEngine;
+        this.maxRequestBytes = maxInputBytes > MAX_REQUEST_BYTES / WHITESPACE_FACTOR ? MAX_REQUEST_BYTES
+                : (int) maxInputBytes * WHITESPACE_FACTOR;
+    }
+
+    /**
+     * The method binds the server to a local address: "unix:PATH" for a Unix-domain socket, whose file is replaced
+     * if it exists, or a port of the loopback interface.
+     *
+     * @param address       "unix:PATH" or the port
+     * @param slideEngine   the engine which scans rays of bishops, rooks and queens
+     * @param maxInputBytes the biggest number of bytes of an input within the limits
+     * @return the server which does not accept connections yet
+     * @throws IOException if the address can not be bound
+     */
+    static BoardServer open(String address, SlidingEngine slideEngine, long maxInputBytes) throws IOException {
+        ServerSocketChannel channel;
+        if (address.startsWith(UNIX_PREFIX)) {
+            Path path = Path.of(address.substring(UNIX_PREFIX.length()));
+            Files.deleteIfExists(path);
+            channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.bind(UnixDomainSocketAddress.of(path));
+        } else {
+            channel = ServerSocketChannel.open();
+            channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address)));
+        }
+        return new BoardServer(channel, slideEngine, maxInputBytes);
+    }
+
+    /**
+     * The method returns the address which the server listens on.
+     *
+     * @return the local address
+     * @throws IOException if the channel is closed
+     */
+    SocketAddress getAddress() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    /**
+     * The method accepts connections until the channel is closed, every connection is served by its own thread.
+     * Virtual threads are used when the runtime has them, otherwise a cached pool of platform threads
+     *
+     * @throws IOException if a connection can not be accepted
+     */
+    void serve() throws IOException {
+        ExecutorService connections = createConnectionExecutor();
+        try {
+            while (true) {
+                SocketChannel channel = server.accept();
+                connections.execute(() -> handle(channel));
+            }
+        } finally {
+            connections.shutdown();
+        }
+    }
+
+    /**
+     * The method answers requests of one connection until the client closes it or sends a broken request.
+     *
+     * @param channel the connection
+     */
+    private void handle(SocketChannel channel) {
+        ServerSession session = acquireSession();
+        try (channel) {
+            while (session.readRequest(channel, maxRequestBytes)) {
+                session.answer(engine);
+                session.writeReply(channel);
+            }
+        } catch (IOException exception) {
+            // the client is gone, its session is still reusable
+        } finally {
+            releaseSession(session);
+        }
+    }
+
+    /**
+     * The method takes a pooled session or creates a new one if the pool is empty.
+     *
+     * @return session for a new connection
+     */
+    private ServerSession acquireSession() {
+        ServerSession session = sessions.poll();
+        if (session == null) {
+            return new ServerSession();
+        }
+        pooledSessions.decrementAndGet();
+        return session;
+    }
+
+    /**
+     * The method shrinks the session and puts it into the pool, or drops it if the pool is full.
+     *
+     * @param session session of a closed connection
+     */
+    private void releaseSession(ServerSession session) {
+        session.shrink();
+        if (pooledSessions.incrementAndGet() > MAX_POOLED_SESSIONS) {
+            pooledSessions.decrementAndGet();
+            return;
+        }
+        sessions.offer(session);
+    }
+
+    /**
+     * The method creates the executor which runs one task per connection.
+     * Executors.newVirtualThreadPerTaskExecutor does not exist before Java 21, so it is looked up at run time
+     *
+     * @return executor with virtual threads if the runtime has them, otherwise a cached thread pool
+     */
+    private static ExecutorService createConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException exception) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Buffers and the board of one connection, they grow to the biggest request of the connection and are shrunk
+     * before the session is pooled.
+     */
+    private static final class ServerSession {
+        /**
+         * the size of a new buffer for requests.
+         */
+        private static final int INITIAL_REQUEST_BYTES = 1 << 12;
+        /**
+         * buffer for the length of a request.
+         */
+        private final ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        /**
+         * buffer for the bytes of a request.
+         */
+        private ByteBuffer request = ByteBuffer.allocate(INITIAL_REQUEST_BYTES);
+        /**
+         * buffer for the reply, it is written through the print writer.
+         */
+        private final ByteBufferWriter reply = new ByteBufferWriter();
+        /**
+         * print writer for the reply, it writes straight into the buffer.
+         */
+        private final PrintWriter pw = new PrintWriter(reply);
+        /**
+         * board of the previous request which is reused if the next one has the same size, or null.
+         */
+        private Board board;
+
+        /**
+         * The method reads the next request from the connection.
+         *
+         * @param channel         the connection
+         * @param maxRequestBytes the biggest accepted request in bytes
+         * @return false if the connection is closed before the request
+         * @throws IOException if the connection breaks inside the request or the length is invalid
+         */
+        boolean readRequest(SocketChannel channel, int maxRequestBytes) throws IOException {
+            header.clear();
+            if (!readFully(channel, header)) {
+                return false;
+            }
+            int length = header.getInt(0);
+            if (length < 0 || length > maxRequestBytes) {
+                throw new IOException("Invalid request length " + length);
+            }
+            if (request.capacity() < length) {
+                request = ByteBuffer.allocate(Math.max(length, request.capacity() * 2));
+            }
+            request.clear().limit(length);
+            if (!readFully(channel, request)) {
+                throw new IOException("Connection closed inside the request");
+            }
+            request.flip();
+            return true;
+        }
+
+        /**
+         * The method drops buffers and the board which grew too big, so that a pooled session keeps little memory
+         * whatever requests its connection sent.
+         */
+        void shrink() {
+            if (request.capacity() > MAX_POOLED_BUFFER_BYTES) {
+                request = ByteBuffer.allocate(INITIAL_REQUEST_BYTES);
+            }
+            if (board != null && ((long) board.getSize() * board.getSize() > MAX_POOLED_BOARD_SQUARES
+                    || board.getPiecesCount() > MAX_POOLED_BOARD_PIECES)) {
+                board = null;
+            }
+            reply.shrink(MAX_POOLED_BUFFER_BYTES);
+        }
+
+        /**
+         * The method counts the request and prints the reply into the reply buffer.
+         *
+         * @param engine the engine which scans rays of bishops, rooks and queens
+         */
+        void answer(SlidingEngine engine) {
+            reply.reset(Integer.BYTES);
+            board = Main.solve(request, pw, engine, 1, board);
+            pw.flush();
+        }
+
+        /**
+         * The method writes the length and the bytes of the reply into the connection.
+         *
+         * @param channel the connection
+         * @throws IOException if the connection breaks
+         */
+        void writeReply(SocketChannel channel) throws IOException {
+            ByteBuffer bytes = reply.getBuffer();
+            bytes.putInt(0, bytes.position() - Integer.BYTES);
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+
+        /**
+         * The method reads from the connection until the buffer is full.
+         *
+         * @param channel the connection
+         * @param buffer  the buffer
+         * @return false if the connection is closed before the first byte
+         * @throws IOException if the connection is closed after the first byte or breaks
+         */
+        private static boolean readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+            int start = buffer.position();
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    if (buffer.position() == start) {
+                        return false;
+                    }
+                    throw new IOException("Connection closed inside the message");
+                }
+            }
+            return true;
+        }
+    }
+}
+
+/**
+ * Writer which puts characters into a growing byte buffer, one byte per character.
+ * Outputs contain only ASCII characters, so no encoder and no intermediate strings are needed
+ */
+class ByteBufferWriter extends Writer {
+    /**
+     * the size of a new buffer.
+     */
+    private static final int INITIAL_BYTES = 1 << 12;
+    /**
+     * buffer with written bytes, its position is the end of them.
+     */
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BYTES);
+
+    /**
+     * The method forgets written bytes and reserves bytes at the start of the buffer.
+     *
+     * @param reserved the number of bytes which are skipped before the first written character
+     */
+    void reset(int reserved) {
+        buffer.clear().position(reserved);
+    }
+
+    /**
+     * The method replaces the buffer with a new small one if it grew bigger than the given capacity,
+     * written bytes are forgotten.
+     *
+     * @param maxCapacity the biggest capacity which is kept
+     */
+    void shrink(int maxCapacity) {
+        if (buffer.capacity() > maxCapacity) {
+            buffer = ByteBuffer.allocate(INITIAL_BYTES);
+        }
+    }
+
+    /**
+     * The method returns the buffer, its position is the end of written bytes.
+     *
+     * @return the buffer
+     */
+    ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        ensureRemaining(length);
+        for (int i = offset; i < offset + length; i++) {
+            buffer.put((byte) chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String text, int offset, int length) {
+        ensureRemaining(length);
+        for (int i = offset; i < offset + length; i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    /**
+     * The method grows the buffer, so that the given number of bytes fits after its position.
+     *
+     * @param length the number of bytes which are going to be written
+     */
+    private void ensureRemaining(int length) {
+        if (buffer.remaining() < length) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
+
+/**
+ * Class which reads the input data in one pass over the memory-mapped file.
+ * It counts lines, parses board size, number of pieces, names, colors and coordinates byte by byte
+ * and puts pieces on the board. Errors are found in the same order as counting lines first and then reading
+ * the data with Scanner would find them. They are kept as InputError codes, exceptions are created only by parse
+ */
+class BoardInputParser {
+    /**
+     * the smallest allowed board size.
+     */
+    private static final int MIN_BOARD_SIZE = 3;
+    /**
+     * the biggest allowed board size by default.
+     */
+    static final int MAX_BOARD_SIZE = 1000;
+    /**
+     * the smallest allowed number of pieces.
+     */
+    private static final int MIN_PIECES = 2;
+    /**
+     * the number of lines before the lines with pieces.
+     */
+    private static final int HEADER_LINES = 2;
+    /**
+     * the smallest number of bytes of a valid line with a piece and its line terminator, as "King White 1 1".
+     */
+    private static final int MIN_PIECE_LINE_BYTES = 15;
+    /**
+     * the result of parsing of a token which is not an integer.
+     */
+    private static final long INVALID_INTEGER = Long.MIN_VALUE;
+    /**
+     * names of pieces and colors as they are written in the input.
+     */
+    private static final byte[] KNIGHT = "Knight".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KING = "King".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PAWN = "Pawn".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BISHOP = "Bishop".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ROOK = "Rook".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] QUEEN = "Queen".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] WHITE = "White".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BLACK = "Black".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * bytes of the input data.
+     */
+    private final ByteBuffer input;
+    /**
+     * the biggest allowed board size.
+     */
+    private final int maxBoardSize;
+    /**
+     * the biggest allowed number of pieces, it is also limited by the number of squares.
+     */
+    private final long maxPieces;
+    /**
+     * index of the next unread byte.
+     */
+    private int offset;
+    /**
+     * the number of line terminators which are already read, "\r\n" is counted once.
+     */
+    private int lineTerminators;
+    /**
+     * index of the first byte of the last read token or line.
+     */
+    private int tokenStart;
+    /**
+     * index after the last byte of the last read token or line.
+     */
+    private int tokenEnd;
+    /**
+     * the first error of the input, or null.
+     */
+    private InputError error;
+    /**
+     * the line of the first error, or 0 if it does not belong to one line.
+     */
+    private int errorLine;
+
+    /**
+     * The method receives the input data.
+     *
+     * @param inputData bytes of the input file
+     */
+    BoardInputParser(ByteBuffer inputData) {
+        this(inputData, MAX_BOARD_SIZE, Long.MAX_VALUE);
+    }
+
+    /**
+     * The method receives the input data and limits of the board.
+     *
+     * @param inputData    bytes of the input file
+     * @param maxBoardSize the biggest allowed board size
+     * @param maxPieces    the biggest allowed number of pieces, it is also limited by the number of squares
+     */
+    BoardInputParser(ByteBuffer inputData, int maxBoardSize, long maxPieces) {
+        this.input = inputData;
+        this.offset = inputData.position();
+        this.maxBoardSize = maxBoardSize;
+        this.maxPieces = maxPieces;
+    }
+
+    /**
+     * The method returns how many bytes an input within the limits takes at most when its tokens are separated by
+     * single spaces and its lines end with "\r\n".
+     *
+     * @param maxBoardSize the biggest allowed board size
+     * @param maxPieces    the biggest allowed number of pieces
+     * @return the number of bytes of the longest such input, Long.MAX_VALUE if it does not fit into long
+     */
+    static long getMaxInputBytes(int maxBoardSize, long maxPieces) {
+        int sizeDigits = String.valueOf(maxBoardSize).length();
+        long pieces = Math.min(maxPieces, (long) maxBoardSize * maxBoardSize);
+        int lineEnd = 2;
+        long header = sizeDigits + lineEnd + String.valueOf(pieces).length() + lineEnd;
+        long pieceLine = Math.max(KNIGHT.length, BISHOP.length) + 1 + Math.max(WHITE.length, BLACK.length) + 1
+                + sizeDigits + 1 + sizeDigits + lineEnd;
+        if (pieces > (Long.MAX_VALUE - header) / pieceLine) {
+            return Long.MAX_VALUE;
+        }
+        return header + pieces * pieceLine;
+    }
+
+    /**
+     * The method maps the whole input file into memory.
+     *
+     * @param file the input file
+     * @return read-only buffer with the content of the file
+     * @throws IOException if the file can not be opened or it is too large to be mapped at once
+     */
+    static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Input file is too large");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * The method parses the whole input and creates the board with all pieces.
+     * The line count is checked after the pass, so the first error with pieces is kept until then
+     *
+     * @param engine the engine which scans rays of bishops, rooks and queens
+     * @return the board with all pieces in the input order
+     * @throws Exception the first error of the input data
+     */
+    public Board parse(SlidingEngine engine) throws Exception {
+        return parse(engine, null);
+    }
+
+    /**
+     * The method parses the whole input and puts all pieces on the reusable board if it fits the input.
+     * It is the boundary of the parser for callers which expect exceptions, the first error is thrown without
+     * a stack trace
+     *
+     * @param engine        the engine which scans rays of bishops, rooks and queens
+     * @param reusableBoard board which is cleared and filled again if it has the same size and engine, or null
+     * @return the board with all pieces in the input order
+     * @throws Exception the first error of the input data
+     */
+    public Board parse(SlidingEngine engine, Board reusableBoard) throws Exception {
+        Board board = tryParse(engine, reusableBoard);
+        if (board == null) {
+            throw error.toException();
+        }
+        return board;
+    }
+
+    /**
+     * The method parses the whole input and puts all pieces on the reusable board if it fits the input.
+     * Errors are returned as codes, no exception is created for invalid inputs.
+     * The line count is checked after the pass, so the first error with pieces is kept until then. Before the pass
+     * the number of pieces is only compared with the number of bytes left, which bounds the number of lines,
+     * and the board is sized by the number of piece lines which fit into these bytes
+     *
+     * @param engine        the engine which scans rays of bishops, rooks and queens
+     * @param reusableBoard board which is cleared and filled again if it has the same size and engine, or null
+     * @return the board with all pieces in the input order, or null if the input is invalid, see getError()
+     */
+    Board tryParse(SlidingEngine engine, Board reusableBoard) {
+        if (!readLine()) {
+            return fail(InputError.NO_LINE, 1);
+        }
+        int firstLineStart = tokenStart;
+        int firstLineEnd = tokenEnd;
+        if (!readLine()) {
+            return fail(InputError.NO_LINE, HEADER_LINES);
+        }
+        long boardSize = parseInteger(firstLineStart, firstLineEnd);
+        if (boardSize < MIN_BOARD_SIZE || boardSize > maxBoardSize) {
+            return fail(InputError.BOARD_SIZE, 1);
+        }
+        long numberOfPieces = parseInteger(tokenStart, tokenEnd);
+        long remainingBytes = input.limit() - offset;
+        if (numberOfPieces < MIN_PIECES || numberOfPieces > Math.min(boardSize * boardSize, maxPieces)
+                || numberOfPieces > remainingBytes + 1) {
+            return fail(InputError.NUMBER_OF_PIECES, HEADER_LINES);
+        }
+        Board board;
+        if (reusableBoard != null && reusableBoard.getSize() == boardSize && reusableBoard.getEngine() == engine) {
+            reusableBoard.clear();
+            board = reusableBoard;
+        } else {
+            int expectedPieces = (int) Math.min(numberOfPieces, remainingBytes / MIN_PIECE_LINE_BYTES + 1);
+            board = new Board((int) boardSize, expectedPieces, engine);
+        }
+        InputError firstError = readPieces(board, (int) numberOfPieces);
+        int firstErrorLine = lineTerminators + 1;
+        if (countLines() - HEADER_LINES != numberOfPieces) {
+            return fail(InputError.NUMBER_OF_PIECES, HEADER_LINES);
+        }
+        if (firstError != null) {
+            return fail(firstError, firstError == InputError.GIVEN_KINGS ? 0 : firstErrorLine);
+        }
+        return board;
+    }
+
+    /**
+     * The method returns the first error of the input after tryParse returned null.
+     *
+     * @return the error, or null if the input was parsed
+     */
+    InputError getError() {
+        return error;
+    }
+
+    /**
+     * The method returns the line of the first error of the input after tryParse returned null.
+     *
+     * @return the line number starting from 1, or 0 if the error does not belong to one line
+     */
+    int getErrorLine() {
+        return errorLine;
+    }
+
+    /**
+     * The method checks the whole input line by line and collects all errors instead of stopping at the first one.
+     * Every line of pieces must have a name, a color and two coordinates, so one broken line does not shift
+     * the next ones. An input without errors is parsed by tryParse in the same way
+     *
+     * @return the report with all errors, empty if the input is valid
+     */
+    InputReport validate() {
+        InputReport report = new InputReport();
+        int start = offset;
+        int lines = countLines();
+        offset = start;
+        lineTerminators = 0;
+        if (!readLine()) {
+            report.add(InputError.NO_LINE, 1);
+            return report;
+        }
+        long boardSize = parseInteger(tokenStart, tokenEnd);
+        boolean sizeValid = boardSize >= MIN_BOARD_SIZE && boardSize <= maxBoardSize;
+        if (!sizeValid) {
+            report.add(InputError.BOARD_SIZE, 1);
+        }
+        if (!readLine()) {
+            report.add(InputError.NO_LINE, HEADER_LINES);
+            return report;
+        }
+        long numberOfPieces = parseInteger(tokenStart, tokenEnd);
+        long maxNumber = sizeValid ? Math.min(boardSize * boardSize, maxPieces) : maxPieces;
+        if (numberOfPieces < MIN_PIECES || numberOfPieces > maxNumber || lines - HEADER_LINES != numberOfPieces) {
+            report.add(InputError.NUMBER_OF_PIECES, HEADER_LINES);
+        }
+        BoardStorage squares = sizeValid ? BoardStorage.create((int) boardSize, lines - HEADER_LINES) : null;
+        int numberOfWhiteKings = 0;
+        int numberOfBlackKings = 0;
+        for (int line = HEADER_LINES + 1; readLine(); line++) {
+            int lineEnd = tokenEnd;
+            tokenEnd = tokenStart;
+            boolean complete = nextTokenInLine(lineEnd);
+            int nameStart = tokenStart;
+            int nameEnd = tokenEnd;
+            complete = complete && nextTokenInLine(lineEnd);
+            int colorStart = tokenStart;
+            int colorEnd = tokenEnd;
+            complete = complete && nextTokenInLine(lineEnd);
+            long positionX = parseInteger(tokenStart, tokenEnd);
+            complete = complete && nextTokenInLine(lineEnd);
+            long positionY = parseInteger(tokenStart, tokenEnd);
+            if (!complete || nextTokenInLine(lineEnd)) {
+                report.add(InputError.INPUT, line);
+                continue;
+            }
+            boolean positionValid = positionX >= 1 && positionY >= 1
+                    && (!sizeValid || (positionX <= boardSize && positionY <= boardSize));
+            if (!positionValid) {
+                report.add(InputError.PIECE_POSITION, line);
+            }
+            PieceColor colorOfPiece = parseColor(colorStart, colorEnd);
+            if (colorOfPiece == null) {
+                report.add(InputError.PIECE_COLOR, line);
+            }
+            PieceType typeOfPiece = parseType(nameStart, nameEnd);
+            if (typeOfPiece == null) {
+                report.add(InputError.PIECE_NAME, line);
+            } else if (typeOfPiece == PieceType.KING && colorOfPiece == PieceColor.WHITE) {
+                numberOfWhiteKings += 1;
+            } else if (typeOfPiece == PieceType.KING && colorOfPiece == PieceColor.BLACK) {
+                numberOfBlackKings += 1;
+            }
+            if (sizeValid && positionValid) {
+                if (squares.getOccupant((int) positionX, (int) positionY) != BoardStorage.EMPTY) {
+                    report.add(InputError.PIECE_POSITION, line);
+                } else {
+                    squares.put((int) positionX, (int) positionY, line, PieceColor.WHITE.getCode());
+                }
+            }
+        }
+        if (numberOfWhiteKings != 1 || numberOfBlackKings != 1) {
+            report.add(InputError.GIVEN_KINGS, 0);
+        }
+        return report;
+    }
+
+    /**
+     * The method reads pieces one by one, checks their data and puts them on the board.
+     *
+     * @param board          the board for pieces
+     * @param numberOfPieces the number of pieces in the input
+     * @return the first error of pieces data, or null if all pieces are put on the board
+     */
+    private InputError readPieces(Board board, int numberOfPieces) {
+        int boardSize = board.getSize();
+        int numberOfWhiteKings = 0;
+        int numberOfBlackKings = 0;
+        for (int i = 0; i < numberOfPieces; i++) {
+            if (!nextToken()) {
+                return InputError.NO_TOKEN;
+            }
+            int nameStart = tokenStart;
+            int nameEnd = tokenEnd;
+            if (!nextToken()) {
+                return InputError.NO_TOKEN;
+            }
+            int colorStart = tokenStart;
+            int colorEnd = tokenEnd;
+            if (!nextToken()) {
+                return InputError.PIECE_POSITION;
+            }
+            long positionX = parseInteger(tokenStart, tokenEnd);
+            if (positionX == INVALID_INTEGER || !nextToken()) {
+                return InputError.PIECE_POSITION;
+            }
+            long positionY = parseInteger(tokenStart, tokenEnd);
+            if (positionY < 1 || positionY > boardSize || positionX < 1 || positionX > boardSize) {
+                return InputError.PIECE_POSITION;
+            }
+            PieceColor colorOfPiece = parseColor(colorStart, colorEnd);
+            if (colorOfPiece == null) {
+                return InputError.PIECE_COLOR;
+            }
+            PieceType typeOfPiece = parseType(nameStart, nameEnd);
+            if (typeOfPiece == null) {
+                return InputError.PIECE_NAME;
+            }
+            if (typeOfPiece == PieceType.KING && colorOfPiece == PieceColor.WHITE) {
+                numberOfWhiteKings += 1;
+            } else if (typeOfPiece == PieceType.KING) {
+                numberOfBlackKings += 1;
+            }
+            if (!board.tryAddPiece(typeOfPiece, colorOfPiece, (int) positionX, (int) positionY)) {
+                return InputError.PIECE_POSITION;
+            }
+        }
+        if (numberOfWhiteKings != 1 || numberOfBlackKings != 1) {
+            return InputError.GIVEN_KINGS;
+        }
+        return null;
+    }
+
+    /**
+     * The method keeps the error of the input.
+     *
+     * @param inputError the first error of the input
+     * @param line       the line of the error, or 0 if it does not belong to one line
+     * @return null, so that tryParse can return it at once
+     */
+    private Board fail(InputError inputError, int line) {
+        this.error = inputError;
+        this.errorLine = line;
+        return null;
+    }
+
+    /**
+     * The method reads the next line, it is kept between tokenStart and tokenEnd without the terminator.
+     *
+     * @return false if there are no more lines, where Scanner.nextLine throws NoSuchElementException
+     */
+    private boolean readLine() {
+        if (offset >= input.limit()) {
+            return false;
+        }
+        tokenStart = offset;
+        while (offset < input.limit() && !isLineTerminator(input.get(offset))) {
+            offset += 1;
+        }
+        tokenEnd = offset;
+        if (offset < input.limit()) {
+            consume();
+            if (input.get(offset - 1) == '\r' && offset < input.limit() && input.get(offset) == '\n') {
+                consume();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The method skips whitespace and reads the next token, it is kept between tokenStart and tokenEnd.
+     *
+     * @return false if there are no more tokens, where Scanner.next throws NoSuchElementException
+     */
+    private boolean nextToken() {
+        while (offset < input.limit() && isWhitespace(input.get(offset))) {
+            consume();
+        }
+        if (offset >= input.limit()) {
+            return false;
+        }
+        tokenStart = offset;
+        while (offset < input.limit() && !isWhitespace(input.get(offset))) {
+            offset += 1;
+        }
+        tokenEnd = offset;
+        return true;
+    }
+
+    /**
+     * The method reads the next token of the current line after tokenEnd, it is kept between tokenStart and tokenEnd.
+     *
+     * @param lineEnd index after the last byte of the line
+     * @return false if there are no more tokens in the line
+     */
+    private boolean nextTokenInLine(int lineEnd) {
+        int current = tokenEnd;
+        while (current < lineEnd && isWhitespace(input.get(current))) {
+            current += 1;
+        }
+        if (current >= lineEnd) {
+            return false;
+        }
+        tokenStart = current;
+        while (current < lineEnd && !isWhitespace(input.get(current))) {
+            current += 1;
+        }
+        tokenEnd = current;
+        return true;
+    }
+
+    /**
+     * The method reads one byte and counts it if it ends a line.
+     */
+    private void consume() {
+        byte current = input.get(offset);
+        if (current == '\r' || (current == '\n' && (offset == 0 || input.get(offset - 1) != '\r'))) {
+            lineTerminators += 1;
+        }
+        offset += 1;
+    }
+
+    /**
+     * The method reads the rest of the input and returns the number of lines in the same way as BufferedReader does.
+     *
+     * @return the number of lines in the input
+     */
+    private int countLines() {
+        while (offset < input.limit()) {
+            consume();
+        }
+        int lines = lineTerminators;
+        if (input.limit() > 0 && !isLineTerminator(input.get(input.limit() - 1))) {
+            lines += 1;
+        }
+        return lines;
+    }
+
+    /**
+     * The method parses an integer in the same way as Integer.parseInt does, but returns a marker instead of
+     * throwing NumberFormatException. Tokens with non-ASCII bytes are decoded first, as Integer.parseInt accepts
+     * digits of other scripts
+     *
+     * @param start index of the first byte
+     * @param end   index after the last byte
+     * @return the integer, or INVALID_INTEGER if the bytes are not an integer
+     */
+    private long parseInteger(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (input.get(i) < 0) {
+                byte[] bytes = new byte[end - start];
+                input.get(start, bytes);
+                return parseDecimal(new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+        int current = start;
+        boolean negative = false;
+        if (current < end && (input.get(current) == '-' || input.get(current) == '+')) {
+            negative = input.get(current) == '-';
+            current += 1;
+        }
+        if (current >= end) {
+            return INVALID_INTEGER;
+        }
+        long value = 0;
+        for (; current < end; current++) {
+            int digit = input.get(current) - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID_INTEGER;
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return INVALID_INTEGER;
+            }
+        }
+        return toInteger(negative ? -value : value);
+    }
+
+    /**
+     * The method parses decimal digits of any script in the same way as Integer.parseInt does.
+     *
+     * @param text the text
+     * @return the integer, or INVALID_INTEGER if the text is not an integer
+     */
+    private static long parseDecimal(String text) {
+        int current = 0;
+        boolean negative = false;
+        if (!text.isEmpty() && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+            negative = text.charAt(0) == '-';
+            current += 1;
+        }
+        if (current >= text.length()) {
+            return INVALID_INTEGER;
+        }
+        long value = 0;
+        for (; current < text.length(); current++) {
+            int digit = Character.digit(text.charAt(current), 10);
+            if (digit < 0) {
+                return INVALID_INTEGER;
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return INVALID_INTEGER;
+            }
+        }
+        return toInteger(negative ? -value : value);
+    }
+
+    /**
+     * The method checks that the parsed value fits into int.
+     *
+     * @param value the parsed value
+     * @return the value, or INVALID_INTEGER if it is bigger than Integer.MAX_VALUE
+     */
+    private static long toInteger(long value) {
+        return value > Integer.MAX_VALUE ? INVALID_INTEGER : value;
+    }
+
+    /**
+     * The method parses the color of a piece in the same way as PieceColor.parse does.
+     *
+     * @param start index of the first byte
+     * @param end   index after the last byte
+     * @return the color, or null if the color is neither white, nor black
+     */
+    private PieceColor parseColor(int start, int end) {
+        if (matches(start, end, WHITE)) {
+            return PieceColor.WHITE;
+        }
+        if (matches(start, end, BLACK)) {
+            return PieceColor.BLACK;
+        }
+        return null;
+    }
+
+    /**
+     * The method parses the name of a piece.
+     *
+     * @param start index of the first byte
+     * @param end   index after the last byte
+     * @return the type, or null if the name is not a name of a piece
+     */
+    private PieceType parseType(int start, int end) {
+        if (matches(start, end, KNIGHT)) {
+            return PieceType.KNIGHT;
+        }
+        if (matches(start, end, KING)) {
+            return PieceType.KING;
+        }
+        if (matches(start, end, PAWN)) {
+            return PieceType.PAWN;
+        }
+        if (matches(start, end, BISHOP)) {
+            return PieceType.BISHOP;
+        }
+        if (matches(start, end, ROOK)) {
+            return PieceType.ROOK;
+        }
+        if (matches(start, end, QUEEN)) {
+            return PieceType.QUEEN;
+        }
+        return null;
+    }
+
+    /**
+     * The method compares the bytes of the input with the word.
+     *
+     * @param start index of the first byte
+     * @param end   index after the last byte
+     * @param word  the word
+     * @return true if the bytes are equal to the word
+     */
+    private boolean matches(int start, int end, byte[] word) {
+        if (end - start != word.length) {
+            return false;
+        }
+        for (int i = 0; i < word.length; i++) {
+            if (input.get(start + i) != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The method checks whether the byte ends a line.
+     *
+     * @param current the byte
+     * @return true for "\n" and "\r"
+     */
+    private static boolean isLineTerminator(byte current) {
+        return current == '\n' || current == '\r';
+    }
+
+    /**
+     * The method checks whether the byte is a whitespace which separates tokens for Scanner.
+     *
+     * @param current the byte
+     * @return true for the ASCII characters which Character.isWhitespace accepts
+     */
+    private static boolean isWhitespace(byte current) {
+        final int unitSeparator = 0x1F;
+        final int fileSeparator = 0x1C;
+        return current == ' ' || (current >= '\t' && current <= '\r')
+                || (current >= fileSeparator && current <= unitSeparator);
+    }
+}
+
+/**
+ * Binary forms of inputs and results, they are read and written through memory-mapped files.
+ * A board is the header MAGIC_BOARD, board size, number of pieces and then RECORD_BYTES bytes per piece:
+ * x and y as ints, the code of the type and the code of the color as bytes. A result is the header MAGIC_RESULT and
+ * the number of pieces followed by moves and captures of every piece as ints, or -1 followed by the length and the
+ * ASCII bytes of the error message. All ints are big-endian. Boards are checked in the same order and with the same
+ * exceptions as text inputs, a wrong length of the file plays the role of a wrong number of lines
+ */
+class BinaryBoardFormat {
+    /**
+     * the first int of binary boards, "CHSB".
+     */
+    static final int MAGIC_BOARD = 0x43485342;
+    /**
+     * the first int of binary results, "CHSR".
+     */
+    static final int MAGIC_RESULT = 0x43485352;
+    /**
+     * the number of bytes of the header of a board: magic, board size and number of pieces.
+     */
+    static final int BOARD_HEADER_BYTES = 3 * Integer.BYTES;
+    /**
+     * the number of bytes of one piece of a board: x, y, type and color.
+     */
+    static final int RECORD_BYTES = 2 * Integer.BYTES + 2;
+    /**
+     * the number of bytes of the header of a result: magic and number of pieces.
+     */
+    static final int RESULT_HEADER_BYTES = 2 * Integer.BYTES;
+    /**
+     * the number of pieces in the header of a result with an error message.
+     */
+    private static final int ERROR_COUNT = -1;
+    /**
+     * the smallest allowed board size.
+     */
+    private static final int MIN_BOARD_SIZE = 3;
+    /**
+     * the smallest allowed number of pieces.
+     */
+    private static final int MIN_PIECES = 2;
+
+    /**
+     * We create a private constructor as the class has only static members.
+     */
+    private BinaryBoardFormat() {
+    }
+
+    /**
+     * The method reads the binary board and puts all pieces on the reusable board if it fits the input.
+     *
+     * @param input         bytes of the binary board from its position to its limit
+     * @param engine        the engine which scans rays of bishops, rooks and queens
+     * @param reusableBoard board which is cleared and filled again if it has the same size and engine, or null
+     * @param maxBoardSize  the biggest allowed board size
+     * @param maxPieces     the biggest allowed number of pieces, it is also limited by the number of squares
+     * @return the board with all pieces in the input order
+     * @throws Exception the first error of the input data
+     */
+    static Board readBoard(ByteBuffer input, SlidingEngine engine, Board reusableBoard, int maxBoardSize,
+                           long maxPieces) throws Exception {
+        int start = input.position();
+        if (input.remaining() < BOARD_HEADER_BYTES || input.getInt(start) != MAGIC_BOARD) {
+            throw new InvalidInputException();
+        }
+        int boardSize = input.getInt(start + Integer.BYTES);
+        if (boardSize < MIN_BOARD_SIZE || boardSize > maxBoardSize) {
+            throw new InvalidBoardSizeException();
+        }
+        int numberOfPieces = input.getInt(start + 2 * Integer.BYTES);
+        if (numberOfPieces < MIN_PIECES || numberOfPieces > Math.min((long) boardSize * boardSize, maxPieces)
+                || input.remaining() != BOARD_HEADER_BYTES + (long) numberOfPieces * RECORD_BYTES) {
+            throw new InvalidNumberOfPiecesException();
+        }
+        Board board;
+        if (reusableBoard != null && reusableBoard.getSize() == boardSize && reusableBoard.getEngine() == engine) {
+            reusableBoard.clear();
+            board = reusableBoard;
+        } else {
+            board = new Board(boardSize, numberOfPieces, engine);
+        }
+        int numberOfWhiteKings = 0;
+        int numberOfBlackKings = 0;
+        int record = start + BOARD_HEADER_BYTES;
+        for (int i = 0; i < numberOfPieces; i++, record += RECORD_BYTES) {
+            int x = input.getInt(record);
+            int y = input.getInt(record + Integer.BYTES);
+            int typeCode = input.get(record + 2 * Integer.BYTES);
+            int colorCode = input.get(record + 2 * Integer.BYTES + 1);
+            if (y < 1 || y > boardSize || x < 1 || x > boardSize) {
+                throw new InvalidPiecePositionException();
+            }
+            if (colorCode != PieceColor.WHITE.getCode() && colorCode != PieceColor.BLACK.getCode()) {
+                throw new InvalidPieceColorException();
+            }
+            if (typeCode < 0 || typeCode >= PieceType.COUNT) {
+                throw new InvalidPieceNameException();
+            }
+            if (typeCode == PieceType.KING.getCode() && colorCode == PieceColor.WHITE.getCode()) {
+                numberOfWhiteKings += 1;
+            } else if (typeCode == PieceType.KING.getCode()) {
+                numberOfBlackKings += 1;
+            }
+            board.addPiece(PieceType.fromCode(typeCode), PieceColor.fromCode(colorCode), x, y);
+        }
+        if (numberOfWhiteKings != 1 || numberOfBlackKings != 1) {
+            throw new InvalidGivenKingsException();
+        }
+        return board;
+    }
+
+    /**
+     * The method writes all pieces of the board into a binary board file in the order of ids.
+     *
+     * @param board the board without removed pieces
+     * @param file  the output file, it is replaced if it exists
+     * @throws IOException if the file can not be written
+     */
+    static void writeBoard(Board board, File file) throws IOException {
+        int count = board.getPiecesCount();
+        ByteBuffer output = mapForWriting(file, BOARD_HEADER_BYTES + (long) count * RECORD_BYTES);
+        output.putInt(MAGIC_BOARD).putInt(board.getSize()).putInt(count);
+        for (int id = 0; id < count; id++) {
+            output.putInt(board.getPieceX(id)).putInt(board.getPieceY(id));
+            output.put((byte) board.getPieceTypeCode(id)).put((byte) board.getPieceColorCode(id));
+        }
+    }
+
+    /**
+     * The method writes packed counts of pieces into a binary result file.
+     *
+     * @param counts packed counts of moves and captures by ids of pieces
+     * @param file   the output file, it is replaced if it exists
+     * @throws IOException if the file can not be written
+     */
+    static void writeResults(long[] counts, File file) throws IOException {
+        ByteBuffer output = mapForWriting(file, RESULT_HEADER_BYTES + (long) counts.length * 2 * Integer.BYTES);
+        output.putInt(MAGIC_RESULT).putInt(counts.length);
+        for (long count : counts) {
+            output.putInt(ChessPiece.unpackMoves(count)).putInt(ChessPiece.unpackCaptures(count));
+        }
+    }
+
+    /**
+     * The method writes the error message into a binary result file.
+     *
+     * @param message the message of the first error of the input
+     * @param file    the output file, it is replaced if it exists
+     * @throws IOException if the file can not be written
+     */
+    static void writeError(String message, File file) throws IOException {
+        byte[] bytes = String.valueOf(message).getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer output = mapForWriting(file, RESULT_HEADER_BYTES + Integer.BYTES + bytes.length);
+        output.putInt(MAGIC_RESULT).putInt(ERROR_COUNT).putInt(bytes.length).put(bytes);
+    }
+
+    /**
+     * The method converts a file between the text and the binary form. Binary boards and results become text in
+     * the formats of input.txt and output.txt, any other file is parsed as a text board and becomes binary
+     *
+     * @param source       the file to convert
+     * @param target       the converted file, it is replaced if it exists
+     * @param maxBoardSize the biggest allowed board size
+     * @param maxPieces    the biggest allowed number of pieces
+     * @throws Exception the first error of the board, or IOException if files can not be read or written
+     */
+    static void convert(File source, File target, int maxBoardSize, long maxPieces) throws Exception {
+        ByteBuffer input = BoardInputParser.map(source);
+        int magic = input.remaining() >= Integer.BYTES ? input.getInt(0) : 0;
+        if (magic == MAGIC_BOARD) {
+            Board board = readBoard(input, SlidingEngine.RAY_WALK, null, maxBoardSize, maxPieces);
+            try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(target)))) {
+                writeTextBoard(board, pw);
+            }
+        } else if (magic == MAGIC_RESULT) {
+            try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(target)))) {
+                writeTextResults(input, pw);
+            }
+        } else {
+            Board board = new BoardInputParser(input, maxBoardSize, maxPieces).parse(SlidingEngine.RAY_WALK);
+            writeBoard(board, target);
+        }
+    }
+
+    /**
+     * The method prints the board in the format of input.txt.
+     *
+     * @param board the board without removed pieces
+     * @param pw    writer for the text
+     */
+    static void writeTextBoard(Board board, PrintWriter pw) {
+        pw.println(board.getSize());
+        pw.println(board.getPiecesCount());
+        for (int id = 0; id < board.getPiecesCount(); id++) {
+            pw.print(getTextName(PieceType.fromCode(board.getPieceTypeCode(id)).name()));
+            pw.print(" ");
+            pw.print(getTextName(PieceColor.fromCode(board.getPieceColorCode(id)).name()));
+            pw.print(" ");
+            pw.print(board.getPieceX(id));
+            pw.print(" ");
+            pw.println(board.getPieceY(id));
+        }
+    }
+
+    /**
+     * The method prints the binary result in the format of output.txt.
+     *
+     * @param input bytes of the binary result
+     * @param pw    writer for the text
+     * @throws IOException if the result is broken
+     */
+    static void writeTextResults(ByteBuffer input, PrintWriter pw) throws IOException {
+        if (input.remaining() < RESULT_HEADER_BYTES) {
+            throw new IOException("Broken result file");
+        }
+        int count = input.getInt(Integer.BYTES);
+        if (count == ERROR_COUNT) {
+            if (input.remaining() < RESULT_HEADER_BYTES + Integer.BYTES) {
+                throw new IOException("Broken result file");
+            }
+            int length = input.getInt(RESULT_HEADER_BYTES);
+            if (length < 0 || input.remaining() != RESULT_HEADER_BYTES + Integer.BYTES + (long) length) {
+                throw new IOException("Broken result file");
+            }
+            byte[] bytes = new byte[length];
+            input.get(RESULT_HEADER_BYTES + Integer.BYTES, bytes);
+            pw.println(new String(bytes, StandardCharsets.US_ASCII));
+            return;
+        }
+        if (count < 0 || input.remaining() != RESULT_HEADER_BYTES + (long) count * 2 * Integer.BYTES) {
+            throw new IOException("Broken result file");
+        }
+        for (int i = 0; i < count; i++) {
+            int offset = RESULT_HEADER_BYTES + i * 2 * Integer.BYTES;
+            pw.print(input.getInt(offset));
+            pw.print(" ");
+            pw.println(input.getInt(offset + Integer.BYTES));
+        }
+    }
+
+    /**
+     * The method turns the name of an enum constant into the name which is used in text inputs, "KNIGHT" is "Knight".
+     *
+     * @param constantName the name of the constant
+     * @return the name with the first letter in upper case and the others in lower case
+     */
+    private static String getTextName(String constantName) {
+        return constantName.charAt(0) + constantName.substring(1).toLowerCase();
+    }
+
+    /**
+     * The method creates the file of the given length and maps it into memory for writing.
+     *
+     * @param file   the file, it is replaced if it exists
+     * @param length the length of the file in bytes
+     * @return big-endian buffer of the whole file
+     * @throws IOException if the file can not be written or it is too large to be mapped at once
+     */
+    private static ByteBuffer mapForWriting(File file, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Output file is too large");
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+    }
+}
+
+/**
+ * InputError enum contains codes of errors of input data, every code knows the exception which reports it.
+ * Codes are returned by the parser, so invalid inputs are rejected without creating exceptions
+ */
+enum InputError {
+    /**
+     * INPUT means that the input is not a board at all.
+     */
+    INPUT(InvalidInputException::new),
+    /**
+     * BOARD_SIZE means that the board size is not a number or it is out of limits.
+     */
+    BOARD_SIZE(InvalidBoardSizeException::new),
+    /**
+     * NUMBER_OF_PIECES means that the number of pieces is invalid or it differs from the number of lines.
+     */
+    NUMBER_OF_PIECES(InvalidNumberOfPiecesException::new),
+    /**
+     * PIECE_NAME means that the name of a piece is unknown.
+     */
+    PIECE_NAME(InvalidPieceNameException::new),
+    /**
+     * PIECE_COLOR means that the color of a piece is neither white, nor black.
+     */
+    PIECE_COLOR(InvalidPieceColorException::new),
+    /**
+     * PIECE_POSITION means that coordinates of a piece are invalid or its square is already taken.
+     */
+    PIECE_POSITION(InvalidPiecePositionException::new),
+    /**
+     * GIVEN_KINGS means that there is not exactly one king of every color.
+     */
+    GIVEN_KINGS(InvalidGivenKingsException::new),
+    /**
+     * NO_LINE means that the input ends before the board size or the number of pieces, as Scanner.nextLine reports.
+     */
+    NO_LINE(() -> new NoSuchElementException("No line found")),
+    /**
+     * NO_TOKEN means that the input ends before the name or the color of a piece, as Scanner.next reports.
+     */
+    NO_TOKEN(NoSuchElementException::new);
+
+    /**
+     * creator of the exception which reports the error.
+     */
+    private final Supplier<Exception> exceptionFactory;
+    /**
+     * the message of the exception, it is null for NO_TOKEN.
+     */
+    private final String message;
+
+    /**
+     * The method receives the creator of the exception and keeps its message.
+     *
+     * @param factory creator of the exception which reports the error
+     */
+    InputError(Supplier<Exception> factory) {
+        this.exceptionFactory = factory;
+        this.message = factory.get().getMessage();
+    }
+
+    /**
+     * The method returns the message which is printed for the error.
+     *
+     * @return the same message as the exception of the error has
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * The method creates the exception which reports the error to callers which expect exceptions.
+     *
+     * @return new exception
+     */
+    public Exception toException() {
+        return exceptionFactory.get();
+    }
+}
+
+/**
+ * Errors of one input with their lines, in the order in which lines are checked.
+ */
+class InputReport {
+    /**
+     * codes of errors.
+     */
+    private InputError[] errors = new InputError[4];
+    /**
+     * lines of errors, 0 for errors which do not belong to one line.
+     */
+    private int[] lines = new int[4];
+    /**
+     * the number of errors.
+     */
+    private int count;
+
+    /**
+     * The method adds the error.
+     *
+     * @param error the code of the error
+     * @param line  the line of the error starting from 1, or 0 if it does not belong to one line
+     */
+    void add(InputError error, int line) {
+        if (count == errors.length) {
+            errors = Arrays.copyOf(errors, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        errors[count] = error;
+        lines[count] = line;
+        count += 1;
+    }
+
+    /**
+     * The method returns the number of errors.
+     *
+     * @return the number of errors, 0 for valid inputs
+     */
+    public int getErrorsCount() {
+        return count;
+    }
+
+    /**
+     * The method returns the code of the error.
+     *
+     * @param index the index of the error
+     * @return the code of the error
+     */
+    public InputError getError(int index) {
+        return errors[index];
+    }
+
+    /**
+     * The method returns the line of the error.
+     *
+     * @param index the index of the error
+     * @return the line starting from 1, or 0 if the error does not belong to one line
+     */
+    public int getLine(int index) {
+        return lines[index];
+    }
+
+    /**
+     * The method prints every error on its own line as "line N: message", or only the message if the error
+     * does not belong to one line.
+     *
+     * @param pw writer for the report
+     */
+    public void print(PrintWriter pw) {
+        for (int i = 0; i < count; i++) {
+            if (lines[i] > 0) {
+                pw.print("line ");
+                pw.print(lines[i]);
+                pw.print(": ");
+            }
+            pw.println(errors[i].getMessage());
+        }
+    }
+}
+
+/**
+ * Class which extends Exception and contains a method with string warning related to board size.
+ */
+class InvalidBoardSizeException extends Exception {
+    /**
+     * The method creates the exception without a stack trace, as it reports input data and not a place in the code.
+     */
+    InvalidBoardSizeException() {
+        super(null, null, false, false);
+    }
+
+    /**
+     * Method which returns a string with warning message.
+     *
+     * @return "Invalid board size" string in case of illegal board size.
+     */
+    public String getMessage() {
+        return "Invalid board size";
+    }
+}
+
+/**
+ * Class which extends Exception and contains a method with string warning related to number of pieces on the board.
+ */
+class InvalidNumberOfPiecesException extends Exception {
+    /**
+     * The method creates the exception without a stack trace, as it reports input data and not a place in the code.
+     */
+    InvalidNumberOfPiecesException() {
+        super(null, null, false, false);
+    }
+
+    /**
+     * Method which returns a string with warning message.
+     *
+     * @return "Invalid number of pieces" string in case of illegal number of pieces on this board
+     */
+    public String getMessage() {
+        return "Invalid number of pieces";
+    }
+}
+
+/**
+ * Class which extends Exception and contains a method with string warning related to invalid names of given pieces.
+ */
+class InvalidPieceNameException extends Exception {
+    /**
+     * The method creates the exception without a stack trace, as it reports input data and not a place in the code.
+     */
+    InvalidPieceNameException() {
+        super(null, null, false, false);
+    }
+
+    /**
+     * Method which returns a string with warning message.
+     *
+     * @return "Invalid piece name" string in case of wrong piece name
+     */
+    public String getMessage() {
+        return "Invalid piece name";
+    }
+}
+
+/**
+ * Class which extends Exception and contains a method with string warning related to invalid colors of given pieces.
+ */
+class InvalidPieceColorException extends Exception {
+    /**
+     * The method creates the exception without a stack trace, as it reports input data and not a place in the code.
+     */
+    InvalidPieceColorException() {
+        super(null, null, false, false);
+    }
+
+    /**
+     * Method which returns a string with warning message.
+     *
+     * @return "Invalid piece color" string in case of illegal piece color.
+     */
+    public String getMessage() {
+        return "Invalid piece color";
+    }
+}
+
+/**
+ * Class which extends Exception and contains a method with string warning related to invalid positions of given pieces.
+ */
+class InvalidPiecePositionException extends Exception {
+    /**
+     * The method creates the exception without a stack trace, as it reports input data and not a place in the code.
+     */
+    InvalidPiecePositionException() {
+        super(null, null, false, false);
+    }
+
+    /**
+     * Method which returns a string with warning message.
+     *
+     * @return "Invalid piece position" string in case of illegal piece positions
+     */
+    public String getMessage() {
+        return "Invalid piece position";
+    }
+}
+
+/**
+ * Class which extends Exception and contains a method with string warning related to invalid inputs with kings.
+ */
+class InvalidGivenKingsException extends Exception {
+    /**
+     * The method creates the exception without a stack trace, as it reports input data and not a place in the code.
+     */
+    InvalidGivenKingsException() {
+        super(null, null, false, false);
+    }
+
+    /**
+     * Method which returns a string with warning message.
+     *
+     * @return "Invalid given Kings" string in case of illegal kings input
+     */
+    public String getMessage() {
+        return "Invalid given Kings";
+    }
+}
+
+/**
+ * Class which extends Exception and contains a method with string warning related to invalid inputs.
+ */
+class InvalidInputException extends Exception {
+    /**
+     * The method creates the exception without a stack trace, as it reports input data and not a place in the code.
+     */
+    InvalidInputException() {
+        super(null, null, false, false);
+    }
+
+    /**
+     * Method which returns a string with warning message.
+     *
+     * @return "Invalid input" string
+     */
+    public String getMessage() {
+        return "Invalid input";
+    }
+}
+
+/**
+ * Class which is used to process given pieces: add their positions on a board, count their possible moves and captures.
+ * It has also a method, which can return a chess piece using its position
+ */
+class Board {
+    /**
+     * storage which contains squares occupied by given chess pieces.
+     * Squares are kept by packed integer keys, so looking a square up does not create any objects
+     */
+    private BoardStorage positionsToPieces;
+    /**
+     * table with coordinates, types and colors of all given pieces, the id of a piece is its index in the table.
+     */
+    private PieceTable table;
+    /**
+     * chess piece objects by ids of pieces, they are created only when the piece is asked for.
+     */
+    private ChessPiece[] views = new ChessPiece[0];
+    /**
+     * the size of the board, which is represented as the number of squares vertically and horizontally.
+     */
+    private int size;
+    /**
+     * the engine which scans rays of bishops, rooks and queens.
+     */
+    private SlidingEngine engine;
+    /**
+     * ids of pieces grouped by types, it is filled again on every count of all pieces.
+     */
+    private int[] typeOrder = new int[0];
+    /**
+     * indexes in typeOrder where groups of types start, the last one is the end of the last group.
+     */
+    private final int[] typeStarts = new int[PieceType.COUNT + 1];
+    /**
+     * array for generated moves of one king or pawn, it is reused by every count of safe moves.
+     */
+    private final int[] nearMoves = new int[ChessPiece.MAX_NEAR_MOVES];
+    /**
+     * evaluator which counts all pieces at once for the line-sort engine, it is created on the first count.
+     */
+    private LineSortEvaluator lineSortEvaluator;
+    /**
+     * packed counts of moves and captures by ids of pieces, they are kept up to date while counts are tracked.
+     */
+    private long[] cachedCounts = new long[0];
+    /**
+     * whether cached counts are updated on every change of the board.
+     */
+    private boolean countsTracked;
+    /**
+     * ids of pieces whose counts changed during the last change of the board.
+     */
+    private int[] changedIds = new int[0];
+    /**
+     * the number of ids in changedIds.
+     */
+    private int changedCount;
+    /**
+     * marks of pieces which are already recounted during the current change, by ids of pieces.
+     */
+    private int[] recountMarks = new int[0];
+    /**
+     * the mark of the current change.
+     */
+    private int recountMark;
+    /**
+     * Zobrist hash of the position, it is updated on every change of the board.
+     */
+    private long hash;
+    /**
+     * cache of counts of positions which were counted before, or null.
+     */
+    private ResultCache resultCache;
+    /**
+     * Fenwick trees of pieces of every type and color, null until the first query of a rectangle.
+     */
+    private RectangleCounts rectangleCounts;
+
+    /**
+     * The method receives board size and assigns it to "size" private field.
+     *
+     * @param boardSize the number of squares on the board horizontally or vertically
+     */
+    Board(int boardSize) {
+        this(boardSize, 0);
+    }
+
+    /**
+     * The method receives board size and the expected number of pieces and chooses the storage for squares.
+     *
+     * @param boardSize      the number of squares on the board horizontally or vertically
+     * @param expectedPieces the number of pieces which are going to be added to the board
+     */
+    Board(int boardSize, int expectedPieces) {
+        this(boardSize, expectedPieces, SlidingEngine.RAY_WALK);
+    }
+
+    /**
+     * The method receives board size, the expected number of pieces and the engine for rays of sliding pieces.
+     *
+     * @param boardSize      the number of squares on the board horizontally or vertically
+     * @param expectedPieces the number of pieces which are going to be added to the board
+     * @param engine         the engine which scans rays of bishops, rooks and queens
+     */
+    Board(int boardSize, int expectedPieces, SlidingEngine engine) {
+        this.size = boardSize;
+        this.engine = engine;
+        this.positionsToPieces = BoardStorage.create(boardSize, expectedPieces, engine);
+        this.table = new PieceTable(expectedPieces);
+        this.hash = getEmptyHash(boardSize);
+    }
+
+    /**
+     * Method which returns the number of possible moves from the current position.
+     *
+     * @param piece currently processed chess piece
+     * @return integer value of the number of all possible moves on the board
+     */
+    public int getPiecePossibleMovesCount(ChessPiece piece) {
+        return piece.getMovesCount(positionsToPieces, size);
+    }
+
+    /**
+     * Method which returns the number of possible captures from the current position.
+     *
+     * @param piece currently processed chess piece
+     * @return integer value of the number of all possible captures on the board
+     */
+    public int getPiecePossibleCapturesCount(ChessPiece piece) {
+        return piece.getCapturesCount(positionsToPieces, size);
+    }
+
+    /**
+     * Method which returns the numbers of possible moves and captures from the current position at once.
+     *
+     * @param piece currently processed chess piece
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    public long getPiecePossibleMovesAndCapturesCount(ChessPiece piece) {
+        return piece.getMovesAndCapturesCount(positionsToPieces, size);
+    }
+
+    /**
+     * Method which returns the numbers of possible moves and captures of the piece with the given id at once.
+     *
+     * @param id the id of the piece
+     * @return the number of moves and the number of captures packed into one long value, 0 for removed pieces
+     */
+    public long countMovesAndCaptures(int id) {
+        return generateMovesAndCount(id, null, 0);
+    }
+
+    /**
+     * Method which writes possible moves of the piece with the given id into the array as packed moves,
+     * see ChessPiece.packMove. Nothing is allocated, so the same array can be reused for every piece
+     *
+     * @param id     the id of the piece
+     * @param moves  array for packed moves, it must have at least getMaxMovesCount() elements after the offset
+     * @param offset index in the array where the first move is written
+     * @return the number of written moves, 0 for removed pieces
+     * @throws IllegalStateException if the board is too big for packed moves, see ChessPiece.checkPackedMoves
+     */
+    public int generateMoves(int id, int[] moves, int offset) {
+        return ChessPiece.unpackMoves(generateMovesAndCount(id, moves, offset));
+    }
+
+    /**
+     * Method which writes possible moves of all pieces into the array in the order of ids.
+     * Moves of the piece with id i are moves[offsets[i]] ... moves[offsets[i + 1] - 1], its square is the start
+     * square of all of them
+     *
+     * @param moves   array for packed moves, its length must be at least the number of all moves
+     * @param offsets array for indexes where moves of every piece start, its length must be at least
+     *                the number of pieces + 1
+     * @return the number of written moves
+     */
+    public int generateAllMoves(int[] moves, int[] offsets) {
+        positionsToPieces.prepareScans();
+        int count = 0;
+        for (int id = 0; id < table.size(); id++) {
+            offsets[id] = count;
+            count += generateMoves(id, moves, count);
+        }
+        offsets[table.size()] = count;
+        return count;
+    }
+
+    /**
+     * Method which returns the biggest number of moves of one piece on this board, it is the number of moves of
+     * a queen in the center of the empty board.
+     *
+     * @return the number of moves which fits into any array for moves of one piece
+     */
+    public int getMaxMovesCount() {
+        return ChessPiece.getMaxMovesCount(size);
+    }
+
+    /**
+     * Method which generates moves of the piece with the given id and counts them in one pass.
+     * Only counts are returned if the array is null, so counts are a projection of generated moves
+     *
+     * @param id     the id of the piece
+     * @param moves  array for packed moves or null
+     * @param offset index in the array where the first move is written
+     * @return the number of moves and the number of captures packed into one long value, 0 for removed pieces
+     */
+    private long generateMovesAndCount(int id, int[] moves, int offset) {
+        if (table.isRemoved(id)) {
+            return 0;
+        }
+        return ChessPiece.generatePieceMoves(table.getTypeCode(id), table.getX(id), table.getY(id),
+                table.getColorCode(id), positionsToPieces, size, moves, offset);
+    }
+
+    /**
+     * Method which counts possible moves and captures of all pieces and writes them in the order of ids.
+     * Pieces are grouped by types first, so every group is counted by its own loop with one kind of piece.
+     * Big boards are split into chunks of pieces which are counted in parallel, as the board is not changed meanwhile.
+     * The line-sort engine counts the whole board in the current thread by sorting pieces along lines.
+     * If the board has a result cache, a position which was counted before is copied from it
+     *
+     * @param results array for packed counts, its length must be at least the number of pieces
+     * @param threads the number of threads, 1 means that pieces are counted in the current thread
+     */
+    public void countAllMovesAndCaptures(long[] results, int threads) {
+        if (resultCache != null && resultCache.lookup(hash, size, table, positionsToPieces, results)) {
+            return;
+        }
+        countAll(results, threads);
+        if (resultCache != null) {
+            resultCache.store(hash, size, table, results);
+        }
+    }
+
+    /**
+     * Method which counts possible moves and captures of all pieces without the cache.
+     *
+     * @param results array for packed counts, its length must be at least the number of pieces
+     * @param threads the number of threads, 1 means that pieces are counted in the current thread
+     */
+    private void countAll(long[] results, int threads) {
+        if (engine == SlidingEngine.LINE_SORT) {
+            if (lineSortEvaluator == null) {
+                lineSortEvaluator = new LineSortEvaluator(size);
+            }
+            lineSortEvaluator.countAll(table, positionsToPieces, results);
+            return;
+        }
+        if (typeOrder.length < table.size()) {
+            typeOrder = new int[table.size()];
+        }
+        table.groupByType(typeOrder, typeStarts);
+        positionsToPieces.prepareScans();
+        for (int i = typeStarts[PieceType.COUNT]; i < table.size(); i++) {
+            results[typeOrder[i]] = 0;
+        }
+        int grouped = typeStarts[PieceType.COUNT];
+        if (threads <= 1 || grouped <= MovesAndCapturesTask.CHUNK_SIZE) {
+            countGroupedRange(typeOrder, 0, grouped, results);
+            return;
+        }
+        MovesAndCapturesTask.getPool(threads).invoke(new MovesAndCapturesTask(this, typeOrder, results, 0, grouped));
+    }
+
+    /**
+     * Method which counts pieces from a range of ids grouped by types, the range may cross borders of groups.
+     * Every group in the range is counted by a loop which calls the counting method of one type only,
+     * time of the loop is added to Instrumentation when it is enabled
+     *
+     * @param order   ids of pieces grouped by types
+     * @param from    the first index of the range in order
+     * @param to      the index after the last one of the range in order
+     * @param results array for packed counts by ids of pieces
+     */
+    void countGroupedRange(int[] order, int from, int to, long[] results) {
+        for (int type = 0; type < PieceType.COUNT; type++) {
+            int start = Math.max(from, typeStarts[type]);
+            int end = Math.min(to, typeStarts[type + 1]);
+            if (start < end) {
+                long startNanos = Instrumentation.ENABLED ? System.nanoTime() : 0;
+                countTypeRange(PieceType.fromCode(type), order, start, end, results);
+                if (Instrumentation.ENABLED) {
+                    Instrumentation.recordEvaluation(PieceType.fromCode(type), end - start,
+                            System.nanoTime() - startNanos);
+                }
+            }
+        }
+    }
+
+    /**
+     * The method counts pieces of one type, coordinates and colors are read straight from the piece table.
+     *
+     * @param type    the type of all pieces in the range
+     * @param order   ids of pieces grouped by types
+     * @param from    the first index of the range in order
+     * @param to      the index after the last one of the range in order
+     * @param results array for packed counts by ids of pieces
+     */
+    private void countTypeRange(PieceType type, int[] order, int from, int to, long[] results) {
+        BoardStorage positions = positionsToPieces;
+        switch (type) {
+            case KNIGHT:
+                for (int i = from; i < to; i++) {
+                    int id = order[i];
+                    results[id] = Knight.countMovesAndCaptures(table.getX(id), table.getY(id),
+                            table.getColorCode(id), positions, size);
+                }
+                break;
+            case KING:
+                for (int i = from; i < to; i++) {
+                    int id = order[i];
+                    results[id] = King.countMovesAndCaptures(table.getX(id), table.getY(id),
+                            table.getColorCode(id), positions, size);
+                }
+                break;
+            case PAWN:
+                for (int i = from; i < to; i++) {
+                    int id = order[i];
+                    results[id] = Pawn.countMovesAndCaptures(table.getX(id), table.getY(id),
+                            table.getColorCode(id), positions, size);
+                }
+                break;
+            case BISHOP:
+                for (int i = from; i < to; i++) {
+                    int id = order[i];
+                    results[id] = BishopMovement.countDiagonalMovesAndCaptures(table.getX(id), table.getY(id),
+                            table.getColorCode(id), positions);
+                }
+                break;
+            case ROOK:
+                for (int i = from; i < to; i++) {
+                    int id = order[i];
+                    results[id] = RookMovement.countOrthogonalMovesAndCaptures(table.getX(id), table.getY(id),
+                            table.getColorCode(id), positions);
+                }
+                break;
+            default:
+                for (int i = from; i < to; i++) {
+                    int id = order[i];
+                    int x = table.getX(id);
+                    int y = table.getY(id);
+                    int colorCode = table.getColorCode(id);
+                    results[id] = BishopMovement.countDiagonalMovesAndCaptures(x, y, colorCode, positions)
+                            + RookMovement.countOrthogonalMovesAndCaptures(x, y, colorCode, positions);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Method which counts legal moves and captures of all pieces and writes them in the order of ids.
+     * A move is legal if the king of the piece is not attacked after it, the map of attacks, checks and pins are
+     * found once for the board and every square of a piece is checked against them in O(1)
+     *
+     * @param results array for packed counts, its length must be at least the number of pieces
+     * @throws InvalidGivenKingsException if there is not exactly one king of every color
+     * @throws IllegalStateException      if the board is too big for packed moves
+     */
+    public void countLegalMovesAndCaptures(long[] results) throws InvalidGivenKingsException {
+        ChessPiece.checkPackedMoves(size);
+        positionsToPieces.prepareScans();
+        LegalMoveCounter counter = new LegalMoveCounter(table, positionsToPieces, size, getAttackMap());
+        for (int id = 0; id < table.size(); id++) {
+            results[id] = counter.count(id);
+        }
+    }
+
+    /**
+     * Method which counts for every square how many white and how many black pieces attack it.
+     * A piece attacks the squares where it could capture: sliding pieces attack their rays up to and including
+     * the nearest piece, knights and kings attack their jump squares and pawns attack the diagonal squares ahead
+     *
+     * @return the map of attacks of both colors
+     */
+    public AttackMap getAttackMap() {
+        AttackMap map = new AttackMap(size);
+        for (int i = 0; i < RookMovement.ORTHOGONAL_STEPS_X.length; i++) {
+            sweepAttacks(map, RookMovement.ORTHOGONAL_STEPS_X[i], RookMovement.ORTHOGONAL_STEPS_Y[i], false);
+            sweepAttacks(map, BishopMovement.DIAGONAL_STEPS_X[i], BishopMovement.DIAGONAL_STEPS_Y[i], true);
+        }
+        for (int id = 0; id < table.size(); id++) {
+            if (table.isRemoved(id)) {
+                continue;
+            }
+            int x = table.getX(id);
+            int y = table.getY(id);
+            int colorCode = table.getColorCode(id);
+            PieceType type = PieceType.fromCode(table.getTypeCode(id));
+            if (type == PieceType.KNIGHT) {
+                for (int k = 0; k < Knight.STEPS_X.length; k++) {
+                    map.addAttack(colorCode, x + Knight.STEPS_X[k], y + Knight.STEPS_Y[k]);
+                }
+            } else if (type == PieceType.KING) {
+                for (int i = -1; i < 2; i++) {
+                    for (int j = -1; j < 2; j++) {
+                        if (i != 0 || j != 0) {
+                            map.addAttack(colorCode, x + i, y + j);
+                        }
+                    }
+                }
+            } else if (type == PieceType.PAWN) {
+                int colorForSteps = colorCode == PieceColor.WHITE.getCode() ? 1 : -1;
+                map.addAttack(colorCode, x - 1, y + colorForSteps);
+                map.addAttack(colorCode, x + 1, y + colorForSteps);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Method which counts moves of the king to squares which are not taken by its own pieces and are not attacked
+     * by the enemy. The king does not shield squares behind it from sliding pieces which attack it
+     *
+     * @param king the king on this board
+     * @param map  the map of attacks of this board
+     * @return the number of safe moves of the king
+     * @throws IllegalStateException if the board is too big for packed moves
+     */
+    public int getKingSafeMovesCount(King king, AttackMap map) {
+        return getSafeMovesCount(king, map);
+    }
+
+    /**
+     * Method which counts moves of the pawn, its step forward and its captures, to squares which are not attacked
+     * by the enemy after the move.
+     *
+     * @param pawn the pawn on this board
+     * @param map  the map of attacks of this board
+     * @return the number of safe moves of the pawn
+     * @throws IllegalStateException if the board is too big for packed moves
+     */
+    public int getPawnSafeMovesCount(Pawn pawn, AttackMap map) {
+        return getSafeMovesCount(pawn, map);
+    }
+
+    /**
+     * The method generates moves of a king or a pawn into nearMoves and counts those whose target square is not
+     * attacked by the enemy. The map is built with the piece on its square, so a target which is attacked through
+     * that square is found by scanning the ray behind the piece
+     *
+     * @param piece the king or the pawn on this board
+     * @param map   the map of attacks of this board
+     * @return the number of safe moves of the piece
+     */
+    private int getSafeMovesCount(ChessPiece piece, AttackMap map) {
+        int x = piece.getPosition().getX();
+        int y = piece.getPosition().getY();
+        int colorCode = piece.getColor().getCode();
+        PieceColor enemy = piece.getColor() == PieceColor.WHITE ? PieceColor.BLACK : PieceColor.WHITE;
+        int generated = ChessPiece.unpackMoves(ChessPiece.generatePieceMoves(piece.getType().getCode(), x, y,
+                colorCode, positionsToPieces, size, nearMoves, 0));
+        positionsToPieces.prepareScans();
+        int countOfSteps = 0;
+        for (int i = 0; i < generated; i++) {
+            int toX = ChessPiece.getMoveX(nearMoves[i], size);
+            int toY = ChessPiece.getMoveY(nearMoves[i], size);
+            if (map.getAttackersCount(enemy, toX, toY) == 0 && !isAttackedThrough(x, y, toX - x, toY - y, colorCode)) {
+                countOfSteps += 1;
+            }
+        }
+        return countOfSteps;
+    }
+
+    /**
+     * The method checks whether an enemy sliding piece attacks the square next to the piece through the square
+     * of the piece, so the square is attacked as soon as the piece steps on it.
+     *
+     * @param x         horizontal coordinate of the piece
+     * @param y         vertical coordinate of the piece
+     * @param dx        horizontal step to the square, from -1 to 1
+     * @param dy        vertical step to the square, from -1 to 1
+     * @param colorCode the code of the color of the piece
+     * @return true if the nearest piece behind the piece is an enemy which slides along this line
+     */
+    private boolean isAttackedThrough(int x, int y, int dx, int dy, int colorCode) {
+        int ray = positionsToPieces.scanRay(x, y, -dx, -dy);
+        if (BoardStorage.getRayCapturesCount(ray, colorCode) == 0) {
+            return false;
+        }
+        int distance = (ray >>> BoardStorage.RAY_BLOCKER_BITS) + 1;
+        PieceType type = PieceType.fromCode(table.getTypeCode(
+                positionsToPieces.getPieceId(x - dx * distance, y - dy * distance)));
+        return dx != 0 && dy != 0 ? type.slidesDiagonally() : type.slidesOrthogonally();
+    }
+
+    /**
+     * Method which builds the directed graph of captures between pieces and counts moves and captures in the same pass.
+     * Every capture of a piece is an edge from it to the captured piece
+     *
+     * @param counts array for packed counts in the order of ids, or null if only the graph is needed
+     * @return the graph of captures in compressed sparse row form
+     * @throws IllegalStateException if the board is too big for packed moves
+     */
+    public AttackGraph getAttackGraph(long[] counts) {
+        ChessPiece.checkPackedMoves(size);
+        AttackGraph graph = new AttackGraph(table.size());
+        int[] moves = new int[getMaxMovesCount()];
+        positionsToPieces.prepareScans();
+        for (int id = 0; id < table.size(); id++) {
+            long pieceCounts = 0;
+            if (!table.isRemoved(id)) {
+                pieceCounts = collectCaptures(id, graph, moves);
+            }
+            graph.endPiece(id);
+            if (counts != null) {
+                counts[id] = pieceCounts;
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * The method generates moves of the piece and adds the piece on the target square of every capture to the graph,
+     * so edges of the graph and counts of the piece come from the same generated moves.
+     *
+     * @param id    the id of the piece
+     * @param graph the graph which gets edges of the piece
+     * @param moves array for packed moves, it must have at least getMaxMovesCount() elements
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    private long collectCaptures(int id, AttackGraph graph, int[] moves) {
+        int generated = generateMoves(id, moves, 0);
+        int countOfCaptures = 0;
+        for (int i = 0; i < generated; i++) {
+            if (ChessPiece.isCapture(moves[i])) {
+                countOfCaptures += 1;
+                graph.addEdge(positionsToPieces.getPieceId(ChessPiece.getMoveX(moves[i], size),
+                        ChessPiece.getMoveY(moves[i], size)));
+            }
+        }
+        return ChessPiece.packCounts(generated, countOfCaptures);
+    }
+
+    /**
+     * The method sweeps every line of the board in one direction and adds attacks of sliding pieces along it.
+     * Only the last piece met on a line can attack the next squares, so the sweep keeps its color while
+     * it is a sliding piece of the right kind
+     *
+     * @param map      the map of attacks
+     * @param dx       horizontal step of the direction
+     * @param dy       vertical step of the direction
+     * @param diagonal whether the direction is diagonal
+     */
+    private void sweepAttacks(AttackMap map, int dx, int dy, boolean diagonal) {
+        for (int start = 0; start < 4 * (size - 1); start++) {
+            int side = start / (size - 1);
+            int offset = start % (size - 1);
+            int x = side == 0 ? 1 + offset : side == 1 ? size : side == 2 ? size - offset : 1;
+            int y = side == 0 ? 1 : side == 1 ? 1 + offset : side == 2 ? size : size - offset;
+            int previousX = x - dx;
+            int previousY = y - dy;
+            if (previousX >= 1 && previousX <= size && previousY >= 1 && previousY <= size) {
+                continue;
+            }
+            int attacker = BoardStorage.EMPTY;
+            while (x >= 1 && x <= size && y >= 1 && y <= size) {
+                if (attacker != BoardStorage.EMPTY) {
+                    map.addAttack(attacker, x, y);
+                }
+                int id = positionsToPieces.getPieceId(x, y);
+                if (id >= 0) {
+                    PieceType type = PieceType.fromCode(table.getTypeCode(id));
+                    boolean slides = diagonal ? type.slidesDiagonally() : type.slidesOrthogonally();
+                    attacker = slides ? table.getColorCode(id) : BoardStorage.EMPTY;
+                }
+                x += dx;
+                y += dy;
+            }
+        }
+    }
+
+    /**
+     * Method which finds the smallest numbers of knight jumps from the knight on the square to every square.
+     * Squares of pieces of the same color can not be reached, squares of enemy pieces can, and the knight may jump
+     * on from them. Distances are found by the search in width over bitsets of rows of the board
+     *
+     * @param position coordinates of the knight
+     * @return distances by squares (x - 1) * size + y - 1, 0 for the square of the knight and -1 for squares which
+     *         can not be reached
+     * @throws InvalidPiecePositionException is used in case of a square outside the board or without a knight
+     */
+    public short[] getKnightDistances(PiecePosition position) throws InvalidPiecePositionException {
+        int x = position.getX();
+        int y = position.getY();
+        if (x < 1 || x > size || y < 1 || y > size) {
+            throw new InvalidPiecePositionException();
+        }
+        int id = positionsToPieces.getPieceId(x, y);
+        if (id < 0 || table.getTypeCode(id) != PieceType.KNIGHT.getCode()) {
+            throw new InvalidPiecePositionException();
+        }
+        return new KnightDistances(size).find(table, x, y, table.getColorCode(id));
+    }
+
+    /**
+     * Method which adds a new chess piece into the storage with all given ones or returns an exception.
+     *
+     * @param piece new chess piece
+     * @throws InvalidPiecePositionException is used in case of another chess piece already standing on the board
+     */
+    public void addPiece(ChessPiece piece) throws InvalidPiecePositionException {
+        addPiece(piece.getType(), piece.getColor(), piece.getPosition().getX(), piece.getPosition().getY());
+        setView(table.size() - 1, piece);
+    }
+
+    /**
+     * Method which adds a new chess piece by its type, color and coordinates, no objects are created for it.
+     *
+     * @param type  the type of the piece
+     * @param color the color of the piece
+     * @param x     horizontal coordinate of the piece, it must be on the board
+     * @param y     vertical coordinate of the piece, it must be on the board
+     * @throws InvalidPiecePositionException is used in case of another chess piece already standing on the board
+     */
+    public void addPiece(PieceType type, PieceColor color, int x, int y) throws InvalidPiecePositionException {
+        if (!tryAddPiece(type, color, x, y)) {
+            throw new InvalidPiecePositionException();
+        }
+    }
+
+    /**
+     * Method which adds a new chess piece by its type, color and coordinates if its square is empty.
+     *
+     * @param type  the type of the piece
+     * @param color the color of the piece
+     * @param x     horizontal coordinate of the piece, it must be on the board
+     * @param y     vertical coordinate of the piece, it must be on the board
+     * @return false if another chess piece already stands on the square
+     */
+    boolean tryAddPiece(PieceType type, PieceColor color, int x, int y) {
+        if (positionsToPieces.getOccupant(x, y) != BoardStorage.EMPTY) {
+            return false;
+        }
+        int id = table.add(type.getCode(), color.getCode(), x, y);
+        positionsToPieces.put(x, y, id, color.getCode());
+        hash ^= getZobristKey(x, y, type.getCode(), color.getCode());
+        if (rectangleCounts != null) {
+            rectangleCounts.add(type.getCode(), color.getCode(), x, y, 1);
+        }
+        if (countsTracked) {
+            startRecount();
+            recountAround(x, y);
+        }
+        return true;
+    }
+
+    /**
+     * Method which removes the chess piece from the square.
+     * If counts are tracked, only pieces which can reach the square are counted again
+     *
+     * @param position coordinates of the piece
+     * @return the removed piece
+     * @throws InvalidPiecePositionException is used in case of an empty square
+     */
+    public ChessPiece removePiece(PiecePosition position) throws InvalidPiecePositionException {
+        int x = position.getX();
+        int y = position.getY();
+        int id = positionsToPieces.getPieceId(x, y);
+        if (id < 0) {
+            throw new InvalidPiecePositionException();
+        }
+        ChessPiece piece = getPiece(id);
+        hash ^= getZobristKey(x, y, table.getTypeCode(id), table.getColorCode(id));
+        if (rectangleCounts != null) {
+            rectangleCounts.add(table.getTypeCode(id), table.getColorCode(id), x, y, -1);
+        }
+        positionsToPieces.remove(x, y);
+        table.remove(id);
+        views[id] = null;
+        if (countsTracked) {
+            startRecount();
+            recount(id);
+            recountAround(x, y);
+        }
+        return piece;
+    }
+
+    /**
+     * Method which moves the chess piece to another square, an enemy piece on that square is captured.
+     * If counts are tracked, only pieces which can reach one of the two squares are counted again
+     *
+     * @param from coordinates of the moving piece
+     * @param to   coordinates of the target square
+     * @return the captured piece or null if the target square was empty
+     * @throws InvalidPiecePositionException is used in case of an empty start square, a target square outside
+     *                                       the board or a target square with a piece of the same color
+     */
+    public ChessPiece movePiece(PiecePosition from, PiecePosition to) throws InvalidPiecePositionException {
+        boolean targetOnBoard = to.getX() >= 1 && to.getX() <= size && to.getY() >= 1 && to.getY() <= size;
+        ChessPiece target = targetOnBoard ? getPiece(to) : null;
+        return movePiece(from.getX(), from.getY(), to.getX(), to.getY()) >= 0 ? target : null;
+    }
+
+    /**
+     * Method which moves the chess piece to another square by coordinates, an enemy piece on that square is captured.
+     * No objects are created unless the moving piece was asked for as an object before.
+     * If counts are tracked, only pieces which can reach one of the two squares are counted again and the captured
+     * piece is among changed pieces if its counts were not zero
+     *
+     * @param fromX horizontal coordinate of the moving piece
+     * @param fromY vertical coordinate of the moving piece
+     * @param toX   horizontal coordinate of the target square
+     * @param toY   vertical coordinate of the target square
+     * @return the id of the captured piece or -1 if the target square was empty
+     * @throws InvalidPiecePositionException is used in case of an empty start square, a square outside the board
+     *                                       or a target square with a piece of the same color
+     */
+    public int movePiece(int fromX, int fromY, int toX, int toY) throws InvalidPiecePositionException {
+        if (fromX < 1 || fromX > size || fromY < 1 || fromY > size
+                || toX < 1 || toX > size || toY < 1 || toY > size) {
+            throw new InvalidPiecePositionException();
+        }
+        int id = positionsToPieces.getPieceId(fromX, fromY);
+        if (id < 0) {
+            throw new InvalidPiecePositionException();
+        }
+        int colorCode = table.getColorCode(id);
+        int targetOccupant = positionsToPieces.getOccupant(toX, toY);
+        if (targetOccupant == colorCode) {
+            throw new InvalidPiecePositionException();
+        }
+        int capturedId = -1;
+        if (targetOccupant != BoardStorage.EMPTY) {
+            capturedId = positionsToPieces.getPieceId(toX, toY);
+            hash ^= getZobristKey(toX, toY, table.getTypeCode(capturedId), targetOccupant);
+            if (rectangleCounts != null) {
+                rectangleCounts.add(table.getTypeCode(capturedId), targetOccupant, toX, toY, -1);
+            }
+            positionsToPieces.remove(toX, toY);
+            table.remove(capturedId);
+            detachView(capturedId);
+        }
+        int typeCode = table.getTypeCode(id);
+        hash ^= getZobristKey(fromX, fromY, typeCode, colorCode) ^ getZobristKey(toX, toY, typeCode, colorCode);
+        if (rectangleCounts != null) {
+            rectangleCounts.move(typeCode, colorCode, fromX, fromY, toX, toY);
+        }
+        positionsToPieces.remove(fromX, fromY);
+        positionsToPieces.put(toX, toY, id, colorCode);
+        table.setPosition(id, toX, toY);
+        if (id < views.length && views[id] != null) {
+            views[id].setPosition(new PiecePosition(toX, toY));
+        }
+        if (countsTracked) {
+            startRecount();
+            recount(capturedId);
+            recountAround(fromX, fromY);
+            recountAround(toX, toY);
+        }
+        return capturedId;
+    }
+
+    /**
+     * Method which makes the packed move of the piece with the given id, for searches which try many moves.
+     * The move must be generated by generateMoves for the current position, it is not checked.
+     * Nothing is copied or allocated, objects of the moving and the captured piece are detached from the board
+     *
+     * @param id   the id of the moving piece
+     * @param move packed move
+     * @return the id of the captured piece or -1 if the target square was empty
+     */
+    public int makeMove(int id, int move) {
+        int fromX = table.getX(id);
+        int fromY = table.getY(id);
+        int toX = ChessPiece.getMoveX(move, size);
+        int toY = ChessPiece.getMoveY(move, size);
+        int colorCode = table.getColorCode(id);
+        int typeCode = table.getTypeCode(id);
+        int capturedId = -1;
+        if (ChessPiece.isCapture(move)) {
+            capturedId = positionsToPieces.getPieceId(toX, toY);
+            hash ^= getZobristKey(toX, toY, table.getTypeCode(capturedId), table.getColorCode(capturedId));
+            if (rectangleCounts != null) {
+                rectangleCounts.add(table.getTypeCode(capturedId), table.getColorCode(capturedId), toX, toY, -1);
+            }
+            positionsToPieces.remove(toX, toY);
+            table.remove(capturedId);
+            detachView(capturedId);
+        }
+        hash ^= getZobristKey(fromX, fromY, typeCode, colorCode) ^ getZobristKey(toX, toY, typeCode, colorCode);
+        if (rectangleCounts != null) {
+            rectangleCounts.move(typeCode, colorCode, fromX, fromY, toX, toY);
+        }
+        positionsToPieces.remove(fromX, fromY);
+        positionsToPieces.put(toX, toY, id, colorCode);
+        table.setPosition(id, toX, toY);
+        detachView(id);
+        if (countsTracked) {
+            startRecount();
+            recount(capturedId);
+            recountAround(fromX, fromY);
+            recountAround(toX, toY);
+        }
+        return capturedId;
+    }
+
+    /**
+     * Method which undoes the move which was made by makeMove, the captured piece gets back its id.
+     *
+     * @param id         the id of the moving piece
+     * @param move       packed move
+     * @param fromX      horizontal coordinate of the piece before the move
+     * @param fromY      vertical coordinate of the piece before the move
+     * @param capturedId the id which was returned by makeMove
+     */
+    public void unmakeMove(int id, int move, int fromX, int fromY, int capturedId) {
+        int toX = ChessPiece.getMoveX(move, size);
+        int toY = ChessPiece.getMoveY(move, size);
+        int colorCode = table.getColorCode(id);
+        int typeCode = table.getTypeCode(id);
+        hash ^= getZobristKey(toX, toY, typeCode, colorCode) ^ getZobristKey(fromX, fromY, typeCode, colorCode);
+        if (rectangleCounts != null) {
+            rectangleCounts.move(typeCode, colorCode, toX, toY, fromX, fromY);
+        }
+        positionsToPieces.remove(toX, toY);
+        positionsToPieces.put(fromX, fromY, id, colorCode);
+        table.setPosition(id, fromX, fromY);
+        detachView(id);
+        if (capturedId >= 0) {
+            int capturedColorCode = getEnemyColorCode(colorCode);
+            table.restore(capturedId, capturedColorCode);
+            positionsToPieces.put(toX, toY, capturedId, capturedColorCode);
+            hash ^= getZobristKey(toX, toY, table.getTypeCode(capturedId), capturedColorCode);
+            if (rectangleCounts != null) {
+                rectangleCounts.add(table.getTypeCode(capturedId), capturedColorCode, toX, toY, 1);
+            }
+        }
+        if (countsTracked) {
+            startRecount();
+            recountAround(fromX, fromY);
+            recountAround(toX, toY);
+        }
+    }
+
+    /**
+     * Method which copies the board with the same ids of pieces, the copy can be changed by another thread.
+     *
+     * @return new board with the same size, engine and pieces
+     */
+    public Board copy() {
+        Board board = new Board(size, table.size(), engine);
+        for (int id = 0; id < table.size(); id++) {
+            int x = table.getX(id);
+            int y = table.getY(id);
+            int colorCode = table.getColorCode(id);
+            board.table.add(table.getTypeCode(id), colorCode, x, y);
+            if (colorCode != BoardStorage.EMPTY) {
+                board.positionsToPieces.put(x, y, id, colorCode);
+            }
+        }
+        board.hash = hash;
+        return board;
+    }
+
+    /**
+     * Method which returns horizontal coordinate of the piece without creating its object.
+     *
+     * @param id the id of the piece
+     * @return horizontal coordinate
+     */
+    public int getPieceX(int id) {
+        return table.getX(id);
+    }
+
+    /**
+     * Method which returns vertical coordinate of the piece without creating its object.
+     *
+     * @param id the id of the piece
+     * @return vertical coordinate
+     */
+    public int getPieceY(int id) {
+        return table.getY(id);
+    }
+
+    /**
+     * Method which returns the code of the type of the piece without creating its object.
+     *
+     * @param id the id of the piece
+     * @return the type code, see PieceType.getCode()
+     */
+    public int getPieceTypeCode(int id) {
+        return table.getTypeCode(id);
+    }
+
+    /**
+     * Method which returns the code of the color of the piece without creating its object.
+     *
+     * @param id the id of the piece
+     * @return the color code, BoardStorage.EMPTY for removed pieces
+     */
+    public int getPieceColorCode(int id) {
+        return table.getColorCode(id);
+    }
+
+    /**
+     * The method returns the code of the color of enemies of pieces of the given color.
+     *
+     * @param colorCode the code of a color
+     * @return the code of the other color
+     */
+    static int getEnemyColorCode(int colorCode) {
+        return PieceColor.WHITE.getCode() + PieceColor.BLACK.getCode() - colorCode;
+    }
+
+    /**
+     * The method forgets the object of the piece, a new one with the current position is created when it is needed.
+     *
+     * @param id the id of the piece
+     */
+    private void detachView(int id) {
+        if (id < views.length) {
+            views[id] = null;
+        }
+    }
+
+    /**
+     * Method which counts all pieces once and then keeps their counts up to date on every change of the board.
+     */
+    public void trackCounts() {
+        ensureCountsCapacity();
+        for (int i = 0; i < table.size(); i++) {
+            cachedCounts[i] = countMovesAndCaptures(i);
+        }
+        countsTracked = true;
+        changedCount = 0;
+    }
+
+    /**
+     * Method which returns tracked counts of the piece.
+     *
+     * @param id the id of the piece
+     * @return the number of moves and the number of captures packed into one long value, 0 for removed pieces
+     */
+    public long getTrackedCounts(int id) {
+        return cachedCounts[id];
+    }
+
+    /**
+     * Method which returns the number of pieces whose tracked counts changed during the last change of the board.
+     *
+     * @return the number of pieces with changed counts
+     */
+    public int getChangedPiecesCount() {
+        return changedCount;
+    }
+
+    /**
+     * Method which returns the id of a piece whose tracked counts changed during the last change of the board.
+     *
+     * @param index index of the changed piece, from 0 to getChangedPiecesCount() - 1
+     * @return the id of the piece
+     */
+    public int getChangedPieceId(int index) {
+        return changedIds[index];
+    }
+
+    /**
+     * The method starts a new change of the board: the list of changed pieces is emptied.
+     */
+    private void startRecount() {
+        ensureCountsCapacity();
+        changedCount = 0;
+        recountMark += 1;
+        if (recountMark == 0) {
+            Arrays.fill(recountMarks, 0);
+            recountMark = 1;
+        }
+    }
+
+    /**
+     * The method counts again all pieces which can reach the square: the piece on it, the nearest sliding pieces
+     * on its lines and knights, kings and pawns around it.
+     *
+     * @param x horizontal coordinate of the changed square
+     * @param y vertical coordinate of the changed square
+     */
+    private void recountAround(int x, int y) {
+        recount(positionsToPieces.getPieceId(x, y));
+        for (int i = 0; i < RookMovement.ORTHOGONAL_STEPS_X.length; i++) {
+            recountSlider(x, y, RookMovement.ORTHOGONAL_STEPS_X[i], RookMovement.ORTHOGONAL_STEPS_Y[i], false);
+            recountSlider(x, y, BishopMovement.DIAGONAL_STEPS_X[i], BishopMovement.DIAGONAL_STEPS_Y[i], true);
+        }
+        for (int k = 0; k < Knight.STEPS_X.length; k++) {
+            int id = getPieceIdInside(x + Knight.STEPS_X[k], y + Knight.STEPS_Y[k]);
+            if (id >= 0 && table.getTypeCode(id) == PieceType.KNIGHT.getCode()) {
+                recount(id);
+            }
+        }
+        for (int i = -1; i < 2; i++) {
+            for (int j = -1; j < 2; j++) {
+                int id = getPieceIdInside(x + i, y + j);
+                if (id >= 0 && (table.getTypeCode(id) == PieceType.KING.getCode()
+                        || table.getTypeCode(id) == PieceType.PAWN.getCode())) {
+                    recount(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * The method returns the id of the piece on the square, squares outside the board are empty.
+     *
+     * @param x horizontal coordinate of the square
+     * @param y vertical coordinate of the square
+     * @return the id of the piece or -1
+     */
+    private int getPieceIdInside(int x, int y) {
+        if (x < 1 || x > size || y < 1 || y > size) {
+            return -1;
+        }
+        return positionsToPieces.getPieceId(x, y);
+    }
+
+    /**
+     * The method counts again the nearest piece in the direction if it slides along this line.
+     *
+     * @param x        horizontal coordinate of the changed square
+     * @param y        vertical coordinate of the changed square
+     * @param dx       horizontal step
+     * @param dy       vertical step
+     * @param diagonal whether the direction is diagonal
+     */
+    private void recountSlider(int x, int y, int dx, int dy, boolean diagonal) {
+        int ray = positionsToPieces.scanRay(x, y, dx, dy);
+        if ((ray & ((1 << BoardStorage.RAY_BLOCKER_BITS) - 1)) == BoardStorage.EMPTY) {
+            return;
+        }
+        int distance = (ray >>> BoardStorage.RAY_BLOCKER_BITS) + 1;
+        int id = positionsToPieces.getPieceId(x + dx * distance, y + dy * distance);
+        PieceType type = PieceType.fromCode(table.getTypeCode(id));
+        if ((diagonal && type.slidesDiagonally()) || (!diagonal && type.slidesOrthogonally())) {
+            recount(id);
+        }
+    }
+
+    /**
+     * The method counts the piece again if it is not counted yet during this change and remembers it if its
+     * counts changed.
+     *
+     * @param id the id of the piece, nothing happens for -1
+     */
+    private void recount(int id) {
+        if (id < 0 || recountMarks[id] == recountMark) {
+            return;
+        }
+        recountMarks[id] = recountMark;
+        long counts = countMovesAndCaptures(id);
+        if (counts != cachedCounts[id]) {
+            cachedCounts[id] = counts;
+            changedIds[changedCount] = id;
+            changedCount += 1;
+        }
+    }
+
+    /**
+     * The method grows arrays which are kept by ids of pieces, so that every id fits them.
+     */
+    private void ensureCountsCapacity() {
+        if (cachedCounts.length >= table.size()) {
+            return;
+        }
+        int capacity = Math.max(table.size(), cachedCounts.length * 2);
+        cachedCounts = Arrays.copyOf(cachedCounts, capacity);
+        changedIds = Arrays.copyOf(changedIds, capacity);
+        recountMarks = Arrays.copyOf(recountMarks, capacity);
+    }
+
+    /**
+     * Method which returns the piece by its position.
+     *
+     * @param position coordinates of the piece
+     * @return ChessPiece or null if the square is empty
+     */
+    public ChessPiece getPiece(PiecePosition position) {
+        int id = positionsToPieces.getPieceId(position.getX(), position.getY());
+        if (id < 0) {
+            return null;
+        }
+        return getPiece(id);
+    }
+
+    /**
+     * Method which returns the piece by its id, ids are given to pieces in the order in which they are added.
+     * The object is created from the piece table when the piece is asked for the first time
+     *
+     * @param id the id of the piece
+     * @return ChessPiece or null if the piece is removed
+     */
+    public ChessPiece getPiece(int id) {
+        if (table.isRemoved(id)) {
+            return null;
+        }
+        if (id < views.length && views[id] != null) {
+            return views[id];
+        }
+        ChessPiece piece = PieceType.fromCode(table.getTypeCode(id)).createPiece(
+                new PiecePosition(table.getX(id), table.getY(id)), PieceColor.fromCode(table.getColorCode(id)));
+        setView(id, piece);
+        return piece;
+    }
+
+    /**
+     * The method remembers the object of the piece, so the same object is returned every time.
+     *
+     * @param id    the id of the piece
+     * @param piece the object of the piece
+     */
+    private void setView(int id, ChessPiece piece) {
+        if (views.length <= id) {
+            views = Arrays.copyOf(views, Math.max(id + 1, Math.max(table.capacity(), views.length * 2)));
+        }
+        views[id] = piece;
+    }
+
+    /**
+     * Method which returns the number of pieces which were added to the board, removed pieces are included.
+     *
+     * @return the number of added pieces, ids are from 0 to this number - 1
+     */
+    public int getPiecesCount() {
+        return table.size();
+    }
+
+    /**
+     * Method which removes all pieces from the board, the storage keeps its memory for the next pieces.
+     */
+    public void clear() {
+        for (int id = 0; id < table.size(); id++) {
+            if (!table.isRemoved(id)) {
+                positionsToPieces.remove(table.getX(id), table.getY(id));
+            }
+        }
+        Arrays.fill(views, 0, Math.min(views.length, table.size()), null);
+        table.clear();
+        countsTracked = false;
+        changedCount = 0;
+        hash = getEmptyHash(size);
+        rectangleCounts = null;
+    }
+
+    /**
+     * Method which counts pieces of the type and the color inside the rectangle, borders are included.
+     * Fenwick trees are built by the first query of the type and the color and then kept up to date on every change
+     * of the board, so a query costs O(log^2 size)
+     *
+     * @param type  the type of pieces
+     * @param color the color of pieces
+     * @param x1    the smallest horizontal coordinate of the rectangle
+     * @param y1    the smallest vertical coordinate of the rectangle
+     * @param x2    the biggest horizontal coordinate of the rectangle
+     * @param y2    the biggest vertical coordinate of the rectangle
+     * @return the number of pieces, parts of the rectangle outside the board are ignored
+     */
+    public int countPiecesInRectangle(PieceType type, PieceColor color, int x1, int y1, int x2, int y2) {
+        if (rectangleCounts == null) {
+            rectangleCounts = new RectangleCounts(size);
+        }
+        return rectangleCounts.count(table, type.getCode(), color.getCode(), x1, y1, x2, y2);
+    }
+
+    /**
+     * Method which counts pieces of the type and the color inside every rectangle of the batch.
+     *
+     * @param type       the type of pieces
+     * @param color      the color of pieces
+     * @param rectangles coordinates x1, y1, x2, y2 of every rectangle one after another
+     * @param results    array for the numbers of pieces, its length must be at least the number of rectangles
+     */
+    public void countPiecesInRectangles(PieceType type, PieceColor color, int[] rectangles, int[] results) {
+        for (int i = 0; i + 3 < rectangles.length; i += 4) {
+            results[i / 4] = countPiecesInRectangle(type, color, rectangles[i], rectangles[i + 1],
+                    rectangles[i + 2], rectangles[i + 3]);
+        }
+    }
+
+    /**
+     * Method which returns the Zobrist hash of the position: the hash of the empty board of this size xor keys of
+     * all pieces. Equal positions have equal hashes whatever the order in which pieces were added
+     *
+     * @return 64-bit hash of the position
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Method which sets the cache which is used by countAllMovesAndCaptures, one cache can be shared by boards.
+     *
+     * @param cache the cache or null to count every position again
+     */
+    public void setResultCache(ResultCache cache) {
+        this.resultCache = cache;
+    }
+
+    /**
+     * The method returns the Zobrist key of a piece on a square. Keys are computed by mixing the square, the type
+     * and the color instead of being kept in a table, as big boards would need a table of millions of keys
+     *
+     * @param x         horizontal coordinate of the square
+     * @param y         vertical coordinate of the square
+     * @param typeCode  the code of the piece type
+     * @param colorCode the code of the piece color
+     * @return 64-bit key
+     */
+    static long getZobristKey(int x, int y, int typeCode, int colorCode) {
+        long key = ((long) x << Integer.SIZE) | ((long) y << Byte.SIZE) | ((long) typeCode << 2) | colorCode;
+        return mix(key);
+    }
+
+    /**
+     * The method returns the hash of the empty board, boards of different sizes have different hashes.
+     *
+     * @param boardSize the number of squares on the board horizontally or vertically
+     * @return 64-bit hash
+     */
+    private static long getEmptyHash(int boardSize) {
+        return mix(~(long) boardSize);
+    }
+
+    /**
+     * The method mixes bits of the value with the finalizer of SplitMix64, so close values get unrelated keys.
+     *
+     * @param value the value
+     * @return mixed value
+     */
+    static long mix(long value) {
+        long z = value * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * The method is a getter for field "engine".
+     *
+     * @return the engine which scans rays of bishops, rooks and queens
+     */
+    public SlidingEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * The method is a getter for field "size".
+     *
+     * @return the number of squares on the board horizontally or vertically
+     */
+    public int getSize() {
+        return size;
+    }
+}
+
+/**
+ * Table of pieces which keeps every field of pieces in its own array, the id of a piece is its index in the arrays.
+ * Pieces do not need an object each, and a loop over many pieces reads coordinates one after another in memory
+ */
+class PieceTable {
+    /**
+     * horizontal coordinates of pieces by ids.
+     */
+    private int[] xs;
+    /**
+     * vertical coordinates of pieces by ids.
+     */
+    private int[] ys;
+    /**
+     * codes of types of pieces by ids, see PieceType.getCode().
+     */
+    private byte[] types;
+    /**
+     * codes of colors of pieces by ids, BoardStorage.EMPTY marks removed pieces.
+     */
+    private byte[] colors;
+    /**
+     * the number of pieces which were added to the table, removed pieces are included.
+     */
+    private int count;
+
+    /**
+     * The method creates an empty table.
+     *
+     * @param expectedPieces the number of pieces which are going to be added to the table
+     */
+    PieceTable(int expectedPieces) {
+        int capacity = Math.max(expectedPieces, 1);
+        this.xs = new int[capacity];
+        this.ys = new int[capacity];
+        this.types = new byte[capacity];
+        this.colors = new byte[capacity];
+    }
+
+    /**
+     * The method adds a piece to the end of the table.
+     *
+     * @param typeCode  the code of the type of the piece
+     * @param colorCode the code of the color of the piece
+     * @param x         horizontal coordinate of the piece
+     * @param y         vertical coordinate of the piece
+     * @return the id of the piece
+     */
+    int add(int typeCode, int colorCode, int x, int y) {
+        if (count == xs.length) {
+            int capacity = count * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            types = Arrays.copyOf(types, capacity);
+            colors = Arrays.copyOf(colors, capacity);
+        }
+        xs[count] = x;
+        ys[count] = y;
+        types[count] = (byte) typeCode;
+        colors[count] = (byte) colorCode;
+        count += 1;
+        return count - 1;
+    }
+
+    /**
+     * The method changes coordinates of the piece when it is moved on the board.
+     *
+     * @param id the id of the piece
+     * @param x  new horizontal coordinate
+     * @param y  new vertical coordinate
+     */
+    void setPosition(int id, int x, int y) {
+        xs[id] = x;
+        ys[id] = y;
+    }
+
+    /**
+     * The method marks the piece as removed, its id is not given to other pieces.
+     *
+     * @param id the id of the piece
+     */
+    void remove(int id) {
+        colors[id] = BoardStorage.EMPTY;
+    }
+
+    /**
+     * The method puts back the removed piece with its old id, type and coordinates.
+     *
+     * @param id        the id of the piece
+     * @param colorCode the code of the color of the piece
+     */
+    void restore(int id, int colorCode) {
+        colors[id] = (byte) colorCode;
+    }
+
+    /**
+     * The method removes all pieces, the arrays are kept for the next pieces.
+     */
+    void clear() {
+        count = 0;
+    }
+
+    /**
+     * The method writes ids of pieces into the array grouped by types, in the order of ids inside every group.
+     * Removed pieces are written after all groups
+     *
+     * @param order  array for ids, its length must be at least the number of pieces
+     * @param starts array of length PieceType.COUNT + 1 for indexes where groups start, the last index is where
+     *               removed pieces start
+     */
+    void groupByType(int[] order, int[] starts) {
+        Arrays.fill(starts, 0);
+        for (int id = 0; id < count; id++) {
+            if (colors[id] != BoardStorage.EMPTY) {
+                starts[types[id] + 1] += 1;
+            }
+        }
+        for (int type = 1; type < starts.length; type++) {
+            starts[type] += starts[type - 1];
+        }
+        int[] next = Arrays.copyOf(starts, starts.length);
+        for (int id = 0; id < count; id++) {
+            if (colors[id] == BoardStorage.EMPTY) {
+                order[next[starts.length - 1]] = id;
+                next[starts.length - 1] += 1;
+            } else {
+                order[next[types[id]]] = id;
+                next[types[id]] += 1;
+            }
+        }
+    }
+
+    /**
+     * The method returns horizontal coordinate of the piece.
+     *
+     * @param id the id of the piece
+     * @return horizontal coordinate
+     */
+    int getX(int id) {
+        return xs[id];
+    }
+
+    /**
+     * The method returns vertical coordinate of the piece.
+     *
+     * @param id the id of the piece
+     * @return vertical coordinate
+     */
+    int getY(int id) {
+        return ys[id];
+    }
+
+    /**
+     * The method returns the code of the type of the piece.
+     *
+     * @param id the id of the piece
+     * @return the code of the type, see PieceType.getCode()
+     */
+    int getTypeCode(int id) {
+        return types[id];
+    }
+
+    /**
+     * The method returns the code of the color of the piece.
+     *
+     * @param id the id of the piece
+     * @return the code of the color, see PieceColor.getCode()
+     */
+    int getColorCode(int id) {
+        return colors[id];
+    }
+
+    /**
+     * The method checks whether the piece was removed.
+     *
+     * @param id the id of the piece
+     * @return true if the piece was removed
+     */
+    boolean isRemoved(int id) {
+        return colors[id] == BoardStorage.EMPTY;
+    }
+
+    /**
+     * The method returns the number of pieces which were added to the table, removed pieces are included.
+     *
+     * @return the number of pieces, ids are from 0 to this number - 1
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * The method returns the number of pieces which fit the arrays without growing them.
+     *
+     * @return the length of the arrays
+     */
+    int capacity() {
+        return xs.length;
+    }
+}
+
+/**
+ * Evaluator which counts moves and captures of all pieces of the board at once.
+ * Pieces are sorted along ranks, files, diagonals and anti-diagonals by counting sorts, so the neighbours of a piece
+ * in every sorted line are exactly its blockers, and rays of all bishops, rooks and queens come out of four linear
+ * scans. Knights, kings and pawns look their squares up in the storage. The whole board costs O(P + boardSize)
+ */
+class LineSortEvaluator {
+    /**
+     * lines of ranks, the line of a square is y - 1 and pieces are ordered by x inside it.
+     */
+    private static final int RANKS = 0;
+    /**
+     * lines of files, the line of a square is x - 1 and pieces are ordered by y inside it.
+     */
+    private static final int FILES = 1;
+    /**
+     * lines of diagonals, the line of a square is x - y + size - 1 and pieces are ordered by x inside it.
+     */
+    private static final int DIAGONALS = 2;
+    /**
+     * lines of anti-diagonals, the line of a square is x + y - 2 and pieces are ordered by x inside it.
+     */
+    private static final int ANTI_DIAGONALS = 3;
+    /**
+     * the size of the board, which is represented as the number of squares vertically and horizontally.
+     */
+    private final int size;
+    /**
+     * ids of pieces sorted by x.
+     */
+    private int[] byX = new int[0];
+    /**
+     * ids of pieces sorted by y.
+     */
+    private int[] byY = new int[0];
+    /**
+     * ids of pieces sorted by lines of the current direction.
+     */
+    private int[] byLine = new int[0];
+    /**
+     * lines of ids of the source array during a sort.
+     */
+    private int[] lineKeys = new int[0];
+    /**
+     * entries of pieces in the order of byLine: the coordinate along the line in the high bits and the color code
+     * in the low BoardStorage.RAY_BLOCKER_BITS bits, so neighbours are read one after another.
+     */
+    private int[] lineEntries = new int[0];
+    /**
+     * indexes where lines start in sorted arrays, the last one is the number of pieces.
+     */
+    private final int[] lineStarts;
+
+    /**
+     * The method creates the evaluator for boards of the given size, its arrays are reused by every count.
+     *
+     * @param boardSize the number of squares on the board horizontally or vertically
+     */
+    LineSortEvaluator(int boardSize) {
+        this.size = boardSize;
+        this.lineStarts = new int[2 * boardSize];
+    }
+
+    /**
+     * The method counts moves and captures of all pieces of the table and writes them in the order of ids.
+     *
+     * @param table     table with all pieces of the board
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param results   array for packed counts, its length must be at least the number of pieces
+     */
+    void countAll(PieceTable table, BoardStorage positions, long[] results) {
+        int count = table.size();
+        if (byX.length < count) {
+            byX = new int[count];
+            byY = new int[count];
+            byLine = new int[count];
+            lineKeys = new int[count];
+            lineEntries = new int[count];
+        }
+        int pieces = 0;
+        for (int id = 0; id < count; id++) {
+            results[id] = 0;
+            if (!table.isRemoved(id)) {
+                byLine[pieces] = id;
+                pieces += 1;
+            }
+        }
+        sortByKey(table, byLine, pieces, FILES, byX, size);
+        sortByKey(table, byLine, pieces, RANKS, byY, size);
+        for (int id = 0; id < count; id++) {
+            if (table.isRemoved(id)) {
+                continue;
+            }
+            int x = table.getX(id);
+            int y = table.getY(id);
+            int colorCode = table.getColorCode(id);
+            switch (PieceType.fromCode(table.getTypeCode(id))) {
+                case KNIGHT:
+                    results[id] = Knight.countMovesAndCaptures(x, y, colorCode, positions, size);
+                    break;
+                case KING:
+                    results[id] = King.countMovesAndCaptures(x, y, colorCode, positions, size);
+                    break;
+                case PAWN:
+                    results[id] = Pawn.countMovesAndCaptures(x, y, colorCode, positions, size);
+                    break;
+                default:
+                    break;
+            }
+        }
+        sortByKey(table, byX, pieces, RANKS, byLine, size);
+        scanLines(table, RANKS, size, pieces, results);
+        sortByKey(table, byY, pieces, FILES, byLine, size);
+        scanLines(table, FILES, size, pieces, results);
+        sortByKey(table, byX, pieces, DIAGONALS, byLine, 2 * size - 1);
+        scanLines(table, DIAGONALS, 2 * size - 1, pieces, results);
+        sortByKey(table, byX, pieces, ANTI_DIAGONALS, byLine, 2 * size - 1);
+        scanLines(table, ANTI_DIAGONALS, 2 * size - 1, pieces, results);
+    }
+
+    /**
+     * The method sorts ids by lines of the direction with a stable counting sort, so the order of the source is kept
+     * inside every line. Sorting by files orders ids by x and sorting by ranks orders them by y.
+     * Starts of lines are left in lineStarts, and entries of pieces are written next to ids if the target is byLine
+     *
+     * @param table     table with all pieces of the board
+     * @param source    ids in the order which is kept inside lines
+     * @param pieces    the number of ids
+     * @param direction the direction of lines
+     * @param target    array for sorted ids
+     * @param lines     the number of lines of the direction
+     */
+    private void sortByKey(PieceTable table, int[] source, int pieces, int direction, int[] target, int lines) {
+        Arrays.fill(lineStarts, 0, lines, 0);
+        for (int i = 0; i < pieces; i++) {
+            lineKeys[i] = getLine(table, source[i], direction);
+            lineStarts[lineKeys[i]] += 1;
+        }
+        int start = 0;
+        for (int line = 0; line < lines; line++) {
+            int piecesOfLine = lineStarts[line];
+            lineStarts[line] = start;
+            start += piecesOfLine;
+        }
+        for (int i = 0; i < pieces; i++) {
+            int line = lineKeys[i];
+            int id = source[i];
+            target[lineStarts[line]] = id;
+            if (target == byLine) {
+                int coordinate = direction == FILES ? table.getY(id) : table.getX(id);
+                lineEntries[lineStarts[line]] = (coordinate << BoardStorage.RAY_BLOCKER_BITS) | table.getColorCode(id);
+            }
+            lineStarts[line] += 1;
+        }
+        for (int line = lines - 1; line > 0; line--) {
+            lineStarts[line] = lineStarts[line - 1];
+        }
+        lineStarts[0] = 0;
+    }
+
+    /**
+     * The method returns the line of the piece in the direction.
+     *
+     * @param table     table with all pieces of the board
+     * @param id        the id of the piece
+     * @param direction the direction of lines
+     * @return the index of the line
+     */
+    private int getLine(PieceTable table, int id, int direction) {
+        int x = table.getX(id);
+        int y = table.getY(id);
+        switch (direction) {
+            case RANKS:
+                return y - 1;
+            case FILES:
+                return x - 1;
+            case DIAGONALS:
+                return x - y + size - 1;
+            default:
+                return x + y - 2;
+        }
+    }
+
+    /**
+     * The method scans sorted lines of the direction and adds moves and captures of both rays along the line to
+     * every piece which slides in this direction. The blockers of a piece are its neighbours in the line
+     *
+     * @param table     table with all pieces of the board
+     * @param direction the direction of lines
+     * @param lines     the number of lines of the direction
+     * @param pieces    the number of sorted ids
+     * @param results   array for packed counts by ids of pieces
+     */
+    private void scanLines(PieceTable table, int direction, int lines, int pieces, long[] results) {
+        boolean diagonal = direction == DIAGONALS || direction == ANTI_DIAGONALS;
+        final int colorMask = (1 << BoardStorage.RAY_BLOCKER_BITS) - 1;
+        for (int line = 0; line < lines; line++) {
+            int start = lineStarts[line];
+            int end = line + 1 < lines ? lineStarts[line + 1] : pieces;
+            for (int i = start; i < end; i++) {
+                int id = byLine[i];
+                PieceType type = PieceType.fromCode(table.getTypeCode(id));
+                if (diagonal ? !type.slidesDiagonally() : !type.slidesOrthogonally()) {
+                    continue;
+                }
+                int entry = lineEntries[i];
+                int coordinate = entry >>> BoardStorage.RAY_BLOCKER_BITS;
+                int colorCode = entry & colorMask;
+                int moves = 0;
+                int captures = 0;
+                if (i > start) {
+                    int blocker = lineEntries[i - 1];
+                    moves += coordinate - (blocker >>> BoardStorage.RAY_BLOCKER_BITS) - 1;
+                    if ((blocker & colorMask) != colorCode) {
+                        captures += 1;
+                    }
+                } else {
+                    moves += getLimitBelow(direction, table.getX(id), table.getY(id));
+                }
+                if (i + 1 < end) {
+                    int blocker = lineEntries[i + 1];
+                    moves += (blocker >>> BoardStorage.RAY_BLOCKER_BITS) - coordinate - 1;
+                    if ((blocker & colorMask) != colorCode) {
+                        captures += 1;
+                    }
+                } else {
+                    moves += getLimitAbove(direction, table.getX(id), table.getY(id));
+                }
+                results[id] += ChessPiece.packCounts(moves + captures, captures);
+            }
+        }
+    }
+
+    /**
+     * The method returns the number of squares between the square and the edge of the board before it in the line.
+     *
+     * @param direction the direction of lines
+     * @param x         horizontal coordinate of the square
+     * @param y         vertical coordinate of the square
+     * @return the number of squares
+     */
+    private int getLimitBelow(int direction, int x, int y) {
+        switch (direction) {
+            case RANKS:
+                return x - 1;
+            case FILES:
+                return y - 1;
+            case DIAGONALS:
+                return Math.min(x - 1, y - 1);
+            default:
+                return Math.min(x - 1, size - y);
+        }
+    }
+
+    /**
+     * The method returns the number of squares between the square and the edge of the board after it in the line.
+     *
+     * @param direction the direction of lines
+     * @param x         horizontal coordinate of the square
+     * @param y         vertical coordinate of the square
+     * @return the number of squares
+     */
+    private int getLimitAbove(int direction, int x, int y) {
+        switch (direction) {
+            case RANKS:
+                return size - x;
+            case FILES:
+                return size - y;
+            case DIAGONALS:
+                return Math.min(size - x, size - y);
+            default:
+                return Math.min(size - x, y - 1);
+        }
+    }
+}
+
+/**
+ * Counter of legal moves and captures: a move is legal if the king of the moving piece is not attacked after it.
+ * The map of attacks, checking pieces and pinned pieces are found once per board, then every move which is written
+ * by ChessPiece.generatePieceMoves is checked in O(1): kings avoid attacked squares, pinned pieces stay on the line
+ * of their pin and pieces of a king in check have to capture the checking piece or to stand between it and the king.
+ * Pieces which are neither pinned nor in check keep all their moves, so only their counts are generated
+ */
+class LegalMoveCounter {
+    /**
+     * pinned pieces move along files.
+     */
+    private static final byte FILE_PIN = 1;
+    /**
+     * pinned pieces move along ranks.
+     */
+    private static final byte RANK_PIN = 2;
+    /**
+     * pinned pieces move along diagonals, where x - y does not change.
+     */
+    private static final byte DIAGONAL_PIN = 3;
+    /**
+     * pinned pieces move along anti-diagonals, where x + y does not change.
+     */
+    private static final byte ANTI_DIAGONAL_PIN = 4;
+    /**
+     * the biggest number of pieces which attack one square: eight sliding or near pieces and eight knights.
+     */
+    private static final int MAX_CHECKERS = 16;
+    /**
+     * table with all pieces of the board.
+     */
+    private final PieceTable table;
+    /**
+     * storage with taken board squares.
+     */
+    private final BoardStorage positions;
+    /**
+     * the size of the board, which is represented as the number of squares vertically and horizontally.
+     */
+    private final int size;
+    /**
+     * the map of attacks of both colors.
+     */
+    private final AttackMap attacks;
+    /**
+     * coordinates of kings by color codes.
+     */
+    private final int[] kingX = new int[PieceColor.values().length + 1];
+    private final int[] kingY = new int[PieceColor.values().length + 1];
+    /**
+     * the number of pieces which attack the king, by color codes of kings.
+     */
+    private final int[] checkersCount = new int[PieceColor.values().length + 1];
+    /**
+     * coordinates of checking pieces, MAX_CHECKERS of them for every color code of kings.
+     */
+    private final int[] checkerX = new int[(PieceColor.values().length + 1) * MAX_CHECKERS];
+    private final int[] checkerY = new int[(PieceColor.values().length + 1) * MAX_CHECKERS];
+    /**
+     * whether the checking piece slides along the line to the king.
+     */
+    private final boolean[] checkerSlides = new boolean[(PieceColor.values().length + 1) * MAX_CHECKERS];
+    /**
+     * lines of pins by ids of pieces, 0 for pieces which are not pinned.
+     */
+    private final byte[] pins;
+    /**
+     * array for packed moves of one piece, it is reused for every piece.
+     */
+    private final int[] moves;
+
+    /**
+     * The method finds kings, checking pieces and pinned pieces of the board.
+     *
+     * @param pieces    table with all pieces of the board
+     * @param storage   storage with taken board squares
+     * @param boardSize the number of squares on the board horizontally or vertically
+     * @param map       the map of attacks of both colors
+     * @throws InvalidGivenKingsException if there is not exactly one king of every color
+     */
+    LegalMoveCounter(PieceTable pieces, BoardStorage storage, int boardSize, AttackMap map)
+            throws InvalidGivenKingsException {
+        this.table = pieces;
+        this.positions = storage;
+        this.size = boardSize;
+        this.attacks = map;
+        this.pins = new byte[pieces.size()];
+        this.moves = new int[ChessPiece.getMaxMovesCount(boardSize)];
+        int[] kings = new int[PieceColor.values().length + 1];
+        for (int id = 0; id < pieces.size(); id++) {
+            if (!pieces.isRemoved(id) && pieces.getTypeCode(id) == PieceType.KING.getCode()) {
+                int colorCode = pieces.getColorCode(id);
+                kings[colorCode] += 1;
+                kingX[colorCode] = pieces.getX(id);
+                kingY[colorCode] = pieces.getY(id);
+            }
+        }
+        for (PieceColor color : PieceColor.values()) {
+            if (kings[color.getCode()] != 1) {
+                throw new InvalidGivenKingsException();
+            }
+            findCheckers(color.getCode());
+            findPins(color.getCode());
+        }
+    }
+
+    /**
+     * The method counts legal moves and captures of the piece.
+     *
+     * @param id the id of the piece
+     * @return the number of moves and the number of captures packed into one long value, 0 for removed pieces
+     */
+    long count(int id) {
+        if (table.isRemoved(id)) {
+            return 0;
+        }
+        int x = table.getX(id);
+        int y = table.getY(id);
+        int colorCode = table.getColorCode(id);
+        int typeCode = table.getTypeCode(id);
+        if (typeCode == PieceType.KING.getCode()) {
+            return countKing(x, y, colorCode);
+        }
+        if (checkersCount[colorCode] > 1 || (checkersCount[colorCode] == 1 && pins[id] != 0)) {
+            return ChessPiece.packCounts(0, 0);
+        }
+        if (checkersCount[colorCode] == 0 && pins[id] == 0) {
+            return ChessPiece.generatePieceMoves(typeCode, x, y, colorCode, positions, size, null, 0);
+        }
+        int generated = ChessPiece.unpackMoves(ChessPiece.generatePieceMoves(typeCode, x, y, colorCode, positions,
+                size, moves, 0));
+        int countOfSteps = 0;
+        int countOfCaptures = 0;
+        for (int i = 0; i < generated; i++) {
+            if (isAllowed(id, colorCode, ChessPiece.getMoveX(moves[i], size), ChessPiece.getMoveY(moves[i], size))) {
+                countOfSteps += 1;
+                if (ChessPiece.isCapture(moves[i])) {
+                    countOfCaptures += 1;
+                }
+            }
+        }
+        return ChessPiece.packCounts(countOfSteps, countOfCaptures);
+    }
+
+    /**
+     * The method counts squares around the king which are not taken by its own pieces and are not attacked.
+     * Squares behind the king on the line of a sliding checking piece are attacked through the king
+     *
+     * @param x         horizontal coordinate of the king
+     * @param y         vertical coordinate of the king
+     * @param colorCode the code of the color of the king
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    private long countKing(int x, int y, int colorCode) {
+        PieceColor enemy = colorCode == PieceColor.WHITE.getCode() ? PieceColor.BLACK : PieceColor.WHITE;
+        int generated = ChessPiece.unpackMoves(King.generateMoves(x, y, colorCode, positions, size, moves, 0));
+        int countOfSteps = 0;
+        int countOfCaptures = 0;
+        for (int i = 0; i < generated; i++) {
+            int toX = ChessPiece.getMoveX(moves[i], size);
+            int toY = ChessPiece.getMoveY(moves[i], size);
+            if (attacks.getAttackersCount(enemy, toX, toY) > 0 || isBehindKing(colorCode, toX - x, toY - y)) {
+                continue;
+            }
+            countOfSteps += 1;
+            if (ChessPiece.isCapture(moves[i])) {
+                countOfCaptures += 1;
+            }
+        }
+        return ChessPiece.packCounts(countOfSteps, countOfCaptures);
+    }
+
+    /**
+     * The method checks whether the step of the king goes away from a sliding checking piece along its line.
+     *
+     * @param colorCode the code of the color of the king
+     * @param i         horizontal step of the king
+     * @param j         vertical step of the king
+     * @return true if the square is attacked through the king
+     */
+    private boolean isBehindKing(int colorCode, int i, int j) {
+        for (int k = 0; k < checkersCount[colorCode]; k++) {
+            int checker = colorCode * MAX_CHECKERS + k;
+            if (checkerSlides[checker] && Integer.signum(kingX[colorCode] - checkerX[checker]) == i
+                    && Integer.signum(kingY[colorCode] - checkerY[checker]) == j) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The method checks whether the piece can go to the square without leaving its king attacked.
+     *
+     * @param id        the id of the piece, it is not a king
+     * @param colorCode the code of the color of the piece
+     * @param x         horizontal coordinate of the square
+     * @param y         vertical coordinate of the square
+     * @return true if the move is legal
+     */
+    private boolean isAllowed(int id, int colorCode, int x, int y) {
+        if (pins[id] != 0 && !isOnLine(x, y, kingX[colorCode], kingY[colorCode], pins[id])) {
+            return false;
+        }
+        if (checkersCount[colorCode] == 0) {
+            return true;
+        }
+        int checker = colorCode * MAX_CHECKERS;
+        if (x == checkerX[checker] && y == checkerY[checker]) {
+            return true;
+        }
+        return checkerSlides[checker] && isBetween(x, y, colorCode, checker);
+    }
+
+    /**
+     * The method checks whether the square is strictly between the king and the sliding checking piece.
+     *
+     * @param x         horizontal coordinate of the square
+     * @param y         vertical coordinate of the square
+     * @param colorCode the code of the color of the king
+     * @param checker   index of the checking piece
+     * @return true if a piece on the square blocks the check
+     */
+    private boolean isBetween(int x, int y, int colorCode, int checker) {
+        int fromKingX = x - kingX[colorCode];
+        int fromKingY = y - kingY[colorCode];
+        int toCheckerX = checkerX[checker] - kingX[colorCode];
+        int toCheckerY = checkerY[checker] - kingY[colorCode];
+        if (fromKingX * toCheckerY != fromKingY * toCheckerX) {
+            return false;
+        }
+        int distance = Math.max(Math.abs(fromKingX), Math.abs(fromKingY));
+        return fromKingX * toCheckerX + fromKingY * toCheckerY > 0
+                && distance < Math.max(Math.abs(toCheckerX), Math.abs(toCheckerY));
+    }
+
+    /**
+     * The method finds pieces which attack the king of the color.
+     *
+     * @param colorCode the code of the color of the king
+     */
+    private void findCheckers(int colorCode) {
+        int x = kingX[colorCode];
+        int y = kingY[colorCode];
+        int enemyPawnRow = colorCode == PieceColor.WHITE.getCode() ? 1 : -1;
+        for (int k = 0; k < Knight.STEPS_X.length; k++) {
+            if (isEnemy(colorCode, x + Knight.STEPS_X[k], y + Knight.STEPS_Y[k], PieceType.KNIGHT)) {
+                addChecker(colorCode, x + Knight.STEPS_X[k], y + Knight.STEPS_Y[k], false);
+            }
+        }
+        for (int i = -1; i < 2; i++) {
+            for (int j = -1; j < 2; j++) {
+                if ((i != 0 || j != 0) && (isEnemy(colorCode, x + i, y + j, PieceType.KING)
+                        || (i != 0 && j == enemyPawnRow && isEnemy(colorCode, x + i, y + j, PieceType.PAWN)))) {
+                    addChecker(colorCode, x + i, y + j, false);
+                }
+            }
+        }
+        for (int i = 0; i < RookMovement.ORTHOGONAL_STEPS_X.length; i++) {
+            findSliderChecker(colorCode, RookMovement.ORTHOGONAL_STEPS_X[i], RookMovement.ORTHOGONAL_STEPS_Y[i]);
+            findSliderChecker(colorCode, BishopMovement.DIAGONAL_STEPS_X[i], BishopMovement.DIAGONAL_STEPS_Y[i]);
+        }
+    }
+
+    /**
+     * The method checks whether the square is inside the board and is taken by an enemy piece of the type.
+     *
+     * @param colorCode the code of the color of the king
+     * @param x         horizontal coordinate of the square
+     * @param y         vertical coordinate of the square
+     * @param type      the type of the piece
+     * @return true if an enemy piece of the type stands on the square
+     */
+    private boolean isEnemy(int colorCode, int x, int y, PieceType type) {
+        if (x < 1 || x > size || y < 1 || y > size) {
+            return false;
+        }
+        int id = positions.getPieceId(x, y);
+        return id >= 0 && table.getColorCode(id) != colorCode && table.getTypeCode(id) == type.getCode();
+    }
+
+    /**
+     * The method looks for a sliding piece which attacks the king along the ray.
+     *
+     * @param colorCode the code of the color of the king
+     * @param dx        horizontal step of the ray
+     * @param dy        vertical step of the ray
+     */
+    private void findSliderChecker(int colorCode, int dx, int dy) {
+        int x = kingX[colorCode];
+        int y = kingY[colorCode];
+        int ray = positions.scanRay(x, y, dx, dy);
+        if (BoardStorage.getRayCapturesCount(ray, colorCode) == 0) {
+            return;
+        }
+        int distance = (ray >>> BoardStorage.RAY_BLOCKER_BITS) + 1;
+        int id = positions.getPieceId(x + dx * distance, y + dy * distance);
+        if (slidesAlong(id, dx, dy)) {
+            addChecker(colorCode, x + dx * distance, y + dy * distance, true);
+        }
+    }
+
+    /**
+     * The method remembers a piece which attacks the king.
+     *
+     * @param colorCode the code of the color of the king
+     * @param x         horizontal coordinate of the checking piece
+     * @param y         vertical coordinate of the checking piece
+     * @param slides    whether the checking piece slides along the line to the king
+     */
+    private void addChecker(int colorCode, int x, int y, boolean slides) {
+        int checker = colorCode * MAX_CHECKERS + checkersCount[colorCode];
+        checkerX[checker] = x;
+        checkerY[checker] = y;
+        checkerSlides[checker] = slides;
+        checkersCount[colorCode] += 1;
+    }
+
+    /**
+     * The method finds pieces of the color which are the only pieces between their king and an enemy sliding piece.
+     *
+     * @param colorCode the code of the color of the king
+     */
+    private void findPins(int colorCode) {
+        for (int i = 0; i < RookMovement.ORTHOGONAL_STEPS_X.length; i++) {
+            findPin(colorCode, RookMovement.ORTHOGONAL_STEPS_X[i], RookMovement.ORTHOGONAL_STEPS_Y[i]);
+            findPin(colorCode, BishopMovement.DIAGONAL_STEPS_X[i], BishopMovement.DIAGONAL_STEPS_Y[i]);
+        }
+    }
+
+    /**
+     * The method looks for a pinned piece on the ray from the king.
+     *
+     * @param colorCode the code of the color of the king
+     * @param dx        horizontal step of the ray
+     * @param dy        vertical step of the ray
+     */
+    private void findPin(int colorCode, int dx, int dy) {
+        int ray = positions.scanRay(kingX[colorCode], kingY[colorCode], dx, dy);
+        if ((ray & ((1 << BoardStorage.RAY_BLOCKER_BITS) - 1)) != colorCode) {
+            return;
+        }
+        int distance = (ray >>> BoardStorage.RAY_BLOCKER_BITS) + 1;
+        int x = kingX[colorCode] + dx * distance;
+        int y = kingY[colorCode] + dy * distance;
+        int behind = positions.scanRay(x, y, dx, dy);
+        if (BoardStorage.getRayCapturesCount(behind, colorCode) == 0) {
+            return;
+        }
+        int behindDistance = (behind >>> BoardStorage.RAY_BLOCKER_BITS) + 1;
+        if (slidesAlong(positions.getPieceId(x + dx * behindDistance, y + dy * behindDistance), dx, dy)) {
+            pins[positions.getPieceId(x, y)] = getLine(dx, dy);
+        }
+    }
+
+    /**
+     * The method checks whether the piece slides along lines of the direction.
+     *
+     * @param id the id of the piece
+     * @param dx horizontal step of the direction
+     * @param dy vertical step of the direction
+     * @return true for bishops and queens on diagonals and for rooks and queens on ranks and files
+     */
+    private boolean slidesAlong(int id, int dx, int dy) {
+        PieceType type = PieceType.fromCode(table.getTypeCode(id));
+        return dx != 0 && dy != 0 ? type.slidesDiagonally() : type.slidesOrthogonally();
+    }
+
+    /**
+     * The method returns the kind of the line of the direction.
+     *
+     * @param dx horizontal step of the direction
+     * @param dy vertical step of the direction
+     * @return FILE_PIN, RANK_PIN, DIAGONAL_PIN or ANTI_DIAGONAL_PIN
+     */
+    private static byte getLine(int dx, int dy) {
+        if (dx == 0) {
+            return FILE_PIN;
+        }
+        if (dy == 0) {
+            return RANK_PIN;
+        }
+        return dx == dy ? DIAGONAL_PIN : ANTI_DIAGONAL_PIN;
+    }
+
+    /**
+     * The method checks whether the square is on the line of the kind which goes through the king.
+     *
+     * @param x     horizontal coordinate of the square
+     * @param y     vertical coordinate of the square
+     * @param kingX horizontal coordinate of the king
+     * @param kingY vertical coordinate of the king
+     * @param line  the kind of the line
+     * @return true if the square is on the line
+     */
+    private static boolean isOnLine(int x, int y, int kingX, int kingY, byte line) {
+        switch (line) {
+            case FILE_PIN:
+                return x == kingX;
+            case RANK_PIN:
+                return y == kingY;
+            case DIAGONAL_PIN:
+                return x - y == kingX - kingY;
+            default:
+                return x + y == kingX + kingY;
+        }
+    }
+}
+
+/**
+ * Class which keeps for every square of the board how many white and how many black pieces attack it.
+ */
+class AttackMap {
+    /**
+     * the size of the board, which is represented as the number of squares vertically and horizontally.
+     */
+    private final int size;
+    /**
+     * numbers of white attackers by packed squares, (x - 1) * size + (y - 1).
+     */
+    private final int[] whiteAttacks;
+    /**
+     * numbers of black attackers by packed squares, (x - 1) * size + (y - 1).
+     */
+    private final int[] blackAttacks;
+
+    /**
+     * The method creates an empty map for the board.
+     *
+     * @param boardSize the number of squares on the board horizontally or vertically
+     * @throws IllegalStateException if squares of the board can not be packed into int
+     */
+    AttackMap(int boardSize) {
+        if ((long) boardSize * boardSize > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Board is too big for the attack map");
+        }
+        this.size = boardSize;
+        this.whiteAttacks = new int[boardSize * boardSize];
+        this.blackAttacks = new int[boardSize * boardSize];
+    }
+
+    /**
+     * The method returns the number of pieces of the color which attack the square.
+     *
+     * @param color the color of attackers
+     * @param x     horizontal coordinate of the square
+     * @param y     vertical coordinate of the square
+     * @return the number of attackers
+     */
+    public int getAttackersCount(PieceColor color, int x, int y) {
+        return getAttacks(color)[(x - 1) * size + (y - 1)];
+    }
+
+    /**
+     * The method returns numbers of attackers of the color for all squares.
+     *
+     * @param color the color of attackers
+     * @return array of numbers of attackers by packed squares, (x - 1) * size + (y - 1)
+     */
+    public int[] getAttacks(PieceColor color) {
+        if (color == PieceColor.WHITE) {
+            return whiteAttacks;
+        }
+        return blackAttacks;
+    }
+
+    /**
+     * The method adds one attacker to the square, squares outside the board are ignored.
+     *
+     * @param colorCode the code of the attacker color
+     * @param x         horizontal coordinate of the square
+     * @param y         vertical coordinate of the square
+     */
+    void addAttack(int colorCode, int x, int y) {
+        if (x < 1 || x > size || y < 1 || y > size) {
+            return;
+        }
+        if (colorCode == PieceColor.WHITE.getCode()) {
+            whiteAttacks[(x - 1) * size + (y - 1)] += 1;
+        } else {
+            blackAttacks[(x - 1) * size + (y - 1)] += 1;
+        }
+    }
+}
+
+/**
+ * Reader of a log of moves from a buffer, every move is four non-negative integers separated by whitespace:
+ * coordinates of the moving piece and coordinates of the target square. Moves are usually written one per line
+ */
+class MoveLog {
+    /**
+     * the number of integers of one move.
+     */
+    static final int MOVE_LENGTH = 4;
+    /**
+     * bytes of the log.
+     */
+    private final ByteBuffer input;
+    /**
+     * index of the next unread byte.
+     */
+    private int offset;
+
+    /**
+     * The method receives the log.
+     *
+     * @param log bytes of the log from its position to its limit
+     */
+    MoveLog(ByteBuffer log) {
+        this.input = log;
+        this.offset = log.position();
+    }
+
+    /**
+     * The method reads the next move.
+     *
+     * @param move array for fromX, fromY, toX and toY
+     * @return false if there are no more moves
+     * @throws InvalidInputException if the log ends inside a move or a token is not a non-negative integer
+     */
+    boolean next(int[] move) throws InvalidInputException {
+        skipWhitespace();
+        if (offset >= input.limit()) {
+            return false;
+        }
+        for (int i = 0; i < MOVE_LENGTH; i++) {
+            skipWhitespace();
+            move[i] = readInteger();
+        }
+        return true;
+    }
+
+    /**
+     * The method skips bytes up to the next token.
+     */
+    private void skipWhitespace() {
+        while (offset < input.limit() && input.get(offset) <= ' ') {
+            offset += 1;
+        }
+    }
+
+    /**
+     * The method reads a non-negative integer which ends with whitespace or with the end of the log.
+     *
+     * @return the integer
+     * @throws InvalidInputException if there is no integer or it is bigger than Integer.MAX_VALUE
+     */
+    private int readInteger() throws InvalidInputException {
+        long value = 0;
+        int start = offset;
+        while (offset < input.limit() && input.get(offset) > ' ') {
+            int digit = input.get(offset) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new InvalidInputException();
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE) {
+                throw new InvalidInputException();
+            }
+            offset += 1;
+        }
+        if (offset == start) {
+            throw new InvalidInputException();
+        }
+        return (int) value;
+    }
+}
+
+/**
+ * Replay of a game: moves of the log are made one by one on the board whose counts are tracked, and after every
+ * ply only pieces whose counts changed are printed as "ply id moves captures". Plies are numbered from 1,
+ * ids are indexes of pieces in the input starting from 0. A captured piece gets "0 0" if it had moves before
+ */
+class GameReplay {
+    /**
+     * the board of the game.
+     */
+    private final Board board;
+    /**
+     * the current move, it is reused for every ply.
+     */
+    private final int[] move = new int[MoveLog.MOVE_LENGTH];
+    /**
+     * the number of made plies.
+     */
+    private long ply;
+
+    /**
+     * The method receives the initial position and counts all its pieces once.
+     *
+     * @param initialBoard the board with the initial position, it is changed by the replay
+     */
+    GameReplay(Board initialBoard) {
+        this.board = initialBoard;
+        initialBoard.trackCounts();
+    }
+
+    /**
+     * The method prints counts of all pieces of the initial position in the order of ids, as output.txt has them.
+     *
+     * @param pw writer for the counts
+     */
+    void printInitialCounts(PrintWriter pw) {
+        for (int id = 0; id < board.getPiecesCount(); id++) {
+            long counts = board.getTrackedCounts(id);
+            pw.print(ChessPiece.unpackMoves(counts));
+            pw.print(" ");
+            pw.println(ChessPiece.unpackCaptures(counts));
+        }
+    }
+
+    /**
+     * The method makes all moves of the log and prints changed counts after every ply.
+     *
+     * @param log the log of moves
+     * @param pw  writer for changed counts
+     * @return the number of made plies
+     * @throws InvalidInputException         if the log is broken
+     * @throws InvalidPiecePositionException if a move starts on an empty square, leaves the board or takes
+     *                                       a piece of the same color
+     */
+    long replay(MoveLog log, PrintWriter pw) throws InvalidInputException, InvalidPiecePositionException {
+        while (log.next(move)) {
+            board.movePiece(move[0], move[1], move[2], move[3]);
+            ply += 1;
+            for (int i = 0; i < board.getChangedPiecesCount(); i++) {
+                int id = board.getChangedPieceId(i);
+                long counts = board.getTrackedCounts(id);
+                pw.print(ply);
+                pw.print(" ");
+                pw.print(id);
+                pw.print(" ");
+                pw.print(ChessPiece.unpackMoves(counts));
+                pw.print(" ");
+                pw.println(ChessPiece.unpackCaptures(counts));
+            }
+        }
+        return ply;
+    }
+
+    /**
+     * The method returns the number of made plies, after an error it is the number of plies before the broken one.
+     *
+     * @return the number of made plies
+     */
+    long getPly() {
+        return ply;
+    }
+}
+
+/**
+ * Directed graph of attacks between pieces in compressed sparse row form.
+ * Targets of the piece with id i are targets[offsets[i]] ... targets[offsets[i + 1] - 1], they are ids of enemy
+ * pieces which the piece can capture. Removed pieces have no targets
+ */
+class AttackGraph {
+    /**
+     * the size of the buffer which is used to write the graph into a file.
+     */
+    private static final int WRITE_BUFFER_BYTES = 1 << 16;
+    /**
+     * indexes in targets where targets of every piece start, by ids of pieces, the last one is the number of edges.
+     */
+    private final int[] offsets;
+    /**
+     * ids of attacked pieces.
+     */
+    private int[] targets;
+    /**
+     * the number of edges which are already added.
+     */
+    private int edgesCount;
+
+    /**
+     * The method creates an empty graph, targets are added by pieces in the order of ids.
+     *
+     * @param piecesCount the number of pieces
+     */
+    AttackGraph(int piecesCount) {
+        this.offsets = new int[piecesCount + 1];
+        this.targets = new int[Math.max(piecesCount, 1)];
+    }
+
+    /**
+     * The method adds an edge from the current piece to the attacked piece.
+     *
+     * @param target the id of the attacked piece
+     */
+    void addEdge(int target) {
+        if (edgesCount == targets.length) {
+            targets = Arrays.copyOf(targets, edgesCount * 2);
+        }
+        targets[edgesCount] = target;
+        edgesCount += 1;
+    }
+
+    /**
+     * The method finishes targets of the piece, the next added edges belong to the next piece.
+     *
+     * @param id the id of the piece
+     */
+    void endPiece(int id) {
+        offsets[id + 1] = edgesCount;
+    }
+
+    /**
+     * The method returns the number of pieces of the graph.
+     *
+     * @return the number of pieces, removed pieces are included
+     */
+    public int getPiecesCount() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * The method returns the number of edges of the graph.
+     *
+     * @return the number of edges
+     */
+    public int getEdgesCount() {
+        return edgesCount;
+    }
+
+    /**
+     * The method returns offsets of targets of pieces.
+     *
+     * @return array of length getPiecesCount() + 1
+     */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * The method returns ids of attacked pieces, only the first getEdgesCount() of them belong to the graph.
+     *
+     * @return array of targets
+     */
+    public int[] getTargets() {
+        return targets;
+    }
+
+    /**
+     * The method writes the graph into a binary file: the number of pieces, the number of edges, offsets and targets.
+     * All values are 32-bit big-endian integers, they are written through the channel by blocks
+     *
+     * @param file the output file, it is replaced if it exists
+     * @throws IOException if the file can not be written
+     */
+    public void write(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+            buffer.putInt(getPiecesCount());
+            buffer.putInt(edgesCount);
+            writeInts(channel, buffer, offsets, offsets.length);
+            writeInts(channel, buffer, targets, edgesCount);
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * The method puts integers into the buffer and writes the buffer into the channel every time it is full.
+     *
+     * @param channel the output channel
+     * @param buffer  the buffer
+     * @param values  the integers
+     * @param count   the number of integers from the start of the array
+     * @throws IOException if the channel can not be written
+     */
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (buffer.remaining() < Integer.BYTES) {
+                flush(channel, buffer);
+            }
+            buffer.putInt(values[i]);
+        }
+    }
+
+    /**
+     * The method writes all bytes of the buffer into the channel and empties the buffer.
+     *
+     * @param channel the output channel
+     * @param buffer  the buffer
+     * @throws IOException if the channel can not be written
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
+
+/**
+ * Bounded cache of counts of whole positions, keyed by Zobrist hashes of boards.
+ * The least recently used position is evicted when the cache is full. A position is kept together with its pieces,
+ * so a hit is checked against the board and a collision of hashes is a miss. Counts are copied by squares of pieces,
+ * so the same position with other ids of pieces is found too. Boards of several threads can share one cache
+ */
+class ResultCache {
+    /**
+     * cached positions in the order of access, the eldest one is evicted first.
+     */
+    private final Map<Long, CachedResult> entries;
+    /**
+     * the number of lookups which found the position.
+     */
+    private long hits;
+    /**
+     * the number of lookups which did not find the position.
+     */
+    private long misses;
+    /**
+     * the number of evicted positions.
+     */
+    private long evictions;
+
+    /**
+     * The method creates an empty cache.
+     *
+     * @param capacity the biggest number of kept positions
+     */
+    ResultCache(int capacity) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedResult> eldest) {
+                if (size() > capacity) {
+                    evictions += 1;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * The method looks the position up and copies its counts in the order of ids of the current pieces.
+     *
+     * @param hash      Zobrist hash of the position
+     * @param boardSize the number of squares on the board horizontally or vertically
+     * @param table     table with all pieces of the board
+     * @param positions storage with taken board squares, which returns ids of pieces
+     * @param results   array for packed counts, its length must be at least the number of pieces
+     * @return true if the position was found and counts are copied
+     */
+    synchronized boolean lookup(long hash, int boardSize, PieceTable table, BoardStorage positions,
+                                long[] results) {
+        CachedResult entry = entries.get(hash);
+        if (entry == null || !entry.matches(boardSize, table, positions)) {
+            misses += 1;
+            return false;
+        }
+        hits += 1;
+        entry.copyTo(table, positions, results);
+        return true;
+    }
+
+    /**
+     * The method keeps counts of the position, the least recently used position is evicted if the cache is full.
+     *
+     * @param hash      Zobrist hash of the position
+     * @param boardSize the number of squares on the board horizontally or vertically
+     * @param table     table with all pieces of the board
+     * @param results   packed counts by ids of pieces
+     */
+    synchronized void store(long hash, int boardSize, PieceTable table, long[] results) {
+        entries.put(hash, new CachedResult(boardSize, table, results));
+    }
+
+    /**
+     * The method returns the number of lookups which found the position.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * The method returns the number of lookups which did not find the position.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * The method returns the number of positions which were evicted to keep the cache bounded.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * The method returns the number of kept positions.
+     *
+     * @return the number of positions
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+}
+
+/**
+ * Counts of one position together with its pieces: coordinates, codes of types and colors of every piece.
+ */
+class CachedResult {
+    /**
+     * the number of squares on the board horizontally or vertically.
+     */
+    private final int size;
+    /**
+     * horizontal coordinates of pieces.
+     */
+    private final int[] xs;
+    /**
+     * vertical coordinates of pieces.
+     */
+    private final int[] ys;
+    /**
+     * codes of types and colors of pieces, the type code is kept above BoardStorage.RAY_BLOCKER_BITS bits.
+     */
+    private final byte[] pieces;
+    /**
+     * packed counts of pieces.
+     */
+    private final long[] counts;
+
+    /**
+     * The method copies pieces which are not removed and their counts.
+     *
+     * @param boardSize the number of squares on the board horizontally or vertically
+     * @param table     table with all pieces of the board
+     * @param results   packed counts by ids of pieces
+     */
+    CachedResult(int boardSize, PieceTable table, long[] results) {
+        int count = 0;
+        for (int id = 0; id < table.size(); id++) {
+            if (!table.isRemoved(id)) {
+                count += 1;
+            }
+        }
+        this.size = boardSize;
+        this.xs = new int[count];
+        this.ys = new int[count];
+        this.pieces = new byte[count];
+        this.counts = new long[count];
+        int index = 0;
+        for (int id = 0; id < table.size(); id++) {
+            if (!table.isRemoved(id)) {
+                xs[index] = table.getX(id);
+                ys[index] = table.getY(id);
+                pieces[index] = getPieceCode(table, id);
+                counts[index] = results[id];
+                index += 1;
+            }
+        }
+    }
+
+    /**
+     * The method checks whether the board has exactly the same pieces on the same squares.
+     *
+     * @param boardSize the number of squares on the board horizontally or vertically
+     * @param table     table with all pieces of the board
+     * @param positions storage with taken board squares, which returns ids of pieces
+     * @return true if the positions are equal
+     */
+    boolean matches(int boardSize, PieceTable table, BoardStorage positions) {
+        if (boardSize != size) {
+            return false;
+        }
+        int count = 0;
+        for (int id = 0; id < table.size(); id++) {
+            if (!table.isRemoved(id)) {
+                count += 1;
+            }
+        }
+        if (count != counts.length) {
+            return false;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            int id = positions.getPieceId(xs[i], ys[i]);
+            if (id < 0 || getPieceCode(table, id) != pieces[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The method writes counts by ids of pieces of the board, the board must match the position.
+     *
+     * @param table     table with all pieces of the board
+     * @param positions storage with taken board squares, which returns ids of pieces
+     * @param results   array for packed counts, its length must be at least the number of pieces
+     */
+    void copyTo(PieceTable table, BoardStorage positions, long[] results) {
+        Arrays.fill(results, 0, table.size(), 0);
+        for (int i = 0; i < counts.length; i++) {
+            results[positions.getPieceId(xs[i], ys[i])] = counts[i];
+        }
+    }
+
+    /**
+     * The method packs the codes of the type and the color of the piece into one byte.
+     *
+     * @param table table with all pieces of the board
+     * @param id    the id of the piece
+     * @return packed codes
+     */
+    private static byte getPieceCode(PieceTable table, int id) {
+        return (byte) ((table.getTypeCode(id) << BoardStorage.RAY_BLOCKER_BITS) | table.getColorCode(id));
+    }
+}
+
+/**
+ * Enumeration of the tree of moves up to the given depth (perft), sides move in turn starting from the given one.
+ * Moves are pseudo-legal moves of the counting rules, so the number of leaves at depth 1 is the sum of moves of
+ * pieces of the side. Moves are made and undone on the board, numbers of leaves of subtrees are kept in
+ * a transposition table, and moves of the root are shared between threads which search their own copies of the board
+ */
+class Perft {
+    /**
+     * table of numbers of leaves of positions which are already searched, it is shared by all threads.
+     */
+    private final TranspositionTable transpositions;
+
+    /**
+     * The method creates the search with an empty transposition table.
+     *
+     * @param tableBits the binary logarithm of the number of entries of the transposition table
+     */
+    Perft(int tableBits) {
+        this.transpositions = new TranspositionTable(tableBits);
+    }
+
+    /**
+     * The method counts leaves of the tree of moves of the board, the board is the same after it.
+     *
+     * @param board   the board
+     * @param side    the color of pieces which move first
+     * @param depth   the number of moves to the leaves
+     * @param threads the number of threads, 1 means that the tree is searched in the current thread
+     * @return the number of leaves
+     * @throws Exception             if a thread fails
+     * @throws IllegalStateException if the board is too big for packed moves
+     */
+    public long count(Board board, PieceColor side, int depth, int threads) throws Exception {
+        ChessPiece.checkPackedMoves(board.getSize());
+        if (depth <= 0) {
+            return 1;
+        }
+        if (threads <= 1 || depth == 1) {
+            return new PerftSearch(board, transpositions, depth).search(side.getCode(), depth, 0);
+        }
+        int[] rootIds = new int[board.getMaxMovesCount()];
+        int[] rootMoves = new int[board.getMaxMovesCount()];
+        int rootCount = 0;
+        for (int id = 0; id < board.getPiecesCount(); id++) {
+            if (board.getPieceColorCode(id) != side.getCode()) {
+                continue;
+            }
+            if (rootMoves.length - rootCount < board.getMaxMovesCount()) {
+                rootIds = Arrays.copyOf(rootIds, rootIds.length * 2);
+                rootMoves = Arrays.copyOf(rootMoves, rootMoves.length * 2);
+            }
+            int generated = board.generateMoves(id, rootMoves, rootCount);
+            Arrays.fill(rootIds, rootCount, rootCount + generated, id);
+            rootCount += generated;
+        }
+        return countRoots(board, side.getCode(), depth, threads, rootIds, rootMoves, rootCount);
+    }
+
+    /**
+     * The method searches subtrees of moves of the root by several threads, every thread takes the next move of
+     * the root when it finishes the previous one.
+     *
+     * @param board     the board
+     * @param colorCode the code of the color of pieces which move first
+     * @param depth     the number of moves to the leaves
+     * @param threads   the number of threads
+     * @param rootIds   ids of moving pieces of moves of the root
+     * @param rootMoves packed moves of the root
+     * @param rootCount the number of moves of the root
+     * @return the number of leaves
+     * @throws Exception if a thread fails
+     */
+    private long countRoots(Board board, int colorCode, int depth, int threads, int[] rootIds, int[] rootMoves,
+                            int rootCount) throws Exception {
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Long>> results = new ArrayList<>(threads);
+            for (int thread = 0; thread < threads; thread++) {
+                results.add(pool.submit(() -> {
+                    Board copy = board.copy();
+                    PerftSearch search = new PerftSearch(copy, transpositions, depth);
+                    long leaves = 0;
+                    for (int i = next.getAndIncrement(); i < rootCount; i = next.getAndIncrement()) {
+                        int id = rootIds[i];
+                        int fromX = copy.getPieceX(id);
+                        int fromY = copy.getPieceY(id);
+                        int capturedId = copy.makeMove(id, rootMoves[i]);
+                        leaves += search.search(Board.getEnemyColorCode(colorCode), depth - 1, 1);
+                        copy.unmakeMove(id, rootMoves[i], fromX, fromY, capturedId);
+                    }
+                    return leaves;
+                }));
+            }
+            long leaves = 0;
+            for (Future<Long> result : results) {
+                leaves += result.get();
+            }
+            return leaves;
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
+
+/**
+ * Search of one thread of perft, it keeps its own board and arrays for moves of every ply.
+ */
+class PerftSearch {
+    /**
+     * the board which is changed by moves of the search.
+     */
+    private final Board board;
+    /**
+     * table of numbers of leaves of positions which are already searched.
+     */
+    private final TranspositionTable transpositions;
+    /**
+     * arrays for moves of one piece by plies.
+     */
+    private final int[][] plyMoves;
+
+    /**
+     * The method creates the search of the board.
+     *
+     * @param board          the board
+     * @param transpositions table of numbers of leaves
+     * @param depth          the biggest depth of the search
+     */
+    PerftSearch(Board board, TranspositionTable transpositions, int depth) {
+        this.board = board;
+        this.transpositions = transpositions;
+        this.plyMoves = new int[depth][board.getMaxMovesCount()];
+    }
+
+    /**
+     * The method counts leaves of the subtree of the current position.
+     * Leaves of the last ply are counted by the counting rules without making moves
+     *
+     * @param colorCode the code of the color of pieces which move
+     * @param depth     the number of moves to the leaves, at least 1
+     * @param ply       the number of moves from the root
+     * @return the number of leaves
+     */
+    long search(int colorCode, int depth, int ply) {
+        if (depth == 1) {
+            return countLeaves(colorCode);
+        }
+        long key = TranspositionTable.getKey(board.getHash(), colorCode, depth);
+        long leaves = transpositions.get(key);
+        if (leaves >= 0) {
+            return leaves;
+        }
+        leaves = 0;
+        int[] moves = plyMoves[ply];
+        int enemyColorCode = Board.getEnemyColorCode(colorCode);
+        for (int id = 0; id < board.getPiecesCount(); id++) {
+            if (board.getPieceColorCode(id) != colorCode) {
+                continue;
+            }
+            int fromX = board.getPieceX(id);
+            int fromY = board.getPieceY(id);
+            int generated = board.generateMoves(id, moves, 0);
+            for (int i = 0; i < generated; i++) {
+                int capturedId = board.makeMove(id, moves[i]);
+                leaves += search(enemyColorCode, depth - 1, ply + 1);
+                board.unmakeMove(id, moves[i], fromX, fromY, capturedId);
+            }
+        }
+        transpositions.put(key, leaves);
+        return leaves;
+    }
+
+    /**
+     * The method counts moves of all pieces of the color.
+     *
+     * @param colorCode the code of the color of pieces which move
+     * @return the number of moves
+     */
+    private long countLeaves(int colorCode) {
+        long leaves = 0;
+        for (int id = 0; id < board.getPiecesCount(); id++) {
+            if (board.getPieceColorCode(id) == colorCode) {
+                leaves += ChessPiece.unpackMoves(board.countMovesAndCaptures(id));
+            }
+        }
+        return leaves;
+    }
+}
+
+/**
+ * Transposition table of fixed size which keeps numbers of leaves by keys of positions, a new entry replaces the old
+ * one in its slot. Threads use the table without locks: the key is kept xor the value, so an entry which is
+ * written by two threads at once does not match any key and is a miss
+ */
+class TranspositionTable {
+    /**
+     * keys of entries xor their values.
+     */
+    private final long[] keys;
+    /**
+     * numbers of leaves.
+     */
+    private final long[] values;
+    /**
+     * mask of bits of a key which give its slot.
+     */
+    private final int mask;
+
+    /**
+     * The method creates the empty table.
+     *
+     * @param bits the binary logarithm of the number of entries
+     */
+    TranspositionTable(int bits) {
+        this.keys = new long[1 << bits];
+        this.values = new long[1 << bits];
+        this.mask = (1 << bits) - 1;
+    }
+
+    /**
+     * The method returns the key of a node of the search: the position, the side to move and the depth.
+     *
+     * @param hash      Zobrist hash of the position
+     * @param colorCode the code of the color of pieces which move
+     * @param depth     the number of moves to the leaves
+     * @return 64-bit key
+     */
+    static long getKey(long hash, int colorCode, int depth) {
+        return hash ^ Board.mix(((long) depth << BoardStorage.RAY_BLOCKER_BITS) | colorCode);
+    }
+
+    /**
+     * The method looks the key up.
+     *
+     * @param key the key of the node
+     * @return the number of leaves or -1 if the key is not in the table
+     */
+    long get(long key) {
+        int slot = (int) key & mask;
+        long value = values[slot];
+        if ((keys[slot] ^ value) != key) {
+            return -1;
+        }
+        return value;
+    }
+
+    /**
+     * The method puts the number of leaves into the slot of the key.
+     *
+     * @param key   the key of the node
+     * @param value the number of leaves
+     */
+    void put(long key, long value) {
+        int slot = (int) key & mask;
+        values[slot] = value;
+        keys[slot] = key ^ value;
+    }
+}
+
+/**
+ * Search in width of the smallest numbers of knight jumps from one square. Every row of the board with one
+ * horizontal coordinate is a bitset of words of its squares, so a whole frontier of the search is moved by one jump
+ * with shifts of words: the bitset of a row is shifted by the vertical step of a jump and added to the row
+ * of its horizontal step. Squares which are reached or taken by pieces of the same color are masked out
+ */
+class KnightDistances {
+    /**
+     * the number of bits of a word.
+     */
+    private static final int WORD_BITS = Long.SIZE;
+    /**
+     * the size of the board, which is represented as the number of squares vertically and horizontally.
+     */
+    private final int size;
+    /**
+     * the number of words of one row.
+     */
+    private final int words;
+    /**
+     * squares which can not be reached any more: taken by pieces of the same color, already reached or outside
+     * the board in the last word of a row.
+     */
+    private final long[] blocked;
+    /**
+     * squares which were reached by the last jump.
+     */
+    private final long[] frontier;
+    /**
+     * squares which are reached by the next jump, before blocked squares are masked out.
+     */
+    private final long[] next;
+
+    /**
+     * The method creates the search for boards of the given size.
+     *
+     * @param boardSize the number of squares on the board horizontally or vertically
+     * @throws IllegalStateException if distances to squares of the board can not be kept in one array
+     */
+    KnightDistances(int boardSize) {
+        if ((long) boardSize * boardSize > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Board is too big for knight distances");
+        }
+        this.size = boardSize;
+        this.words = (boardSize + WORD_BITS - 1) / WORD_BITS;
+        this.blocked = new long[boardSize * words];
+        this.frontier = new long[boardSize * words];
+        this.next = new long[boardSize * words];
+    }
+
+    /**
+     * The method finds distances from the square to every square of the board.
+     *
+     * @param table     table with all pieces of the board
+     * @param x         horizontal coordinate of the knight
+     * @param y         vertical coordinate of the knight
+     * @param colorCode the code of the color of the knight
+     * @return distances by squares (x - 1) * size + y - 1, -1 for squares which can not be reached or are farther
+     *         than Short.MAX_VALUE jumps
+     */
+    short[] find(PieceTable table, int x, int y, int colorCode) {
+        int tailBits = size % WORD_BITS;
+        long tail = tailBits == 0 ? 0 : -1L << tailBits;
+        for (int row = 0; row < size; row++) {
+            blocked[row * words + words - 1] = tail;
+        }
+        for (int id = 0; id < table.size(); id++) {
+            if (table.getColorCode(id) == colorCode) {
+                setBit(blocked, table.getX(id) - 1, table.getY(id) - 1);
+            }
+        }
+        short[] distances = new short[size * size];
+        Arrays.fill(distances, (short) -1);
+        distances[(x - 1) * size + y - 1] = 0;
+        setBit(frontier, x - 1, y - 1);
+        setBit(blocked, x - 1, y - 1);
+        int firstRow = x - 1;
+        int lastRow = x - 1;
+        for (int distance = 1; distance <= Short.MAX_VALUE && firstRow <= lastRow; distance++) {
+            for (int row = firstRow; row <= lastRow; row++) {
+                jump(row);
+            }
+            int from = Math.max(0, firstRow - 2);
+            int to = Math.min(size - 1, lastRow + 2);
+            firstRow = size;
+            lastRow = -1;
+            for (int row = from; row <= to; row++) {
+                if (collect(row, (short) distance, distances)) {
+                    firstRow = Math.min(firstRow, row);
+                    lastRow = row;
+                }
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * The method adds squares which are reached by all jumps from the frontier of the row to the next frontier
+     * and clears the row of the frontier.
+     *
+     * @param row the row, which is horizontal coordinate - 1
+     */
+    private void jump(int row) {
+        int start = row * words;
+        for (int w = 0; w < words; w++) {
+            long bits = frontier[start + w];
+            long below = w > 0 ? frontier[start + w - 1] : 0;
+            long above = w + 1 < words ? frontier[start + w + 1] : 0;
+            if ((bits | below | above) == 0) {
+                continue;
+            }
+            for (int k = 0; k < Knight.STEPS_X.length; k++) {
+                int target = row + Knight.STEPS_X[k];
+                if (target < 0 || target >= size) {
+                    continue;
+                }
+                int step = Knight.STEPS_Y[k];
+                long shifted;
+                if (step > 0) {
+                    shifted = (bits << step) | (below >>> (WORD_BITS - step));
+                } else {
+                    shifted = (bits >>> -step) | (above << (WORD_BITS + step));
+                }
+                next[target * words + w] |= shifted;
+            }
+        }
+        Arrays.fill(frontier, start, start + words, 0);
+    }
+
+    /**
+     * The method masks blocked squares out of the next frontier of the row, makes the rest the frontier and writes
+     * their distances.
+     *
+     * @param row       the row, which is horizontal coordinate - 1
+     * @param distance  the number of jumps to the new frontier
+     * @param distances distances by squares
+     * @return true if some squares of the row are reached
+     */
+    private boolean collect(int row, short distance, short[] distances) {
+        int start = row * words;
+        boolean reachedAny = false;
+        for (int w = 0; w < words; w++) {
+            long reached = next[start + w] & ~blocked[start + w];
+            next[start + w] = 0;
+            if (reached == 0) {
+                continue;
+            }
+            reachedAny = true;
+            blocked[start + w] |= reached;
+            frontier[start + w] = reached;
+            int square = row * size + w * WORD_BITS;
+            while (reached != 0) {
+                distances[square + Long.numberOfTrailingZeros(reached)] = distance;
+                reached &= reached - 1;
+            }
+        }
+        return reachedAny;
+    }
+
+    /**
+     * The method sets the bit of the square.
+     *
+     * @param bits bitsets of rows
+     * @param row  horizontal coordinate - 1
+     * @param bit  vertical coordinate - 1
+     */
+    private void setBit(long[] bits, int row, int bit) {
+        bits[row * words + bit / WORD_BITS] |= 1L << (bit % WORD_BITS);
+    }
+}
+
+/**
+ * Two-dimensional Fenwick trees which count pieces of every type and color in rectangles of the board.
+ * The tree of a type and a color takes boardSize * boardSize integers, so it is built from the piece table only when
+ * it is queried for the first time and is updated by changes of the board after that
+ */
+class RectangleCounts {
+    /**
+     * the number of piece colors.
+     */
+    private static final int COLORS = PieceColor.values().length;
+    /**
+     * the size of the board, which is represented as the number of squares vertically and horizontally.
+     */
+    private final int size;
+    /**
+     * trees by typeCode * 2 + colorCode - 1, null for trees which are not built, cells are (x - 1) * size + y - 1.
+     */
+    private final int[][] trees = new int[PieceType.COUNT * COLORS][];
+
+    /**
+     * The method creates counts without built trees.
+     *
+     * @param boardSize the number of squares on the board horizontally or vertically
+     * @throws IllegalStateException if cells of the board can not be kept in one array
+     */
+    RectangleCounts(int boardSize) {
+        if ((long) boardSize * boardSize > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Board is too big for rectangle counts");
+        }
+        this.size = boardSize;
+    }
+
+    /**
+     * The method changes the number of pieces on the square, if the tree of the type and the color is built.
+     *
+     * @param typeCode  the code of the piece type
+     * @param colorCode the code of the piece color
+     * @param x         horizontal coordinate of the square
+     * @param y         vertical coordinate of the square
+     * @param delta     1 for an added piece and -1 for a removed one
+     */
+    void add(int typeCode, int colorCode, int x, int y, int delta) {
+        int[] tree = trees[getTreeIndex(typeCode, colorCode)];
+        if (tree == null) {
+            return;
+        }
+        for (int i = x - 1; i < size; i |= i + 1) {
+            int row = i * size;
+            for (int j = y - 1; j < size; j |= j + 1) {
+                tree[row + j] += delta;
+            }
+        }
+    }
+
+    /**
+     * The method moves a piece from one square to another one.
+     *
+     * @param typeCode  the code of the piece type
+     * @param colorCode the code of the piece color
+     * @param fromX     horizontal coordinate of the start square
+     * @param fromY     vertical coordinate of the start square
+     * @param toX       horizontal coordinate of the target square
+     * @param toY       vertical coordinate of the target square
+     */
+    void move(int typeCode, int colorCode, int fromX, int fromY, int toX, int toY) {
+        add(typeCode, colorCode, fromX, fromY, -1);
+        add(typeCode, colorCode, toX, toY, 1);
+    }
+
+    /**
+     * The method counts pieces of the type and the color inside the rectangle, the tree is built if it is needed.
+     *
+     * @param table     table with all pieces of the board
+     * @param typeCode  the code of the piece type
+     * @param colorCode the code of the piece color
+     * @param x1        the smallest horizontal coordinate of the rectangle
+     * @param y1        the smallest vertical coordinate of the rectangle
+     * @param x2        the biggest horizontal coordinate of the rectangle
+     * @param y2        the biggest vertical coordinate of the rectangle
+     * @return the number of pieces
+     */
+    int count(PieceTable table, int typeCode, int colorCode, int x1, int y1, int x2, int y2) {
+        int index = getTreeIndex(typeCode, colorCode);
+        if (trees[index] == null) {
+            trees[index] = build(table, typeCode, colorCode);
+        }
+        int[] tree = trees[index];
+        int left = Math.max(x1, 1) - 1;
+        int bottom = Math.max(y1, 1) - 1;
+        int right = Math.min(x2, size);
+        int top = Math.min(y2, size);
+        if (left >= right || bottom >= top) {
+            return 0;
+        }
+        return prefix(tree, right, top) - prefix(tree, left, top) - prefix(tree, right, bottom)
+                + prefix(tree, left, bottom);
+    }
+
+    /**
+     * The method counts pieces of the tree on squares with coordinates up to the given ones.
+     *
+     * @param tree the tree
+     * @param x    the biggest horizontal coordinate, 0 for no squares
+     * @param y    the biggest vertical coordinate, 0 for no squares
+     * @return the number of pieces
+     */
+    private int prefix(int[] tree, int x, int y) {
+        int sum = 0;
+        for (int i = x - 1; i >= 0; i = (i & (i + 1)) - 1) {
+            int row = i * size;
+            for (int j = y - 1; j >= 0; j = (j & (j + 1)) - 1) {
+                sum += tree[row + j];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * The method builds the tree of pieces of the type and the color in O(size^2): pieces are put into their cells,
+     * then every cell is added to its parent along y and after that along x.
+     *
+     * @param table     table with all pieces of the board
+     * @param typeCode  the code of the piece type
+     * @param colorCode the code of the piece color
+     * @return the tree
+     */
+    private int[] build(PieceTable table, int typeCode, int colorCode) {
+        int[] tree = new int[size * size];
+        for (int id = 0; id < table.size(); id++) {
+            if (table.getTypeCode(id) == typeCode && table.getColorCode(id) == colorCode) {
+                tree[(table.getX(id) - 1) * size + table.getY(id) - 1] += 1;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            int row = i * size;
+            for (int j = 0; j < size; j++) {
+                int parent = j | (j + 1);
+                if (parent < size) {
+                    tree[row + parent] += tree[row + j];
+                }
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            int parent = i | (i + 1);
+            if (parent < size) {
+                for (int j = 0; j < size; j++) {
+                    tree[parent * size + j] += tree[i * size + j];
+                }
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * The method returns the index of the tree of the type and the color.
+     *
+     * @param typeCode  the code of the piece type
+     * @param colorCode the code of the piece color
+     * @return the index in trees
+     */
+    private static int getTreeIndex(int typeCode, int colorCode) {
+        return typeCode * COLORS + colorCode - 1;
+    }
+}
+
+/**
+ * Task which counts possible moves and captures of pieces from a range of ids grouped by types.
+ * It splits the range in halves until it is small enough to be counted in one thread
+ */
+class MovesAndCapturesTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    /**
+     * the biggest number of pieces which are counted without splitting.
+     */
+    static final int CHUNK_SIZE = 4096;
+    /**
+     * pools which count pieces by the number of their threads, a pool is created once and lives as long as the process,
+     * so repeated counts do not start and stop threads.
+     */
+    private static final Map<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+    /**
+     * the board with pieces, it is only read by tasks.
+     */
+    private final Board board;
+    /**
+     * ids of pieces grouped by types.
+     */
+    private final int[] order;
+    /**
+     * array for packed counts by ids of pieces.
+     */
+    private final long[] results;
+    /**
+     * the first index of the range in order.
+     */
+    private final int from;
+    /**
+     * the index after the last one of the range in order.
+     */
+    private final int to;
+
+    /**
+     * The method receives the board, ids grouped by types, the array for results and the range of indexes.
+     *
+     * @param chessBoard the board with pieces
+     * @param typeOrder  ids of pieces grouped by types
+     * @param counts     array for packed counts
+     * @param fromIndex  the first index of the range in typeOrder
+     * @param toIndex    the index after the last one of the range in typeOrder
+     */
+    MovesAndCapturesTask(Board chessBoard, int[] typeOrder, long[] counts, int fromIndex, int toIndex) {
+        this.board = chessBoard;
+        this.order = typeOrder;
+        this.results = counts;
+        this.from = fromIndex;
+        this.to = toIndex;
+    }
+
+    /**
+     * The method returns the shared pool with the given number of threads, it is created on the first call.
+     *
+     * @param threads the number of threads
+     * @return pool which is never shut down, its threads are daemons
+     */
+    static ForkJoinPool getPool(int threads) {
+        return POOLS.computeIfAbsent(threads, ForkJoinPool::new);
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= CHUNK_SIZE) {
+            board.countGroupedRange(order, from, to, results);
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        invokeAll(new MovesAndCapturesTask(board, order, results, from, middle),
+                new MovesAndCapturesTask(board, order, results, middle, to));
+    }
+}
+
+/**
+ * Counters of the hot path of counting: probes of board squares, scanned rays and time of counting of every type.
+ * Counters are striped, so threads which count chunks of pieces do not contend for them. They are switched on by
+ * the system property PROPERTY before the class is loaded, ENABLED is a constant for the JIT compiler then and
+ * checks of it are removed from the evaluation loop when instrumentation is off
+ */
+final class Instrumentation {
+    /**
+     * the system property which switches instrumentation on.
+     */
+    static final String PROPERTY = "chess.instrumentation";
+    /**
+     * whether counters are updated.
+     */
+    static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+    /**
+     * the number of nanoseconds in one millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1e6;
+    /**
+     * the number of single squares which were looked up.
+     */
+    private static final LongAdder PROBES = new LongAdder();
+    /**
+     * the number of scanned rays.
+     */
+    private static final LongAdder RAY_SCANS = new LongAdder();
+    /**
+     * the number of squares which were passed by scanned rays, blocking squares are included.
+     */
+    private static final LongAdder RAY_STEPS = new LongAdder();
+    /**
+     * the number of counted pieces by codes of types.
+     */
+    private static final LongAdder[] TYPE_PIECES = createAdders(PieceType.COUNT);
+    /**
+     * time of counting of pieces in nanoseconds by codes of types.
+     */
+    private static final LongAdder[] TYPE_NANOS = createAdders(PieceType.COUNT);
+    /**
+     * the number of passed phases by ordinals of phases.
+     */
+    private static final LongAdder[] PHASE_RUNS = createAdders(PipelinePhase.values().length);
+    /**
+     * time of phases in nanoseconds by ordinals of phases.
+     */
+    private static final LongAdder[] PHASE_NANOS = createAdders(PipelinePhase.values().length);
+
+    /**
+     * We create a private constructor as the class has only static members.
+     */
+    private Instrumentation() {
+    }
+
+    /**
+     * The method counts one probe of a square.
+     */
+    static void countProbe() {
+        PROBES.increment();
+    }
+
+    /**
+     * The method counts one scanned ray and the squares which it passed.
+     *
+     * @param ray packed ray with the number of free squares and the color code of the blocking piece
+     */
+    static void countRay(int ray) {
+        RAY_SCANS.increment();
+        int blocker = ray & ((1 << BoardStorage.RAY_BLOCKER_BITS) - 1);
+        RAY_STEPS.add((ray >>> BoardStorage.RAY_BLOCKER_BITS) + (blocker != BoardStorage.EMPTY ? 1 : 0));
+    }
+
+    /**
+     * The method adds time of counting of a range of pieces of one type.
+     *
+     * @param type   the type of pieces
+     * @param pieces the number of pieces in the range
+     * @param nanos  time of counting in nanoseconds
+     */
+    static void recordEvaluation(PieceType type, int pieces, long nanos) {
+        TYPE_PIECES[type.getCode()].add(pieces);
+        TYPE_NANOS[type.getCode()].add(nanos);
+    }
+
+    /**
+     * The method adds time of one passed phase.
+     *
+     * @param phase the phase
+     * @param nanos time of the phase in nanoseconds
+     */
+    static void recordPhase(PipelinePhase phase, long nanos) {
+        PHASE_RUNS[phase.ordinal()].increment();
+        PHASE_NANOS[phase.ordinal()].add(nanos);
+    }
+
+    /**
+     * The method prints all counters, counters which are updated at the same time may be printed partly.
+     *
+     * @param out the stream for the summary
+     */
+    static void printSummary(PrintStream out) {
+        for (PipelinePhase phase : PipelinePhase.values()) {
+            out.printf("phase %s: %d runs, %.3f ms%n", phase.getLabel(), PHASE_RUNS[phase.ordinal()].sum(),
+                    PHASE_NANOS[phase.ordinal()].sum() / NANOS_PER_MILLI);
+        }
+        for (int type = 0; type < PieceType.COUNT; type++) {
+            out.printf("type %s: %d pieces, %.3f ms%n", PieceType.fromCode(type).name().toLowerCase(),
+                    TYPE_PIECES[type].sum(), TYPE_NANOS[type].sum() / NANOS_PER_MILLI);
+        }
+        out.printf("board probes: %d%n", PROBES.sum());
+        out.printf("ray scans: %d, ray steps: %d%n", RAY_SCANS.sum(), RAY_STEPS.sum());
+    }
+
+    /**
+     * The method prints the summary into the standard error stream when the program exits.
+     */
+    static void printSummaryAtExit() {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> printSummary(System.err)));
+    }
+
+    /**
+     * The method creates striped counters.
+     *
+     * @param count the number of counters
+     * @return new counters
+     */
+    private static LongAdder[] createAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
+
+/**
+ * PipelinePhase enum contains phases of processing of one input.
+ */
+enum PipelinePhase {
+    /**
+     * READ means that the input file is mapped into memory.
+     */
+    READ,
+    /**
+     * PARSE means that the input is parsed and pieces are put on the board.
+     */
+    PARSE,
+    /**
+     * COUNT means that moves and captures are counted.
+     */
+    COUNT,
+    /**
+     * OUTPUT means that counts are printed.
+     */
+    OUTPUT;
+
+    /**
+     * The method returns the name of the phase for events and summaries.
+     *
+     * @return the name in lower case
+     */
+    public String getLabel() {
+        return name().toLowerCase();
+    }
+}
+
+/**
+ * JFR event of one phase of processing of one input, it is recorded only while a flight recording with this event
+ * is running. Time of the phase is also added to Instrumentation when it is enabled
+ */
+@Name("chess.Phase")
+@Label("Chess Phase")
+@Category("Chess")
+@Description("One phase of processing of one input")
+class PhaseEvent extends Event {
+    /**
+     * the name of the phase.
+     */
+    @Label("Phase")
+    String phase;
+    /**
+     * the number of pieces of the input, 0 if it is not known yet.
+     */
+    @Label("Pieces")
+    int pieces;
+    /**
+     * the phase, it is not recorded.
+     */
+    private final transient PipelinePhase pipelinePhase;
+    /**
+     * the time when the phase started, it is not recorded.
+     */
+    private final transient long startNanos;
+
+    /**
+     * The method creates the event and starts timing of the phase.
+     *
+     * @param started the phase which starts
+     */
+    PhaseEvent(PipelinePhase started) {
+        this.pipelinePhase = started;
+        this.phase = started.getLabel();
+        this.startNanos = Instrumentation.ENABLED ? System.nanoTime() : 0;
+        begin();
+    }
+
+    /**
+     * The method ends the phase and records it.
+     *
+     * @param piecesCount the number of pieces of the input
+     */
+    void finish(int piecesCount) {
+        end();
+        if (shouldCommit()) {
+            pieces = piecesCount;
+            commit();
+        }
+        if (Instrumentation.ENABLED) {
+            Instrumentation.recordPhase(pipelinePhase, System.nanoTime() - startNanos);
+        }
+    }
+}
+
+/**
+ * Interface for storages of occupied squares of the board.
+ * Every square is packed into one integer key, (x - 1) * boardSize + (y - 1), so a lookup does not allocate anything.
+ * Coordinates given to the methods must be on the board
+ */
+interface BoardStorage {
+    /**
+     * code which is returned for a square without any piece on it.
+     */
+    int EMPTY = 0;
+    /**
+     * if the board has at most this number of squares, the dense storage is always used.
+     */
+    int SMALL_BOARD_SQUARES = 1 << 12;
+    /**
+     * the dense storage is used when at least one of this number of squares is expected to be taken.
+     */
+    int DENSE_RATIO = 16;
+    /**
+     * the number of low bits of a scanned ray which keep the code of the blocking piece.
+     */
+    int RAY_BLOCKER_BITS = 2;
+    /**
+     * boards with more squares, that is boards wider than 46340 squares, keep pieces off the heap, as their packed
+     * squares do not fit into int. The attack map, knight distances and rectangle counts are not built for them.
+     */
+    long OFF_HEAP_SQUARES = Integer.MAX_VALUE;
+    /**
+     * bitboards of one board may take at most this part of the maximal heap, 4 means a quarter of it.
+     */
+    int BITBOARD_HEAP_PART = 4;
+
+    /**
+     * The method chooses the storage which fits the board: a flat array for dense boards, a hash table for sparse
+     * ones and a hash table off the heap for boards with more than OFF_HEAP_SQUARES squares.
+     *
+     * @param boardSize      chess board size,which is represented as the number of squares vertically and horizontally
+     * @param expectedPieces the number of pieces which are going to be added to the board
+     * @return new empty storage
+     */
+    static BoardStorage create(int boardSize, int expectedPieces) {
+        long squares = (long) boardSize * boardSize;
+        if (squares > OFF_HEAP_SQUARES) {
+            return new OffHeapBoardStorage(boardSize, expectedPieces);
+        }
+        if (squares <= SMALL_BOARD_SQUARES || squares <= (long) DENSE_RATIO * expectedPieces) {
+            return new DenseBoardStorage(boardSize);
+        }
+        return new SparseBoardStorage(boardSize, expectedPieces);
+    }
+
+    /**
+     * The method chooses the storage which fits the board and wraps it for the given engine of sliding pieces.
+     * Bitboards take memory for every square, so the bitboard engine gets the line index instead when they would
+     * take more than 1 / BITBOARD_HEAP_PART of the maximal heap, which is always the case for boards with more than
+     * OFF_HEAP_SQUARES squares. Probes of the storage are counted if instrumentation is enabled
+     *
+     * @param boardSize      chess board size,which is represented as the number of squares vertically and horizontally
+     * @param expectedPieces the number of pieces which are going to be added to the board
+     * @param engine         the engine which scans rays of bishops, rooks and queens
+     * @return new empty storage
+     */
+    static BoardStorage create(int boardSize, int expectedPieces, SlidingEngine engine) {
+        BoardStorage storage = create(boardSize, expectedPieces);
+        boolean huge = (long) boardSize * boardSize > OFF_HEAP_SQUARES
+                || BitBoardStorage.getBytes(boardSize) > Runtime.getRuntime().maxMemory() / BITBOARD_HEAP_PART;
+        if (engine == SlidingEngine.BITBOARD && !huge) {
+            storage = new BitBoardStorage(storage);
+        } else if (engine == SlidingEngine.LINE_INDEX || engine == SlidingEngine.BITBOARD) {
+            storage = new LineIndexStorage(storage);
+        }
+        return Instrumentation.ENABLED ? new ProbeCountingStorage(storage) : storage;
+    }
+
+    /**
+     * The method packs a scanned ray into one integer.
+     *
+     * @param freeSquares the number of empty squares before the blocking piece or the edge of the board
+     * @param blocker     the color code of the blocking piece or EMPTY if the ray reaches the edge
+     * @return packed ray
+     */
+    static int packRay(int freeSquares, int blocker) {
+        return (freeSquares << RAY_BLOCKER_BITS) | blocker;
+    }
+
+    /**
+     * The method counts the moves along a scanned ray: all free squares and the blocking piece if it is an enemy.
+     *
+     * @param ray       packed ray
+     * @param colorCode the color code of the moving piece
+     * @return the number of moves along the ray
+     */
+    static int getRayMovesCount(int ray, int colorCode) {
+        return (ray >>> RAY_BLOCKER_BITS) + getRayCapturesCount(ray, colorCode);
+    }
+
+    /**
+     * The method counts the captures along a scanned ray, it is one if the blocking piece is an enemy.
+     *
+     * @param ray       packed ray
+     * @param colorCode the color code of the moving piece
+     * @return the number of captures along the ray
+     */
+    static int getRayCapturesCount(int ray, int colorCode) {
+        int blocker = ray & ((1 << RAY_BLOCKER_BITS) - 1);
+        if (blocker != EMPTY && blocker != colorCode) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * The method writes the moves along a scanned ray into the array as packed moves, in the order of distance.
+     * It writes getRayMovesCount(ray, colorCode) moves
+     *
+     * @param ray       packed ray
+     * @param x         horizontal coordinate of the start square
+     * @param y         vertical coordinate of the start square
+     * @param dx        horizontal step of the ray
+     * @param dy        vertical step of the ray
+     * @param colorCode the color code of the moving piece
+     * @param typeCode  the code of the type of the moving piece
+     * @param boardSize the number of squares on the board horizontally or vertically
+     * @param moves     array for packed moves
+     * @param offset    index in the array where the first move is written
+     */
+    static void writeRayMoves(int ray, int x, int y, int dx, int dy, int colorCode, int typeCode, int boardSize,
+                              int[] moves, int offset) {
+        int freeSquares = ray >>> RAY_BLOCKER_BITS;
+        for (int k = 1; k <= freeSquares; k++) {
+            moves[offset + k - 1] = ChessPiece.packMove(x + k * dx, y + k * dy, false, typeCode, boardSize);
+        }
+        if (getRayCapturesCount(ray, colorCode) != 0) {
+            int k = freeSquares + 1;
+            moves[offset + freeSquares] = ChessPiece.packMove(x + k * dx, y + k * dy, true, typeCode, boardSize);
+        }
+    }
+
+    /**
+     * The method returns the size of the board.
+     *
+     * @return the number of squares on the board horizontally or vertically
+     */
+    int getSize();
+
+    /**
+     * The method returns the code of the color of a piece on the square.
+     *
+     * @param x horizontal coordinate of the square
+     * @param y vertical coordinate of the square
+     * @return EMPTY if there is no piece on the square, otherwise the code of the piece color
+     */
+    int getOccupant(int x, int y);
+
+    /**
+     * The method returns the id of a piece on the square.
+     *
+     * @param x horizontal coordinate of the square
+     * @param y vertical coordinate of the square
+     * @return the id of the piece or -1 if there is no piece on the square
+     */
+    int getPieceId(int x, int y);
+
+    /**
+     * The method puts a piece on the square, the square must be empty.
+     *
+     * @param x         horizontal coordinate of the square
+     * @param y         vertical coordinate of the square
+     * @param pieceId   the id of the piece
+     * @param colorCode the code of the piece color
+     */
+    void put(int x, int y, int pieceId, int colorCode);
+
+    /**
+     * The method removes a piece from the square, nothing happens if the square is empty.
+     *
+     * @param x horizontal coordinate of the square
+     * @param y vertical coordinate of the square
+     */
+    void remove(int x, int y);
+
+    /**
+     * The method walks from the square in the given direction up to the nearest piece or the edge of the board.
+     * Storages can override it with a faster search
+     *
+     * @param x  horizontal coordinate of the start square
+     * @param y  vertical coordinate of the start square
+     * @param dx horizontal step, -1, 0 or 1
+     * @param dy vertical step, -1, 0 or 1
+     * @return packed ray with the number of free squares and the color code of the blocking piece
+     */
+    default int scanRay(int x, int y, int dx, int dy) {
+        int size = getSize();
+        int freeSquares = 0;
+        int nextX = x + dx;
+        int nextY = y + dy;
+        while (nextX >= 1 && nextX <= size && nextY >= 1 && nextY <= size) {
+            int occupant = getOccupant(nextX, nextY);
+            if (occupant != EMPTY) {
+                return packRay(freeSquares, occupant);
+            }
+            freeSquares += 1;
+            nextX += dx;
+            nextY += dy;
+        }
+        return packRay(freeSquares, EMPTY);
+    }
+
+    /**
+     * The method is called before rays are scanned by several threads at once, while the board is not changed.
+     * Storages which update their indexes lazily finish them here
+     */
+    default void prepareScans() {
+    }
+}
+
+/**
+ * SlidingEngine enum contains the ways in which rays of bishops, rooks and queens are scanned.
+ */
+enum SlidingEngine {
+    /**
+     * RAY_WALK means that rays are walked square by square.
+     */
+    RAY_WALK,
+    /**
+     * BITBOARD means that rays are scanned by 64 squares at once in occupancy bitboards.
+     */
+    BITBOARD,
+    /**
+     * LINE_INDEX means that the nearest piece of a ray is found by binary search in sorted lists of lines.
+     */
+    LINE_INDEX,
+    /**
+     * LINE_SORT means that all pieces of the board are counted at once by sorting them along lines,
+     * single pieces are counted by walking rays.
+     */
+    LINE_SORT;
+
+    /**
+     * In "parse" we get a string with the name of the engine and switch it on SlidingEngine enum.
+     *
+     * @param name name of the engine, "ray-walk", "bitboard", "line-index" or "line-sort"
+     * @return the engine with this name
+     * @throws IllegalArgumentException if there is no engine with this name
+     */
+    public static SlidingEngine parse(String name) {
+        switch (name) {
+            case "ray-walk":
+                return RAY_WALK;
+            case "bitboard":
+                return BITBOARD;
+            case "line-index":
+                return LINE_INDEX;
+            case "line-sort":
+                return LINE_SORT;
+            default:
+                throw new IllegalArgumentException("Unknown sliding engine: " + name);
+        }
+    }
+}
+
+/**
+ * Storage which keeps every square of the board in flat arrays.
+ * It is used for small or dense boards
+ */
+class DenseBoardStorage implements BoardStorage {
+    /**
+     * the size of the board, which is represented as the number of squares vertically and horizontally.
+     */
+    private final int size;
+    /**
+     * color codes of pieces by packed squares.
+     */
+    private final byte[] occupants;
+    /**
+     * ids of pieces by packed squares, they are valid only for taken squares.
+     */
+    private final int[] pieceIds;
+
+    /**
+     * The method allocates arrays for all squares of the board.
+     *
+     * @param boardSize the number of squares on the board horizontally or vertically
+     */
+    DenseBoardStorage(int boardSize) {
+        this.size = boardSize;
+        this.occupants = new byte[boardSize * boardSize];
+        this.pieceIds = new int[boardSize * boardSize];
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getOccupant(int x, int y) {
+        return occupants[(x - 1) * size + (y - 1)];
+    }
+
+    @Override
+    public int getPieceId(int x, int y) {
+        int square = (x - 1) * size + (y - 1);
+        if (occupants[square] == EMPTY) {
+            return -1;
+        }
+        return pieceIds[square];
+    }
+
+    @Override
+    public void put(int x, int y, int pieceId, int colorCode) {
+        int square = (x - 1) * size + (y - 1);
+        occupants[square] = (byte) colorCode;
+        pieceIds[square] = pieceId;
+    }
+
+    @Override
+    public void remove(int x, int y) {
+        occupants[(x - 1) * size + (y - 1)] = EMPTY;
+    }
+}
+
+/**
+ * Storage which keeps only taken squares in a hash table with open addressing and linear probing.
+ * It is used for big boards with few pieces on them
+ */
+class SparseBoardStorage implements BoardStorage {
+    /**
+     * the smallest capacity of the table.
+     */
+    private static final int MIN_CAPACITY = 16;
+    /**
+     * multiplier which spreads packed squares over the table.
+     */
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;
+    /**
+     * the size of the board, which is represented as the number of squares vertically and horizontally.
+     */
+    private final int size;
+    /**
+     * packed squares plus one, zero marks a free slot.
+     */
+    private int[] keys;
+    /**
+     * ids of pieces by slots.
+     */
+    private int[] pieceIds;
+    /**
+     * color codes of pieces by slots.
+     */
+    private byte[] occupants;
+    /**
+     * the number of taken slots.
+     */
+    private int count;
+
+    /**
+     * The method allocates the table, so that the expected pieces take at most a half of it.
+     *
+     * @param boardSize      the number of squares on the board horizontally or vertically
+     * @param expectedPieces the number of pieces which are going to be added to the board
+     */
+    SparseBoardStorage(int boardSize, int expectedPieces) {
+        this.size = boardSize;
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2 * expectedPieces) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getOccupant(int x, int y) {
+        int slot = findSlot((x - 1) * size + y);
+        if (keys[slot] == 0) {
+            return EMPTY;
+        }
+        return occupants[slot];
+    }
+
+    @Override
+    public int getPieceId(int x, int y) {
+        int slot = findSlot((x - 1) * size + y);
+        if (keys[slot] == 0) {
+            return -1;
+        }
+        return pieceIds[slot];
+    }
+
+    @Override
+    public void put(int x, int y, int pieceId, int colorCode) {
+        if (2 * (count + 1) > keys.length) {
+            grow();
+        }
+        int key = (x - 1) * size + y;
+        int slot = findSlot(key);
+        if (keys[slot] == 0) {
+            count += 1;
+        }
+        keys[slot] = key;
+        pieceIds[slot] = pieceId;
+        occupants[slot] = (byte) colorCode;
+    }
+
+    /**
+     * The method frees the slot of the square and moves later keys of the same probe chain back into the gap,
+     * so that lookups never stop at the freed slot too early.
+     *
+     * @param x horizontal coordinate of the square
+     * @param y vertical coordinate of the square
+     */
+    @Override
+    public void remove(int x, int y) {
+        int hole = findSlot((x - 1) * size + y);
+        if (keys[hole] == 0) {
+            return;
+        }
+        count -= 1;
+        int mask = keys.length - 1;
+        int next = (hole + 1) & mask;
+        while (keys[next] != 0) {
+            int home = getHomeSlot(keys[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                pieceIds[hole] = pieceIds[next];
+                occupants[hole] = occupants[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = 0;
+    }
+
+    /**
+     * The method finds the slot with the key or the free slot where the key should be put.
+     *
+     * @param key packed square plus one
+     * @return index of the slot
+     */
+    private int findSlot(int key) {
+        int mask = keys.length - 1;
+        int slot = getHomeSlot(key);
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * The method returns the slot from which the search of the key starts.
+     *
+     * @param key packed square plus one
+     * @return index of the slot
+     */
+    private int getHomeSlot(int key) {
+        int hash = key * HASH_MULTIPLIER;
+        return (hash ^ (hash >>> (Integer.SIZE / 2))) & (keys.length - 1);
+    }
+
+    /**
+     * The method creates empty arrays of the given capacity.
+     *
+     * @param capacity the number of slots, a power of two
+     */
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        pieceIds = new int[capacity];
+        occupants = new byte[capacity];
+    }
+
+    /**
+     * The method doubles the table and puts all taken slots into it again.
+     */
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldPieceIds = pieceIds;
+        byte[] oldOccupants = occupants;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                pieceIds[slot] = oldPieceIds[i];
+                occupants[slot] = oldOccupants[i];
+            }
+        }
+    }
+}
+
+/**
+ * Hash table of taken squares which is kept off the Java heap in a direct buffer, for very big sparse boards.
+ * Squares are packed into long keys, so boards may have more than Integer.MAX_VALUE squares. Every slot takes
+ * SLOT_BYTES bytes: the packed square plus one, zero for a free slot, and the id of the piece above its color code.
+ * The garbage collector does not scan the table, the heap keeps only the buffer object
+ */
+class OffHeapBoardStorage implements BoardStorage {
+    /**
+     * the number of bytes of one slot: the long key and the int value.
+     */
+    private static final int SLOT_BYTES = Long.BYTES + Integer.BYTES;
+    /**
+     * the offset of the value inside a slot.
+     */
+    private static final int VALUE_OFFSET = Long.BYTES;
+    /**
+     * the smallest capacity of the table.
+     */
+    private static final int MIN_CAPACITY = 16;
+    /**
+     * the biggest capacity of the table, one buffer can not be bigger than Integer.MAX_VALUE bytes.
+     */
+    private static final int MAX_CAPACITY = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_BYTES);
+    /**
+     * multiplier which spreads packed squares over the table.
+     */
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    /**
+     * the size of the board, which is represented as the number of squares vertically and horizontally.
+     */
+    private final int size;
+    /**
+     * slots of the table.
+     */
+    private ByteBuffer slots;
+    /**
+     * the number of slots, a power of two.
+     */
+    private int capacity;
+    /**
+     * the number of taken slots.
+     */
+    private int count;
+
+    /**
+     * The method allocates the table, so that the expected pieces take at most a half of it.
+     *
+     * @param boardSize      the number of squares on the board horizontally or vertically
+     * @param expectedPieces the number of pieces which are going to be added to the board
+     */
+    OffHeapBoardStorage(int boardSize, int expectedPieces) {
+        this.size = boardSize;
+        int initialCapacity = MIN_CAPACITY;
+        while (initialCapacity < 2L * expectedPieces && initialCapacity < MAX_CAPACITY) {
+            initialCapacity <<= 1;
+        }
+        allocate(initialCapacity);
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getOccupant(int x, int y) {
+        int slot = findSlot(getKey(x, y));
+        if (getSlotKey(slot) == 0) {
+            return EMPTY;
+        }
+        return getSlotValue(slot) & ((1 << RAY_BLOCKER_BITS) - 1);
+    }
+
+    @Override
+    public int getPieceId(int x, int y) {
+        int slot = findSlot(getKey(x, y));
+        if (getSlotKey(slot) == 0) {
+            return -1;
+        }
+        return getSlotValue(slot) >>> RAY_BLOCKER_BITS;
+    }
+
+    @Override
+    public void put(int x, int y, int pieceId, int colorCode) {
+        if (2L * (count + 1) > capacity) {
+            grow();
+        }
+        long key = getKey(x, y);
+        int slot = findSlot(key);
+        if (getSlotKey(slot) == 0) {
+            count += 1;
+        }
+        setSlot(slot, key, (pieceId << RAY_BLOCKER_BITS) | colorCode);
+    }
+
+    /**
+     * The method frees the slot of the square and moves later keys of the same probe chain back into the gap,
+     * so that lookups never stop at the freed slot too early.
+     *
+     * @param x horizontal coordinate of the square
+     * @param y vertical coordinate of the square
+     */
+    @Override
+    public void remove(int x, int y) {
+        int hole = findSlot(getKey(x, y));
+        if (getSlotKey(hole) == 0) {
+            return;
+        }
+        count -= 1;
+        int mask = capacity - 1;
+        int next = (hole + 1) & mask;
+        while (getSlotKey(next) != 0) {
+            int home = getHomeSlot(getSlotKey(next));
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                setSlot(hole, getSlotKey(next), getSlotValue(next));
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        setSlot(hole, 0, 0);
+    }
+
+    /**
+     * The method packs the square into a key.
+     *
+     * @param x horizontal coordinate of the square
+     * @param y vertical coordinate of the square
+     * @return packed square plus one
+     */
+    private long getKey(int x, int y) {
+        return (long) (x - 1) * size + y;
+    }
+
+    /**
+     * The method finds the slot with the key or the free slot where the key should be put.
+     *
+     * @param key packed square plus one
+     * @return index of the slot
+     */
+    private int findSlot(long key) {
+        int mask = capacity - 1;
+        int slot = getHomeSlot(key);
+        long slotKey = getSlotKey(slot);
+        while (slotKey != 0 && slotKey != key) {
+            slot = (slot + 1) & mask;
+            slotKey = getSlotKey(slot);
+        }
+        return slot;
+    }
+
+    /**
+     * The method returns the slot from which the search of the key starts.
+     *
+     * @param key packed square plus one
+     * @return index of the slot
+     */
+    private int getHomeSlot(long key) {
+        long hash = key * HASH_MULTIPLIER;
+        return (int) (hash ^ (hash >>> Integer.SIZE)) & (capacity - 1);
+    }
+
+    /**
+     * The method reads the key of the slot.
+     *
+     * @param slot index of the slot
+     * @return packed square plus one or zero for a free slot
+     */
+    private long getSlotKey(int slot) {
+        return slots.getLong(slot * SLOT_BYTES);
+    }
+
+    /**
+     * The method reads the value of the slot.
+     *
+     * @param slot index of the slot
+     * @return the id of the piece above its color code
+     */
+    private int getSlotValue(int slot) {
+        return slots.getInt(slot * SLOT_BYTES + VALUE_OFFSET);
+    }
+
+    /**
+     * The method writes the key and the value of the slot.
+     *
+     * @param slot  index of the slot
+     * @param key   packed square plus one or zero to free the slot
+     * @param value the id of the piece above its color code
+     */
+    private void setSlot(int slot, long key, int value) {
+        slots.putLong(slot * SLOT_BYTES, key);
+        slots.putInt(slot * SLOT_BYTES + VALUE_OFFSET, value);
+    }
+
+    /**
+     * The method creates an empty table of the given capacity, direct buffers are filled with zeros.
+     *
+     * @param newCapacity the number of slots, a power of two
+     */
+    private void allocate(int newCapacity) {
+        slots = ByteBuffer.allocateDirect(newCapacity * SLOT_BYTES).order(ByteOrder.nativeOrder());
+        capacity = newCapacity;
+    }
+
+    /**
+     * The method doubles the table and puts all taken slots into it again.
+     *
+     * @throws IllegalStateException if the table can not be bigger
+     */
+    private void grow() {
+        if (capacity >= MAX_CAPACITY) {
+            throw new IllegalStateException("Off-heap board storage is full");
+        }
+        ByteBuffer oldSlots = slots;
+        int oldCapacity = capacity;
+        allocate(oldCapacity * 2);
+        for (int i = 0; i < oldCapacity; i++) {
+            long key = oldSlots.getLong(i * SLOT_BYTES);
+            if (key != 0) {
+                setSlot(findSlot(key), key, oldSlots.getInt(i * SLOT_BYTES + VALUE_OFFSET));
+            }
+        }
+    }
+}
+
+/**
+ * Storage which keeps occupancy bitboards next to another storage, so that rays are scanned by 64 squares at once.
+ * Every rank, file, diagonal and anti-diagonal is a row of long words, bit i of a row is the square with x = i + 1
+ * (y = i + 1 for files). The nearest blocker is found with Long.numberOfTrailingZeros and numberOfLeadingZeros
+ */
+class BitBoardStorage implements BoardStorage {
+    /**
+     * the number of squares in one word.
+     */
+    private static final int WORD_BITS = 64;
+    /**
+     * shift which turns a square index in a row into the index of its word.
+     */
+    private static final int WORD_SHIFT = 6;
+    /**
+     * storage which keeps colors and ids of pieces.
+     */
+    private final BoardStorage storage;
+    /**
+     * the size of the board, which is represented as the number of squares vertically and horizontally.
+     */
+    private final int size;
+    /**
+     * the number of words in every row.
+     */
+    private final int wordsPerRow;
+    /**
+     * occupancy of ranks, row y - 1 keeps squares with vertical coordinate y.
+     */
+    private final long[] ranks;
+    /**
+     * occupancy of files, row x - 1 keeps squares with horizontal coordinate x.
+     */
+    private final long[] files;
+    /**
+     * occupancy of diagonals, row x - y + size - 1 keeps squares of one diagonal.
+     */
+    private final long[] diagonals;
+    /**
+     * occupancy of anti-diagonals, row x + y - 2 keeps squares of one anti-diagonal.
+     */
+    private final long[] antiDiagonals;
+    /**
+     * squares taken by white pieces, in the same layout as ranks.
+     */
+    private final long[] whiteRanks;
+
+    /**
+     * The method wraps the empty storage, pieces are added through the wrapper.
+     * Squares of the storage are not scanned, so only the zeroed bitboards cost time proportional to the squares
+     *
+     * @param positions empty storage for board squares
+     */
+    BitBoardStorage(BoardStorage positions) {
+        this.storage = positions;
+        this.size = positions.getSize();
+        this.wordsPerRow = (size + WORD_BITS - 1) / WORD_BITS;
+        this.ranks = new long[size * wordsPerRow];
+        this.files = new long[size * wordsPerRow];
+        this.diagonals = new long[(2 * size - 1) * wordsPerRow];
+        this.antiDiagonals = new long[(2 * size - 1) * wordsPerRow];
+        this.whiteRanks = new long[size * wordsPerRow];
+    }
+
+    /**
+     * The method returns how many bytes bitboards of the board take, it is about 7 / 8 of a byte for every square.
+     *
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return the number of bytes of all rows of bitboards
+     */
+    static long getBytes(int boardSize) {
+        long wordsPerRow = (boardSize + WORD_BITS - 1) / WORD_BITS;
+        long rows = 3L * boardSize + 2 * (2L * boardSize - 1);
+        return rows * wordsPerRow * Long.BYTES;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getOccupant(int x, int y) {
+        return storage.getOccupant(x, y);
+    }
+
+    @Override
+    public int getPieceId(int x, int y) {
+        return storage.getPieceId(x, y);
+    }
+
+    @Override
+    public void put(int x, int y, int pieceId, int colorCode) {
+        storage.put(x, y, pieceId, colorCode);
+        setBits(x, y, colorCode);
+    }
+
+    @Override
+    public void remove(int x, int y) {
+        storage.remove(x, y);
+        ranks[(y - 1) * wordsPerRow + ((x - 1) >>> WORD_SHIFT)] &= ~(1L << (x - 1));
+        files[(x - 1) * wordsPerRow + ((y - 1) >>> WORD_SHIFT)] &= ~(1L << (y - 1));
+        diagonals[(x - y + size - 1) * wordsPerRow + ((x - 1) >>> WORD_SHIFT)] &= ~(1L << (x - 1));
+        antiDiagonals[(x + y - 2) * wordsPerRow + ((x - 1) >>> WORD_SHIFT)] &= ~(1L << (x - 1));
+        whiteRanks[(y - 1) * wordsPerRow + ((x - 1) >>> WORD_SHIFT)] &= ~(1L << (x - 1));
+    }
+
+    @Override
+    public int scanRay(int x, int y, int dx, int dy) {
+        int row;
+        int index;
+        int limit;
+        long[] bits;
+        if (dx == 0) {
+            bits = files;
+            row = x - 1;
+            index = y - 1;
+            limit = dy > 0 ? size - y : y - 1;
+        } else if (dy == 0) {
+            bits = ranks;
+            row = y - 1;
+            index = x - 1;
+            limit = dx > 0 ? size - x : x - 1;
+        } else if (dx == dy) {
+            bits = diagonals;
+            row = x - y + size - 1;
+            index = x - 1;
+            limit = dx > 0 ? Math.min(size - x, size - y) : Math.min(x - 1, y - 1);
+        } else {
+            bits = antiDiagonals;
+            row = x + y - 2;
+            index = x - 1;
+            limit = dx > 0 ? Math.min(size - x, y - 1) : Math.min(x - 1, size - y);
+        }
+        int step = dx != 0 ? dx : dy;
+        int distance;
+        if (step > 0) {
+            distance = findAbove(bits, row * wordsPerRow, index, limit);
+        } else {
+            distance = findBelow(bits, row * wordsPerRow, index, limit);
+        }
+        if (distance < 0) {
+            return BoardStorage.packRay(limit, EMPTY);
+        }
+        return BoardStorage.packRay(distance - 1, getBlockerCode(x + dx * distance, y + dy * distance));
+    }
+
+    /**
+     * The method finds the nearest taken square after the given index in a row.
+     *
+     * @param bits  occupancy words
+     * @param base  index of the first word of the row
+     * @param index index of the start square in the row
+     * @param limit the number of squares between the start square and the edge of the board
+     * @return distance to the nearest taken square or -1 if there is none within the limit
+     */
+    private static int findAbove(long[] bits, int base, int index, int limit) {
+        int last = index + limit;
+        int current = index + 1;
+        while (current <= last) {
+            long word = bits[base + (current >>> WORD_SHIFT)] & (-1L << current);
+            if (word != 0) {
+                int found = (current & -WORD_BITS) + Long.numberOfTrailingZeros(word);
+                return found <= last ? found - index : -1;
+            }
+            current = (current | (WORD_BITS - 1)) + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * The method finds the nearest taken square before the given index in a row.
+     *
+     * @param bits  occupancy words
+     * @param base  index of the first word of the row
+     * @param index index of the start square in the row
+     * @param limit the number of squares between the start square and the edge of the board
+     * @return distance to the nearest taken square or -1 if there is none within the limit
+     */
+    private static int findBelow(long[] bits, int base, int index, int limit) {
+        int first = index - limit;
+        int current = index - 1;
+        while (current >= first) {
+            long word = bits[base + (current >>> WORD_SHIFT)] & (-1L >>> (WORD_BITS - 1 - (current & (WORD_BITS - 1))));
+            if (word != 0) {
+                int found = (current & -WORD_BITS) + WORD_BITS - 1 - Long.numberOfLeadingZeros(word);
+                return found >= first ? index - found : -1;
+            }
+            current = (current & -WORD_BITS) - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * The method returns the color code of the piece on a taken square using the mask of white pieces.
+     *
+     * @param x horizontal coordinate of the taken square
+     * @param y vertical coordinate of the taken square
+     * @return the color code of the piece
+     */
+    private int getBlockerCode(int x, int y) {
+        long word = whiteRanks[(y - 1) * wordsPerRow + ((x - 1) >>> WORD_SHIFT)];
+        if ((word & (1L << (x - 1))) != 0) {
+            return PieceColor.WHITE.getCode();
+        }
+        return PieceColor.BLACK.getCode();
+    }
+
+    /**
+     * The method marks the square as taken in all bitboards.
+     *
+     * @param x         horizontal coordinate of the square
+     * @param y         vertical coordinate of the square
+     * @param colorCode the code of the piece color
+     */
+    private void setBits(int x, int y, int colorCode) {
+        ranks[(y - 1) * wordsPerRow + ((x - 1) >>> WORD_SHIFT)] |= 1L << (x - 1);
+        files[(x - 1) * wordsPerRow + ((y - 1) >>> WORD_SHIFT)] |= 1L << (y - 1);
+        diagonals[(x - y + size - 1) * wordsPerRow + ((x - 1) >>> WORD_SHIFT)] |= 1L << (x - 1);
+        antiDiagonals[(x + y - 2) * wordsPerRow + ((x - 1) >>> WORD_SHIFT)] |= 1L << (x - 1);
+        if (colorCode == PieceColor.WHITE.getCode()) {
+            whiteRanks[(y - 1) * wordsPerRow + ((x - 1) >>> WORD_SHIFT)] |= 1L << (x - 1);
+        }
+    }
+}
+
+/**
+ * Storage which keeps sorted lists of taken squares of every rank, file, diagonal and anti-diagonal next to
+ * another storage. The nearest blocker of a ray is found by binary search in the list of its line, so scanning
+ * a ray costs O(log k) for k pieces on the line and does not depend on the size of the board
+ */
+class LineIndexStorage implements BoardStorage {
+    /**
+     * storage which keeps colors and ids of pieces.
+     */
+    private final BoardStorage storage;
+    /**
+     * the size of the board, which is represented as the number of squares vertically and horizontally.
+     */
+    private final int size;
+    /**
+     * lists of ranks, line y - 1 keeps horizontal coordinates of squares with vertical coordinate y.
+     */
+    private final SortedLines ranks;
+    /**
+     * lists of files, line x - 1 keeps vertical coordinates of squares with horizontal coordinate x.
+     */
+    private final SortedLines files;
+    /**
+     * lists of diagonals, line x - y + size - 1 keeps horizontal coordinates of squares of one diagonal.
+     */
+    private final SortedLines diagonals;
+    /**
+     * lists of anti-diagonals, line x + y - 2 keeps horizontal coordinates of squares of one anti-diagonal.
+     */
+    private final SortedLines antiDiagonals;
+
+    /**
+     * The method wraps the empty storage, pieces are added through the wrapper.
+     * Squares of the storage are not scanned, so the wrapper is created in O(size) even for very big boards
+     *
+     * @param positions empty storage for board squares
+     */
+    LineIndexStorage(BoardStorage positions) {
+        this.storage = positions;
+        this.size = positions.getSize();
+        this.ranks = new SortedLines(size);
+        this.files = new SortedLines(size);
+        this.diagonals = new SortedLines(2 * size - 1);
+        this.antiDiagonals = new SortedLines(2 * size - 1);
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getOccupant(int x, int y) {
+        return storage.getOccupant(x, y);
+    }
+
+    @Override
+    public int getPieceId(int x, int y) {
+        return storage.getPieceId(x, y);
+    }
+
+    @Override
+    public void put(int x, int y, int pieceId, int colorCode) {
+        storage.put(x, y, pieceId, colorCode);
+        addToLines(x, y, colorCode);
+    }
+
+    @Override
+    public void remove(int x, int y) {
+        if (storage.getOccupant(x, y) == EMPTY) {
+            return;
+        }
+        storage.remove(x, y);
+        ranks.remove(y - 1, x);
+        files.remove(x - 1, y);
+        diagonals.remove(x - y + size - 1, x);
+        antiDiagonals.remove(x + y - 2, x);
+    }
+
+    @Override
+    public void prepareScans() {
+        ranks.sortAll();
+        files.sortAll();
+        diagonals.sortAll();
+        antiDiagonals.sortAll();
+    }
+
+    @Override
+    public int scanRay(int x, int y, int dx, int dy) {
+        SortedLines lines;
+        int line;
+        int coordinate;
+        int limit;
+        if (dx == 0) {
+            lines = files;
+            line = x - 1;
+            coordinate = y;
+            limit = dy > 0 ? size - y : y - 1;
+        } else if (dy == 0) {
+            lines = ranks;
+            line = y - 1;
+            coordinate = x;
+            limit = dx > 0 ? size - x : x - 1;
+        } else if (dx == dy) {
+            lines = diagonals;
+            line = x - y + size - 1;
+            coordinate = x;
+            limit = dx > 0 ? Math.min(size - x, size - y) : Math.min(x - 1, y - 1);
+        } else {
+            lines = antiDiagonals;
+            line = x + y - 2;
+            coordinate = x;
+            limit = dx > 0 ? Math.min(size - x, y - 1) : Math.min(x - 1, size - y);
+        }
+        int step = dx != 0 ? dx : dy;
+        int blocker = step > 0 ? lines.findAbove(line, coordinate) : lines.findBelow(line, coordinate);
+        if (blocker < 0) {
+            return BoardStorage.packRay(limit, EMPTY);
+        }
+        int distance = Math.abs((blocker >>> RAY_BLOCKER_BITS) - coordinate);
+        return BoardStorage.packRay(distance - 1, blocker & ((1 << RAY_BLOCKER_BITS) - 1));
+    }
+
+    /**
+     * The method adds the square to the lists of its rank, file, diagonal and anti-diagonal.
+     *
+     * @param x         horizontal coordinate of the square
+     * @param y         vertical coordinate of the square
+     * @param colorCode the code of the piece color
+     */
+    private void addToLines(int x, int y, int colorCode) {
+        ranks.add(y - 1, x, colorCode);
+        files.add(x - 1, y, colorCode);
+        diagonals.add(x - y + size - 1, x, colorCode);
+        antiDiagonals.add(x + y - 2, x, colorCode);
+    }
+}
+
+/**
+ * Lists of taken squares of lines of one direction. Every entry keeps the coordinate of a square along the line
+ * in the high bits and the color code of its piece in the low BoardStorage.RAY_BLOCKER_BITS bits, so entries are
+ * sorted by coordinates. New entries are appended and a list is sorted when it is searched for the first time
+ */
+class SortedLines {
+    /**
+     * the first capacity of the list of a line.
+     */
+    private static final int INITIAL_CAPACITY = 4;
+    /**
+     * entries of every line, null for lines without pieces.
+     */
+    private final int[][] entries;
+    /**
+     * the number of entries of every line.
+     */
+    private final int[] counts;
+    /**
+     * whether entries of the line were appended out of order after the last sort.
+     */
+    private final boolean[] unsorted;
+
+    /**
+     * The method creates empty lists.
+     *
+     * @param lines the number of lines
+     */
+    SortedLines(int lines) {
+        this.entries = new int[lines][];
+        this.counts = new int[lines];
+        this.unsorted = new boolean[lines];
+    }
+
+    /**
+     * The method appends the square to the list of the line.
+     *
+     * @param line       the index of the line
+     * @param coordinate the coordinate of the square along the line
+     * @param colorCode  the code of the piece color
+     */
+    void add(int line, int coordinate, int colorCode) {
+        int[] list = entries[line];
+        int count = counts[line];
+        if (list == null) {
+            list = new int[INITIAL_CAPACITY];
+            entries[line] = list;
+        } else if (count == list.length) {
+            list = Arrays.copyOf(list, count * 2);
+            entries[line] = list;
+        }
+        int entry = (coordinate << BoardStorage.RAY_BLOCKER_BITS) | colorCode;
+        if (count > 0 && list[count - 1] > entry) {
+            unsorted[line] = true;
+        }
+        list[count] = entry;
+        counts[line] = count + 1;
+    }
+
+    /**
+     * The method removes the square from the list of the line, nothing happens if it is not in the list.
+     *
+     * @param line       the index of the line
+     * @param coordinate the coordinate of the square along the line
+     */
+    void remove(int line, int coordinate) {
+        sort(line);
+        int count = counts[line];
+        int index = firstAbove(line, (coordinate << BoardStorage.RAY_BLOCKER_BITS) - 1);
+        if (index == count || entries[line][index] >>> BoardStorage.RAY_BLOCKER_BITS != coordinate) {
+            return;
+        }
+        System.arraycopy(entries[line], index + 1, entries[line], index, count - index - 1);
+        counts[line] = count - 1;
+    }
+
+    /**
+     * The method finds the nearest square of the line with a bigger coordinate.
+     *
+     * @param line       the index of the line
+     * @param coordinate the coordinate of the start square along the line
+     * @return the entry of the nearest square or -1 if there is none
+     */
+    int findAbove(int line, int coordinate) {
+        sort(line);
+        int lastEntry = (coordinate << BoardStorage.RAY_BLOCKER_BITS) | ((1 << BoardStorage.RAY_BLOCKER_BITS) - 1);
+        int index = firstAbove(line, lastEntry);
+        return index < counts[line] ? entries[line][index] : -1;
+    }
 
     /**
-     * The method receives board size and assigns it to "size" private field.
+     * The method finds the nearest square of the line with a smaller coordinate.
      *
-     * @param boardSize the number of squares on the board horizontally or vertically
+     * @param line       the index of the line
+     * @param coordinate the coordinate of the start square along the line
+     * @return the entry of the nearest square or -1 if there is none
      */
-    Board(int boardSize) {
-        this.size = boardSize;
+    int findBelow(int line, int coordinate) {
+        sort(line);
+        int index = firstAbove(line, (coordinate << BoardStorage.RAY_BLOCKER_BITS) - 1) - 1;
+        return index >= 0 ? entries[line][index] : -1;
     }
 
     /**
-     * Method which returns the number of possible moves from the current position.
-     *
-     * @param piece currently processed chess piece
-     * @return integer value of the number of all possible moves on the board
+     * The method sorts all lists, after it lists can be searched by several threads at once.
      */
-    public int getPiecePossibleMovesCount(ChessPiece piece) {
-        return piece.getMovesCount(positionsToPieces, size);
+    void sortAll() {
+        for (int line = 0; line < counts.length; line++) {
+            sort(line);
+        }
     }
 
     /**
-     * Method which returns the number of possible captures from the current position.
+     * The method sorts the list of the line if entries were appended out of order.
      *
-     * @param piece currently processed chess piece
-     * @return integer value of the number of all possible captures on the board
+     * @param line the index of the line
      */
-    public int getPiecePossibleCapturesCount(ChessPiece piece) {
-        return piece.getCapturesCount(positionsToPieces, size);
+    private void sort(int line) {
+        if (unsorted[line]) {
+            Arrays.sort(entries[line], 0, counts[line]);
+            unsorted[line] = false;
+        }
     }
 
     /**
-     * Method which adds a new chess piece into the map with all given ones and their positions or returns an exception.
+     * The method finds the first entry of the sorted list which is bigger than the key by binary search.
      *
-     * @param piece new chess piece
-     * @throws InvalidPiecePositionException is used in case of another chess piece already standing on the board
+     * @param line the index of the line
+     * @param key  the key
+     * @return the index of the entry or the number of entries if all of them are not bigger
      */
-    public void addPiece(ChessPiece piece) throws InvalidPiecePositionException {
-        if (positionsToPieces.containsKey(piece.getPosition().toString())) {
-            throw new InvalidPiecePositionException();
+    private int firstAbove(int line, int key) {
+        int[] list = entries[line];
+        int low = 0;
+        int high = counts[line];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (list[middle] > key) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
         }
-        positionsToPieces.put(piece.getPosition().toString(), piece);
+        return low;
     }
+}
 
+/**
+ * Storage which counts probes of squares and scanned rays of the wrapped storage for Instrumentation.
+ * Boards get it only when instrumentation is enabled, otherwise the wrapped storage is used directly
+ */
+class ProbeCountingStorage implements BoardStorage {
     /**
-     * Method which returns the piece by its position.
+     * the wrapped storage.
+     */
+    private final BoardStorage storage;
+
+    /**
+     * The method wraps the storage.
      *
-     * @param position coordinates of the piece
-     * @return ChessPiece
+     * @param positions storage whose probes are counted
      */
-    public ChessPiece getPiece(PiecePosition position) {
-        return positionsToPieces.get(position.toString());
+    ProbeCountingStorage(BoardStorage positions) {
+        this.storage = positions;
+    }
+
+    @Override
+    public int getSize() {
+        return storage.getSize();
+    }
+
+    @Override
+    public int getOccupant(int x, int y) {
+        Instrumentation.countProbe();
+        return storage.getOccupant(x, y);
+    }
+
+    @Override
+    public int getPieceId(int x, int y) {
+        Instrumentation.countProbe();
+        return storage.getPieceId(x, y);
+    }
+
+    @Override
+    public void put(int x, int y, int pieceId, int colorCode) {
+        storage.put(x, y, pieceId, colorCode);
+    }
+
+    @Override
+    public void remove(int x, int y) {
+        storage.remove(x, y);
+    }
+
+    @Override
+    public int scanRay(int x, int y, int dx, int dy) {
+        int ray = storage.scanRay(x, y, dx, dy);
+        Instrumentation.countRay(ray);
+        return ray;
+    }
+
+    @Override
+    public void prepareScans() {
+        storage.prepareScans();
     }
 }
 
@@ -396,6 +7113,23 @@ class PiecePosition {
  * It is also a parent to Knight, King, Pawn, Bishop, Rook and Queen
  */
 abstract class ChessPiece {
+    /**
+     * the bit of a packed move which is set for captures, lower bits keep the code of the piece type.
+     */
+    static final int MOVE_CAPTURE_FLAG = 1 << 3;
+    /**
+     * the number of low bits of a packed move before the target square.
+     */
+    static final int MOVE_SQUARE_SHIFT = 4;
+    /**
+     * the biggest number of squares of a board whose moves can be packed, so that packed moves stay positive ints.
+     * Boards up to 11585 squares wide fit, so legal counts, the attack graph and perft work on them.
+     */
+    static final long MAX_MOVE_SQUARES = 1L << (Integer.SIZE - 1 - MOVE_SQUARE_SHIFT);
+    /**
+     * the biggest number of moves of a knight, a king or a pawn.
+     */
+    static final int MAX_NEAR_MOVES = 8;
     /**
      * field with position of a chess piece.
      */
@@ -434,23 +7168,205 @@ abstract class ChessPiece {
         return this.color;
     }
 
+    /**
+     * The method changes field "position" when the piece is moved on the board.
+     *
+     * @param piecePosition new position of the piece
+     */
+    void setPosition(PiecePosition piecePosition) {
+        this.position = piecePosition;
+    }
+
+    /**
+     * Abstract method which returns the type of the piece, boards keep pieces by their types.
+     *
+     * @return the type of the piece
+     */
+    public abstract PieceType getType();
+
     /**
      * Abstract method for counting the possible number of moves from the current position of a piece.
      *
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
      * @return an integer value, the number of all possible moves from the current position
      */
-    public abstract int getMovesCount(Map<String, ChessPiece> positions, int boardSize);
+    public abstract int getMovesCount(BoardStorage positions, int boardSize);
 
     /**
      * Abstract method for counting the possible number of pieces that can be eaten by the given one.
      *
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
      * @return an integer value, the number of all possible captures from the current position
      */
-    public abstract int getCapturesCount(Map<String, ChessPiece> positions, int boardSize);
+    public abstract int getCapturesCount(BoardStorage positions, int boardSize);
+
+    /**
+     * The method counts possible moves and captures from the current position of a piece at once.
+     * Pieces override it to get both numbers from one traversal of their squares
+     *
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    public long getMovesAndCapturesCount(BoardStorage positions, int boardSize) {
+        return packCounts(getMovesCount(positions, boardSize), getCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * The method packs the number of moves into the high half and the number of captures into the low half of a long.
+     *
+     * @param moves    the number of moves
+     * @param captures the number of captures
+     * @return packed counts, packed counts of several rays can be summed
+     */
+    static long packCounts(int moves, int captures) {
+        return ((long) moves << Integer.SIZE) | captures;
+    }
+
+    /**
+     * The method returns the number of moves from packed counts.
+     *
+     * @param counts packed counts
+     * @return the number of moves
+     */
+    static int unpackMoves(long counts) {
+        return (int) (counts >>> Integer.SIZE);
+    }
+
+    /**
+     * The method returns the number of captures from packed counts.
+     *
+     * @param counts packed counts
+     * @return the number of captures
+     */
+    static int unpackCaptures(long counts) {
+        return (int) counts;
+    }
+
+    /**
+     * The method packs a move into one integer: the target square in the high bits, the capture flag and the code of
+     * the piece type in the low MOVE_SQUARE_SHIFT bits. The square is packed as (x - 1) * boardSize + y - 1,
+     * so moves fit while the board has at most MAX_MOVE_SQUARES squares, see checkPackedMoves. The start square is
+     * not packed, it is the square of the piece which the move belongs to
+     *
+     * @param x         horizontal coordinate of the target square
+     * @param y         vertical coordinate of the target square
+     * @param capture   whether the target square is taken by an enemy piece
+     * @param typeCode  the code of the type of the moving piece
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return packed move
+     */
+    static int packMove(int x, int y, boolean capture, int typeCode, int boardSize) {
+        int square = (x - 1) * boardSize + y - 1;
+        return (square << MOVE_SQUARE_SHIFT) | (capture ? MOVE_CAPTURE_FLAG : 0) | typeCode;
+    }
+
+    /**
+     * The method checks that moves of the board can be packed into ints by packMove.
+     *
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @throws IllegalStateException if the board has more than MAX_MOVE_SQUARES squares
+     */
+    static void checkPackedMoves(int boardSize) {
+        if ((long) boardSize * boardSize > MAX_MOVE_SQUARES) {
+            throw new IllegalStateException("Board is too big for packed moves");
+        }
+    }
+
+    /**
+     * The method returns the biggest number of moves of one piece, it is the number of moves of a queen
+     * in the center of the empty board.
+     *
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return the number of moves which fits into any array for moves of one piece
+     */
+    static int getMaxMovesCount(int boardSize) {
+        return Math.max(4 * (boardSize - 1), 8);
+    }
+
+    /**
+     * The method writes all possible moves of a piece which is given by its type, coordinates and color into the
+     * array as packed moves. It is the one generator of moves: counts of pieces, legal moves, the graph of captures
+     * and perft are all projections of it, and only counts are returned if the array is null
+     *
+     * @param typeCode  the code of the type of the piece
+     * @param x         horizontal coordinate of the piece
+     * @param y         vertical coordinate of the piece
+     * @param colorCode the code of the color of the piece
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @param moves     array for packed moves, nothing is written if it is null
+     * @param offset    index in the array where the first move is written
+     * @return the number of moves and the number of captures packed into one long value
+     * @throws IllegalStateException if moves are written and the board is too big for packed moves
+     */
+    static long generatePieceMoves(int typeCode, int x, int y, int colorCode, BoardStorage positions, int boardSize,
+                                   int[] moves, int offset) {
+        if (moves != null) {
+            checkPackedMoves(boardSize);
+        }
+        switch (PieceType.fromCode(typeCode)) {
+            case KNIGHT:
+                return Knight.generateMoves(x, y, colorCode, positions, boardSize, moves, offset);
+            case KING:
+                return King.generateMoves(x, y, colorCode, positions, boardSize, moves, offset);
+            case PAWN:
+                return Pawn.generateMoves(x, y, colorCode, positions, boardSize, moves, offset);
+            case BISHOP:
+                return BishopMovement.generateDiagonalMoves(x, y, colorCode, typeCode, positions, moves, offset);
+            case ROOK:
+                return RookMovement.generateOrthogonalMoves(x, y, colorCode, typeCode, positions, moves, offset);
+            default:
+                long diagonal = BishopMovement.generateDiagonalMoves(x, y, colorCode, typeCode, positions,
+                        moves, offset);
+                return diagonal + RookMovement.generateOrthogonalMoves(x, y, colorCode, typeCode, positions,
+                        moves, offset + unpackMoves(diagonal));
+        }
+    }
+
+    /**
+     * The method returns horizontal coordinate of the target square of a packed move.
+     *
+     * @param move      packed move
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return horizontal coordinate
+     */
+    static int getMoveX(int move, int boardSize) {
+        return (move >>> MOVE_SQUARE_SHIFT) / boardSize + 1;
+    }
+
+    /**
+     * The method returns vertical coordinate of the target square of a packed move.
+     *
+     * @param move      packed move
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return vertical coordinate
+     */
+    static int getMoveY(int move, int boardSize) {
+        return (move >>> MOVE_SQUARE_SHIFT) % boardSize + 1;
+    }
+
+    /**
+     * The method checks whether a packed move is a capture.
+     *
+     * @param move packed move
+     * @return true if the target square is taken by an enemy piece
+     */
+    static boolean isCapture(int move) {
+        return (move & MOVE_CAPTURE_FLAG) != 0;
+    }
+
+    /**
+     * The method returns the code of the type of the moving piece of a packed move.
+     *
+     * @param move packed move
+     * @return the code of the piece type
+     */
+    static int getMoveTypeCode(int move) {
+        return move & (MOVE_CAPTURE_FLAG - 1);
+    }
 }
 
 /**
@@ -458,6 +7374,15 @@ abstract class ChessPiece {
  * It is a child of ChessPiece
  */
 class Knight extends ChessPiece {
+    /**
+     * horizontal steps of the eight knight jumps.
+     */
+    static final int[] STEPS_X = {-2, -2, -1, -1, 1, 1, 2, 2};
+    /**
+     * vertical steps of the eight knight jumps.
+     */
+    static final int[] STEPS_Y = {-1, 1, -2, 2, -2, 2, -1, 1};
+
     /**
      * Method which inherits position and color fields from ChessPiece, in this case they belong to knight.
      *
@@ -468,67 +7393,106 @@ class Knight extends ChessPiece {
         super(position, color);
     }
 
+    /**
+     * The method returns the type of the knight.
+     *
+     * @return PieceType.KNIGHT
+     */
+    @Override
+    public PieceType getType() {
+        return PieceType.KNIGHT;
+    }
+
     /**
      * The method counts all possible moves by the knight.
-     * It processes all positions on which the knight can step and counts legal ones
+     * It is a projection of the moves which are written by generateMoves
      *
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
      * @return integer value of all possible moves from this position
      */
     @Override
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
-        int countOfSteps = 0;
-        String newPosition1;
-        final int minMove = -2;
-        final int maxMove = 2;
-        for (int i = minMove; i <= maxMove; i++) {
-            for (int j = minMove; j <= maxMove; j++) {
-                if (Math.abs(i) != Math.abs(j) && i != 0 && j != 0) {
-                    if (this.position.getX() + i >= 1 && this.position.getX() + i <= boardSize
-                            && this.position.getY() + j >= 1 && this.position.getY() + j <= boardSize) {
-                        newPosition1 = (this.position.getX() + i) + " " + (this.position.getY() + j);
-                        if (!positions.containsKey(newPosition1)
-                                || positions.get(newPosition1).getColor() != this.color) {
-                            countOfSteps += 1;
-                        }
-                    }
-                }
-            }
-        }
-        return countOfSteps;
+    public int getMovesCount(BoardStorage positions, int boardSize) {
+        return unpackMoves(getMovesAndCapturesCount(positions, boardSize));
     }
 
     /**
      * The method counts all possible captures by the knight.
-     * It processes all possible squares the current knight can step on
-     * And counts the number of all pieces that can be eaten by the knight
+     * It is a projection of the moves with the capture flag which are written by generateMoves
      *
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
      * @return integer value of all possible captures from this position
      */
     @Override
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
+    public int getCapturesCount(BoardStorage positions, int boardSize) {
+        return unpackCaptures(getMovesAndCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * The method counts all possible moves and captures by the knight in one pass over its squares.
+     *
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    @Override
+    public long getMovesAndCapturesCount(BoardStorage positions, int boardSize) {
+        return countMovesAndCaptures(this.position.getX(), this.position.getY(), this.color.getCode(),
+                positions, boardSize);
+    }
+
+    /**
+     * The method counts all possible moves and captures of a knight which is given by its coordinates and color,
+     * so pieces which are kept in a piece table are counted without objects.
+     *
+     * @param x         horizontal coordinate of the knight
+     * @param y         vertical coordinate of the knight
+     * @param colorCode the code of the color of the knight
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    static long countMovesAndCaptures(int x, int y, int colorCode, BoardStorage positions, int boardSize) {
+        return generateMoves(x, y, colorCode, positions, boardSize, null, 0);
+    }
+
+    /**
+     * The method writes all possible moves of a knight which is given by its coordinates and color into the array
+     * as packed moves. Counting is the same pass without the array, so counts always match generated moves
+     *
+     * @param x         horizontal coordinate of the knight
+     * @param y         vertical coordinate of the knight
+     * @param colorCode the code of the color of the knight
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @param moves     array for packed moves, nothing is written if it is null
+     * @param offset    index in the array where the first move is written
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    static long generateMoves(int x, int y, int colorCode, BoardStorage positions, int boardSize,
+                              int[] moves, int offset) {
+        int countOfSteps = 0;
         int countOfCaptures = 0;
-        String newPosition1;
-        final int minMove = -2;
-        final int maxMove = 2;
-        for (int i = minMove; i <= maxMove; i++) {
-            for (int j = minMove; j <= maxMove; j++) {
-                if (Math.abs(i) != Math.abs(j) && i != 0 && j != 0) {
-                    if (this.position.getX() + i >= 1 && this.position.getX() + i <= boardSize
-                            && this.position.getY() + j >= 1 && this.position.getY() + j <= boardSize) {
-                        newPosition1 = (this.position.getX() + i) + " " + (this.position.getY() + j);
-                        if (positions.containsKey(newPosition1)
-                                && positions.get(newPosition1).getColor() != this.color) {
-                            countOfCaptures += 1;
-                        }
+        int occupant;
+        for (int k = 0; k < STEPS_X.length; k++) {
+            int i = STEPS_X[k];
+            int j = STEPS_Y[k];
+            if (x + i >= 1 && x + i <= boardSize && y + j >= 1 && y + j <= boardSize) {
+                occupant = positions.getOccupant(x + i, y + j);
+                if (occupant != colorCode) {
+                    if (moves != null) {
+                        moves[offset + countOfSteps] = packMove(x + i, y + j,
+                                occupant != BoardStorage.EMPTY, PieceType.KNIGHT.getCode(), boardSize);
+                    }
+                    countOfSteps += 1;
+                    if (occupant != BoardStorage.EMPTY) {
+                        countOfCaptures += 1;
                     }
                 }
             }
         }
-        return countOfCaptures;
+        return packCounts(countOfSteps, countOfCaptures);
     }
 }
 
@@ -547,58 +7511,106 @@ class King extends ChessPiece {
         super(position, color);
     }
 
+    /**
+     * The method returns the type of the king.
+     *
+     * @return PieceType.KING
+     */
+    @Override
+    public PieceType getType() {
+        return PieceType.KING;
+    }
+
     /**
      * The method counts all possible moves by the king.
-     * It processes all positions on which the king can step and counts legal ones
+     * It is a projection of the moves which are written by generateMoves
      *
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
      * @return integer value of all possible moves from this position
      */
     @Override
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
-        int countOfSteps = 0;
-        String newPosition1;
-        for (int i = -1; i < 2; i++) {
-            for (int j = -1; j < 2; j++) {
-                if (this.position.getX() + i <= boardSize && this.position.getX() + i >= 1
-                        && this.position.getY() + j <= boardSize && this.position.getY() + j >= 1) {
-                    newPosition1 = (this.position.getX() + i) + " " + (this.position.getY() + j);
-                    if ((!positions.containsKey(newPosition1))
-                            || (positions.get(newPosition1).getColor() != this.color)) {
-                        countOfSteps += 1;
-                    }
-                }
-            }
-        }
-        return countOfSteps;
+    public int getMovesCount(BoardStorage positions, int boardSize) {
+        return unpackMoves(getMovesAndCapturesCount(positions, boardSize));
     }
 
     /**
      * The method counts all possible captures by the king.
-     * It processes all possible squares the current king can step on
-     * And counts the number of all pieces that can be eaten by the king
+     * It is a projection of the moves with the capture flag which are written by generateMoves
      *
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
      * @return integer value of all possible captures from this position
      */
     @Override
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
+    public int getCapturesCount(BoardStorage positions, int boardSize) {
+        return unpackCaptures(getMovesAndCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * The method counts all possible moves and captures by the king in one pass over its squares.
+     *
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    @Override
+    public long getMovesAndCapturesCount(BoardStorage positions, int boardSize) {
+        return countMovesAndCaptures(this.position.getX(), this.position.getY(), this.color.getCode(),
+                positions, boardSize);
+    }
+
+    /**
+     * The method counts all possible moves and captures of a king which is given by its coordinates and color,
+     * so pieces which are kept in a piece table are counted without objects.
+     *
+     * @param x         horizontal coordinate of the king
+     * @param y         vertical coordinate of the king
+     * @param colorCode the code of the color of the king
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    static long countMovesAndCaptures(int x, int y, int colorCode, BoardStorage positions, int boardSize) {
+        return generateMoves(x, y, colorCode, positions, boardSize, null, 0);
+    }
+
+    /**
+     * The method writes all possible moves of a king which is given by its coordinates and color into the array
+     * as packed moves. Counting is the same pass without the array, so counts always match generated moves
+     *
+     * @param x         horizontal coordinate of the king
+     * @param y         vertical coordinate of the king
+     * @param colorCode the code of the color of the king
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @param moves     array for packed moves, nothing is written if it is null
+     * @param offset    index in the array where the first move is written
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    static long generateMoves(int x, int y, int colorCode, BoardStorage positions, int boardSize,
+                              int[] moves, int offset) {
+        int countOfSteps = 0;
         int countOfCaptures = 0;
-        String newPosition1;
+        int occupant;
         for (int i = -1; i < 2; i++) {
             for (int j = -1; j < 2; j++) {
-                if (this.position.getX() + i <= boardSize && this.position.getX() + i >= 1
-                        && this.position.getY() + j <= boardSize && this.position.getY() >= 1) {
-                    newPosition1 = (this.position.getX() + i) + " " + (this.position.getY() + j);
-                    if (positions.containsKey(newPosition1) && (positions.get(newPosition1).getColor() != this.color)) {
-                        countOfCaptures += 1;
+                if (x + i <= boardSize && x + i >= 1 && y + j <= boardSize && y + j >= 1) {
+                    occupant = positions.getOccupant(x + i, y + j);
+                    if (occupant != colorCode) {
+                        if (moves != null) {
+                            moves[offset + countOfSteps] = packMove(x + i, y + j,
+                                    occupant != BoardStorage.EMPTY, PieceType.KING.getCode(), boardSize);
+                        }
+                        countOfSteps += 1;
+                        if (occupant != BoardStorage.EMPTY) {
+                            countOfCaptures += 1;
+                        }
                     }
                 }
             }
         }
-        return countOfCaptures;
+        return packCounts(countOfSteps, countOfCaptures);
     }
 }
 
@@ -617,83 +7629,113 @@ class Pawn extends ChessPiece {
         super(position, color);
     }
 
+    /**
+     * The method returns the type of the pawn.
+     *
+     * @return PieceType.PAWN
+     */
+    @Override
+    public PieceType getType() {
+        return PieceType.PAWN;
+    }
+
     /**
      * The method counts all possible moves by the pawn.
-     * It processes all positions on which the pawn can step and counts legal ones
+     * It is a projection of the moves which are written by generateMoves
+     *
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return integer value of all possible moves from this position
+     */
+    @Override
+    public int getMovesCount(BoardStorage positions, int boardSize) {
+        return unpackMoves(getMovesAndCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * The method counts all possible captures by the pawn.
+     * It is a projection of the moves with the capture flag which are written by generateMoves
+     *
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return integer value of all possible captures from this position
+     */
+    @Override
+    public int getCapturesCount(BoardStorage positions, int boardSize) {
+        return unpackCaptures(getMovesAndCapturesCount(positions, boardSize));
+    }
+
+    /**
+     * The method counts all possible moves and captures by the pawn in one pass over its squares.
+     * Squares of captures are the diagonal moves of the pawn, so every capture is also a move
+     *
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    @Override
+    public long getMovesAndCapturesCount(BoardStorage positions, int boardSize) {
+        return countMovesAndCaptures(this.position.getX(), this.position.getY(), this.color.getCode(),
+                positions, boardSize);
+    }
+
+    /**
+     * The method counts all possible moves and captures of a pawn which is given by its coordinates and color,
+     * so pieces which are kept in a piece table are counted without objects.
      *
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param x         horizontal coordinate of the pawn
+     * @param y         vertical coordinate of the pawn
+     * @param colorCode the code of the color of the pawn
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
-     * @return integer value of all possible moves from this position
+     * @return the number of moves and the number of captures packed into one long value
      */
-    @Override
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
-        int countOfSteps = 0;
-        String newPosition1;
-        int colorForSteps = 0;
-        if (this.color == PieceColor.WHITE) {
-            colorForSteps = 1;
-        } else if (this.color == PieceColor.BLACK) {
-            colorForSteps = -1;
-        }
-        if (this.position.getY() + colorForSteps <= boardSize && this.position.getY() + colorForSteps >= 1) {
-            newPosition1 = (this.position.getX()) + " " + (this.position.getY() + colorForSteps);
-            if (!positions.containsKey(newPosition1)) {
-                countOfSteps += 1;
-            }
-        }
-        if (this.position.getX() - colorForSteps >= 1 && this.position.getX() - colorForSteps <= boardSize
-                && this.position.getY() + colorForSteps <= boardSize && this.position.getY() + colorForSteps >= 1) {
-            newPosition1 = (this.position.getX() - colorForSteps) + " " + (this.position.getY() + colorForSteps);
-            if (positions.containsKey(newPosition1) && positions.get(newPosition1).getColor() != this.color) {
-                countOfSteps += 1;
-            }
-        }
-        if (this.position.getX() + colorForSteps >= 1 && this.position.getX() + colorForSteps <= boardSize
-                && this.position.getY() + colorForSteps >= 1 && this.position.getY() + colorForSteps <= boardSize) {
-            newPosition1 = (this.position.getX() + colorForSteps) + " " + (this.position.getY() + colorForSteps);
-            if (positions.containsKey(newPosition1) && positions.get(newPosition1).getColor() != this.color) {
-                countOfSteps += 1;
-            }
-        }
-        return countOfSteps;
+    static long countMovesAndCaptures(int x, int y, int colorCode, BoardStorage positions, int boardSize) {
+        return generateMoves(x, y, colorCode, positions, boardSize, null, 0);
     }
 
     /**
-     * The method counts all possible captures by the pawn.
-     * It processes all possible squares the current pawn can step on
-     * And counts the number of all pieces that can be eaten by the pawn
+     * The method writes all possible moves of a pawn which is given by its coordinates and color into the array
+     * as packed moves. Counting is the same pass without the array, so counts always match generated moves
      *
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param x         horizontal coordinate of the pawn
+     * @param y         vertical coordinate of the pawn
+     * @param colorCode the code of the color of the pawn
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
-     * @return integer value of all possible captures from this position
+     * @param moves     array for packed moves, nothing is written if it is null
+     * @param offset    index in the array where the first move is written
+     * @return the number of moves and the number of captures packed into one long value
      */
-    @Override
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
+    static long generateMoves(int x, int y, int colorCode, BoardStorage positions, int boardSize,
+                              int[] moves, int offset) {
+        int countOfSteps = 0;
         int countOfCaptures = 0;
-        String newPosition2;
-        int colorForCaptures = 0;
-        if (this.color == PieceColor.WHITE) {
-            colorForCaptures = -1;
-        } else if (this.color == PieceColor.BLACK) {
-            colorForCaptures = 1;
-        }
-        if (this.position.getX() + colorForCaptures >= 1 && this.position.getX() + colorForCaptures <= boardSize
-                && this.position.getY() - colorForCaptures <= boardSize
-                && this.position.getY() - colorForCaptures >= 1) {
-            newPosition2 = (this.position.getX() + colorForCaptures) + " " + (this.position.getY() - colorForCaptures);
-            if (positions.containsKey(newPosition2) && positions.get(newPosition2).getColor() != this.color) {
-                countOfCaptures += 1;
+        int occupant;
+        int colorForSteps = colorCode == PieceColor.WHITE.getCode() ? 1 : -1;
+        if (y + colorForSteps > boardSize || y + colorForSteps < 1) {
+            return packCounts(0, 0);
+        }
+        occupant = positions.getOccupant(x, y + colorForSteps);
+        if (occupant == BoardStorage.EMPTY) {
+            if (moves != null) {
+                moves[offset] = packMove(x, y + colorForSteps, false, PieceType.PAWN.getCode(), boardSize);
             }
+            countOfSteps += 1;
         }
-        if (this.position.getX() - colorForCaptures >= 1 && this.position.getX() - colorForCaptures <= boardSize
-                && this.position.getY() - colorForCaptures <= boardSize
-                && this.position.getY() - colorForCaptures >= 1) {
-            newPosition2 = (this.position.getX() - colorForCaptures) + " " + (this.position.getY() - colorForCaptures);
-            if (positions.containsKey(newPosition2) && positions.get(newPosition2).getColor() != this.color) {
-                countOfCaptures += 1;
+        for (int i = -1; i < 2; i += 2) {
+            if (x + i >= 1 && x + i <= boardSize) {
+                occupant = positions.getOccupant(x + i, y + colorForSteps);
+                if (occupant != BoardStorage.EMPTY && occupant != colorCode) {
+                    if (moves != null) {
+                        moves[offset + countOfSteps + countOfCaptures] = packMove(x + i, y + colorForSteps, true,
+                                PieceType.PAWN.getCode(), boardSize);
+                    }
+                    countOfCaptures += 1;
+                }
             }
         }
-        return countOfCaptures;
+        return packCounts(countOfSteps + countOfCaptures, countOfCaptures);
     }
 }
 
@@ -712,16 +7754,26 @@ class Bishop extends ChessPiece implements BishopMovement {
         super(position, color);
     }
 
+    /**
+     * The method returns the type of the bishop.
+     *
+     * @return PieceType.BISHOP
+     */
+    @Override
+    public PieceType getType() {
+        return PieceType.BISHOP;
+    }
+
     /**
      * The method counts all possible moves by the bishop.
      * It processes all positions on which the bishop can step and counts legal ones
      *
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
      * @return integer value of all possible moves from this position
      */
     @Override
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
+    public int getMovesCount(BoardStorage positions, int boardSize) {
         return getDiagonalMovesCount(this.position, this.color, positions, boardSize);
     }
 
@@ -730,14 +7782,26 @@ class Bishop extends ChessPiece implements BishopMovement {
      * It processes all possible squares the current bishop can step on
      * And counts the number of all pieces that can be eaten by the bishop
      *
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
      * @return integer value of all possible captures from this position
      */
     @Override
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
+    public int getCapturesCount(BoardStorage positions, int boardSize) {
         return getDiagonalCapturesCount(this.position, this.color, positions, boardSize);
     }
+
+    /**
+     * The method counts all possible moves and captures by the bishop, every ray is scanned once.
+     *
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    @Override
+    public long getMovesAndCapturesCount(BoardStorage positions, int boardSize) {
+        return getDiagonalMovesAndCapturesCount(this.position, this.color, positions, boardSize);
+    }
 }
 
 /**
@@ -755,16 +7819,26 @@ class Rook extends ChessPiece implements RookMovement {
         super(position, color);
     }
 
+    /**
+     * The method returns the type of the rook.
+     *
+     * @return PieceType.ROOK
+     */
+    @Override
+    public PieceType getType() {
+        return PieceType.ROOK;
+    }
+
     /**
      * The method counts all possible moves by the rook.
      * It processes all positions on which the rook can step and counts legal ones
      *
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
      * @return integer value of all possible moves from this position
      */
     @Override
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
+    public int getMovesCount(BoardStorage positions, int boardSize) {
         return getOrthogonalMovesCount(this.position, this.color, positions, boardSize);
     }
 
@@ -773,14 +7847,26 @@ class Rook extends ChessPiece implements RookMovement {
      * It processes all possible squares the current rook can step on
      * And counts the number of all pieces that can be eaten by the rook
      *
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
      * @return integer value of all possible captures from this position
      */
     @Override
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
+    public int getCapturesCount(BoardStorage positions, int boardSize) {
         return getOrthogonalCapturesCount(this.position, this.color, positions, boardSize);
     }
+
+    /**
+     * The method counts all possible moves and captures by the rook, every ray is scanned once.
+     *
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    @Override
+    public long getMovesAndCapturesCount(BoardStorage positions, int boardSize) {
+        return getOrthogonalMovesAndCapturesCount(this.position, this.color, positions, boardSize);
+    }
 }
 
 /**
@@ -798,16 +7884,26 @@ class Queen extends ChessPiece implements RookMovement, BishopMovement {
         super(position, color);
     }
 
+    /**
+     * The method returns the type of the queen.
+     *
+     * @return PieceType.QUEEN
+     */
+    @Override
+    public PieceType getType() {
+        return PieceType.QUEEN;
+    }
+
     /**
      * The method counts all possible moves by the queen.
      * It processes all positions on which the queen can step and counts legal ones
      *
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
      * @return integer value of all possible moves from this position
      */
     @Override
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
+    public int getMovesCount(BoardStorage positions, int boardSize) {
         return getDiagonalMovesCount(this.position, this.color, positions, boardSize)
                 + getOrthogonalMovesCount(this.position, this.color, positions, boardSize);
     }
@@ -817,184 +7913,129 @@ class Queen extends ChessPiece implements RookMovement, BishopMovement {
      * It processes all possible squares the current queen can step on
      * And counts the number of all pieces that can be eaten by the queen
      *
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
      * @return integer value of all possible captures from this position
      */
     @Override
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
+    public int getCapturesCount(BoardStorage positions, int boardSize) {
         return getDiagonalCapturesCount(this.position, this.color, positions, boardSize)
                 + getOrthogonalCapturesCount(this.position, this.color, positions, boardSize);
     }
+
+    /**
+     * The method counts all possible moves and captures by the queen, every ray is scanned once.
+     *
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    @Override
+    public long getMovesAndCapturesCount(BoardStorage positions, int boardSize) {
+        return getDiagonalMovesAndCapturesCount(this.position, this.color, positions, boardSize)
+                + getOrthogonalMovesAndCapturesCount(this.position, this.color, positions, boardSize);
+    }
 }
 
 /**
  * Interface which counts potential diagonal moves and captures from the piece position.
  */
 interface BishopMovement {
+    /**
+     * horizontal steps of the four diagonal directions.
+     */
+    int[] DIAGONAL_STEPS_X = {-1, -1, 1, 1};
+    /**
+     * vertical steps of the four diagonal directions.
+     */
+    int[] DIAGONAL_STEPS_Y = {-1, 1, 1, -1};
+
     /**
      * The method counts all possible moves by the piece diagonally.
-     * It processes all positions on which the piece can step and counts legal ones
+     * It scans every diagonal ray up to the nearest piece and counts free squares and the enemy piece if any
      *
      * @param position  the coordinates of the current piece
      * @param color     the color of the current piece
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
      * @return integer value of all possible moves from this position
      */
     default int getDiagonalMovesCount(PiecePosition position, PieceColor color,
-                                      Map<String, ChessPiece> positions, int boardSize) {
-        int countOfSteps = 0;
-        int limit1 = Math.min(boardSize - position.getX(), boardSize - position.getY());
-        int limit2 = Math.min(boardSize - position.getX(), position.getY() - 1);
-        int limit3 = Math.min(position.getX() - 1, position.getY() - 1);
-        int limit4 = Math.min(boardSize - position.getY(), position.getX() - 1);
-        int limitOfSteps = Math.max(limit1, limit2);
-        limitOfSteps = Math.max(limitOfSteps, limit3);
-        limitOfSteps = Math.max(limitOfSteps, limit4);
-        boolean flag1 = false;
-        boolean flag2 = false;
-        boolean flag3 = false;
-        boolean flag4 = false;
-
-        String newPosition1;
-        for (int i = 1; i <= limitOfSteps; i++) {
-            if (!flag1 && position.getX() - i >= 1 && position.getY() - i >= 1) {
-                newPosition1 = (position.getX() - i) + " " + (position.getY() - i);
-                if (positions.containsKey(newPosition1)) {
-                    if (positions.get(newPosition1).getColor() != color) {
-                        countOfSteps += 1;
-                    }
-                    flag1 = true;
-                } else {
-                    countOfSteps += 1;
-                }
-            } else {
-                flag1 = true;
-            }
-
-            if (!flag2 && position.getX() - i >= 1 && position.getY() + i <= boardSize) {
-                newPosition1 = (position.getX() - i) + " " + (position.getY() + i);
-                if (positions.containsKey(newPosition1)) {
-                    if (positions.get(newPosition1).getColor() != color) {
-                        countOfSteps += 1;
-                    }
-                    flag2 = true;
-                } else {
-                    countOfSteps += 1;
-                }
-            } else {
-                flag2 = true;
-            }
-
-            if (!flag3 && position.getX() + i <= boardSize && position.getY() + i <= boardSize) {
-                newPosition1 = (position.getX() + i) + " " + (position.getY() + i);
-                if (positions.containsKey(newPosition1)) {
-                    if (positions.get(newPosition1).getColor() != color) {
-                        countOfSteps += 1;
-                    }
-                    flag3 = true;
-                } else {
-                    countOfSteps += 1;
-                }
-            } else {
-                flag3 = true;
-            }
-
-            if (!flag4 && position.getX() + i <= boardSize && position.getY() - i >= 1) {
-                newPosition1 = (position.getX() + i) + " " + (position.getY() - i);
-                if (positions.containsKey(newPosition1)) {
-                    if (positions.get(newPosition1).getColor() != color) {
-                        countOfSteps += 1;
-                    }
-                    flag4 = true;
-                } else {
-                    countOfSteps += 1;
-                }
-            } else {
-                flag4 = true;
-            }
-        }
-        return countOfSteps;
+                                      BoardStorage positions, int boardSize) {
+        return ChessPiece.unpackMoves(getDiagonalMovesAndCapturesCount(position, color, positions, boardSize));
     }
 
     /**
      * The method counts all possible captures by moving diagonally.
-     * It processes all possible squares the current piece can step on
+     * It scans every diagonal ray up to the nearest piece
      * And counts the number of all pieces that can be eaten by the piece
      *
      * @param position  the coordinates of the current piece
      * @param color     the color of the current piece
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
      * @return integer value of all possible captures from this position
      */
     default int getDiagonalCapturesCount(PiecePosition position, PieceColor color,
-                                         Map<String, ChessPiece> positions, int boardSize) {
-        int countOfCaptures = 0;
-        int limit1 = Math.min(boardSize - position.getX(), boardSize - position.getY());
-        int limit2 = Math.min(boardSize - position.getX(), position.getY() - 1);
-        int limit3 = Math.min(position.getX() - 1, position.getY() - 1);
-        int limit4 = Math.min(boardSize - position.getY(), position.getX() - 1);
-        int limitOfSteps = Math.max(limit1, limit2);
-        limitOfSteps = Math.max(limitOfSteps, limit3);
-        limitOfSteps = Math.max(limitOfSteps, limit4);
-        boolean flag1 = false;
-        boolean flag2 = false;
-        boolean flag3 = false;
-        boolean flag4 = false;
-
-        String newPosition1;
-        for (int i = 1; i <= limitOfSteps; i++) {
-            if (!flag1 && position.getX() - i >= 1 && position.getY() - i >= 1) {
-                newPosition1 = (position.getX() - i) + " " + (position.getY() - i);
-                if (positions.containsKey(newPosition1)) {
-                    if (positions.get(newPosition1).getColor() != color) {
-                        countOfCaptures += 1;
-                    }
-                    flag1 = true;
-                }
-            } else {
-                flag1 = true;
-            }
+                                         BoardStorage positions, int boardSize) {
+        return ChessPiece.unpackCaptures(getDiagonalMovesAndCapturesCount(position, color, positions, boardSize));
+    }
 
-            if (!flag2 && position.getX() - i >= 1 && position.getY() + i <= boardSize) {
-                newPosition1 = (position.getX() - i) + " " + (position.getY() + i);
-                if (positions.containsKey(newPosition1)) {
-                    if (positions.get(newPosition1).getColor() != color) {
-                        countOfCaptures += 1;
-                    }
-                    flag2 = true;
-                }
-            } else {
-                flag2 = true;
-            }
+    /**
+     * The method counts all possible moves and captures by moving diagonally, every ray is scanned once.
+     *
+     * @param position  the coordinates of the current piece
+     * @param color     the color of the current piece
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    default long getDiagonalMovesAndCapturesCount(PiecePosition position, PieceColor color,
+                                                  BoardStorage positions, int boardSize) {
+        return countDiagonalMovesAndCaptures(position.getX(), position.getY(), color.getCode(), positions);
+    }
 
-            if (!flag3 && position.getX() + i <= boardSize && position.getY() + i <= boardSize) {
-                newPosition1 = (position.getX() + i) + " " + (position.getY() + i);
-                if (positions.containsKey(newPosition1)) {
-                    if (positions.get(newPosition1).getColor() != color) {
-                        countOfCaptures += 1;
-                    }
-                    flag3 = true;
-                }
-            } else {
-                flag3 = true;
-            }
+    /**
+     * The method counts all possible moves and captures by moving diagonally from the square, for pieces which
+     * are given by their coordinates and color only.
+     *
+     * @param x         horizontal coordinate of the current piece
+     * @param y         vertical coordinate of the current piece
+     * @param colorCode the code of the color of the current piece
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    static long countDiagonalMovesAndCaptures(int x, int y, int colorCode, BoardStorage positions) {
+        return generateDiagonalMoves(x, y, colorCode, PieceType.BISHOP.getCode(), positions, null, 0);
+    }
 
-            if (!flag4 && position.getX() + i <= boardSize && position.getY() - i >= 1) {
-                newPosition1 = (position.getX() + i) + " " + (position.getY() - i);
-                if (positions.containsKey(newPosition1)) {
-                    if (positions.get(newPosition1).getColor() != color) {
-                        countOfCaptures += 1;
-                    }
-                    flag4 = true;
-                }
-            } else {
-                flag4 = true;
+    /**
+     * The method writes all possible moves by moving diagonally from the square into the array as packed moves.
+     * Counting is the same pass without the array, which only sums lengths of scanned rays
+     *
+     * @param x         horizontal coordinate of the current piece
+     * @param y         vertical coordinate of the current piece
+     * @param colorCode the code of the color of the current piece
+     * @param typeCode  the code of the type of the current piece
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param moves     array for packed moves, nothing is written if it is null
+     * @param offset    index in the array where the first move is written
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    static long generateDiagonalMoves(int x, int y, int colorCode, int typeCode, BoardStorage positions,
+                                      int[] moves, int offset) {
+        int countOfSteps = 0;
+        int countOfCaptures = 0;
+        for (int i = 0; i < DIAGONAL_STEPS_X.length; i++) {
+            int ray = positions.scanRay(x, y, DIAGONAL_STEPS_X[i], DIAGONAL_STEPS_Y[i]);
+            if (moves != null) {
+                BoardStorage.writeRayMoves(ray, x, y, DIAGONAL_STEPS_X[i], DIAGONAL_STEPS_Y[i], colorCode, typeCode,
+                        positions.getSize(), moves, offset + countOfSteps);
             }
+            countOfSteps += BoardStorage.getRayMovesCount(ray, colorCode);
+            countOfCaptures += BoardStorage.getRayCapturesCount(ray, colorCode);
         }
-        return countOfCaptures;
+        return ChessPiece.packCounts(countOfSteps, countOfCaptures);
     }
 }
 
@@ -1002,155 +8043,102 @@ interface BishopMovement {
  * Interface which counts potential orthogonal (up, down, left, right) moves and captures from the piece position.
  */
 interface RookMovement {
+    /**
+     * horizontal steps of the four orthogonal directions.
+     */
+    int[] ORTHOGONAL_STEPS_X = {0, 0, 1, -1};
+    /**
+     * vertical steps of the four orthogonal directions.
+     */
+    int[] ORTHOGONAL_STEPS_Y = {1, -1, 0, 0};
+
     /**
      * The method counts all possible moves up, down, left and right.
-     * It processes all orthogonal positions on which a piece can step and counts legal ones
+     * It scans every orthogonal ray up to the nearest piece and counts free squares and the enemy piece if any
      *
      * @param position  the coordinates of the current piece
      * @param color     the color of the current piece
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
      * @return integer value of all possible moves from this position
      */
     default int getOrthogonalMovesCount(PiecePosition position, PieceColor color,
-                                        Map<String, ChessPiece> positions, int boardSize) {
-        int sizeOfSteps = 0;
-        String newPosition1;
-        int limit = Math.max(position.getX() - 1, position.getY() - 1);
-        limit = Math.max(limit, boardSize - position.getX());
-        limit = Math.max(limit, boardSize - position.getY());
-        boolean flag1 = false;
-        boolean flag2 = false;
-        boolean flag3 = false;
-        boolean flag4 = false;
-
-        for (int i = 1; i <= limit; i++) {
-            if (!flag1 && (position.getY() + i <= boardSize)) {
-                newPosition1 = (position.getX()) + " " + (position.getY() + i);
-                if (positions.containsKey(newPosition1)) {
-                    if (positions.get(newPosition1).getColor() != color) {
-                        sizeOfSteps += 1;
-                    }
-                    flag1 = true;
-                } else {
-                    sizeOfSteps += 1;
-                }
-            } else {
-                flag1 = true;
-            }
-            if (!flag2 && (position.getY() - i >= 1)) {
-                newPosition1 = (position.getX()) + " " + (position.getY() - i);
-                if (positions.containsKey(newPosition1)) {
-                    if (positions.get(newPosition1).getColor() != color) {
-                        sizeOfSteps += 1;
-                    }
-                    flag2 = true;
-                } else {
-                    sizeOfSteps += 1;
-                }
-            } else {
-                flag2 = true;
-            }
-            if (!flag3 && (position.getX() + i <= boardSize)) {
-                newPosition1 = (position.getX() + i) + " " + (position.getY());
-                if (positions.containsKey(newPosition1)) {
-                    if (positions.get(newPosition1).getColor() != color) {
-                        sizeOfSteps += 1;
-                    }
-                    flag3 = true;
-                } else {
-                    sizeOfSteps += 1;
-                }
-            } else {
-                flag3 = true;
-            }
-            if (!flag4 && (position.getX() - i >= 1)) {
-                newPosition1 = (position.getX() - i) + " " + (position.getY());
-                if (positions.containsKey(newPosition1)) {
-                    if (positions.get(newPosition1).getColor() != color) {
-                        sizeOfSteps += 1;
-                    }
-                    flag4 = true;
-                } else {
-                    sizeOfSteps += 1;
-                }
-            } else {
-                flag4 = true;
-            }
-        }
-        return sizeOfSteps;
+                                        BoardStorage positions, int boardSize) {
+        return ChessPiece.unpackMoves(getOrthogonalMovesAndCapturesCount(position, color, positions, boardSize));
     }
 
     /**
      * The method counts all possible captures by moving up, down, left and right.
-     * It processes all possible squares the current piece can step on orthogonally
+     * It scans every orthogonal ray up to the nearest piece
      * And counts the number of all pieces that can be eaten by the piece
      *
      * @param position  the coordinates of the current piece
      * @param color     the color of the current piece
-     * @param positions map with taken board positions in string representation as key and ChessPiece as value
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
      * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
      * @return integer value of all possible captures from this position
      */
     default int getOrthogonalCapturesCount(PiecePosition position, PieceColor color,
-                                           Map<String, ChessPiece> positions, int boardSize) {
-        int sizeOfCaptures = 0;
-        String newPosition1;
-        int limit = Math.max(position.getX() - 1, position.getY() - 1);
-        limit = Math.max(limit, boardSize - position.getX());
-        limit = Math.max(limit, boardSize - position.getY());
-        boolean flag1 = false;
-        boolean flag2 = false;
-        boolean flag3 = false;
-        boolean flag4 = false;
-
-        for (int i = 1; i <= limit; i++) {
-            if (!flag1 && (position.getY() + i <= boardSize)) {
-                newPosition1 = (position.getX()) + " " + (position.getY() + i);
-                if (positions.containsKey(newPosition1)) {
-                    if (positions.get(newPosition1).getColor() != color) {
-                        sizeOfCaptures += 1;
-                    }
-                    flag1 = true;
-                }
-            } else {
-                flag1 = true;
-            }
-            if (!flag2 && (position.getY() - i >= 1)) {
-                newPosition1 = (position.getX()) + " " + (position.getY() - i);
-                if (positions.containsKey(newPosition1)) {
-                    if (positions.get(newPosition1).getColor() != color) {
-                        sizeOfCaptures += 1;
-                    }
-                    flag2 = true;
-                }
-            } else {
-                flag2 = true;
-            }
-            if (!flag3 && (position.getX() + i <= boardSize)) {
-                newPosition1 = (position.getX() + i) + " " + (position.getY());
-                if (positions.containsKey(newPosition1)) {
-                    if (positions.get(newPosition1).getColor() != color) {
-                        sizeOfCaptures += 1;
-                    }
-                    flag3 = true;
-                }
-            } else {
-                flag3 = true;
-            }
-            if (!flag4 && (position.getX() - i >= 1)) {
-                newPosition1 = (position.getX() - i) + " " + (position.getY());
-                if (positions.containsKey(newPosition1)) {
-                    if (positions.get(newPosition1).getColor() != color) {
-                        sizeOfCaptures += 1;
-                    }
-                    flag4 = true;
-                }
-            } else {
-                flag4 = true;
+                                           BoardStorage positions, int boardSize) {
+        return ChessPiece.unpackCaptures(getOrthogonalMovesAndCapturesCount(position, color, positions, boardSize));
+    }
+
+    /**
+     * The method counts all possible moves and captures by moving up, down, left and right, every ray is scanned once.
+     *
+     * @param position  the coordinates of the current piece
+     * @param color     the color of the current piece
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param boardSize chess board size,which is represented as the number of squares vertically and horizontally
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    default long getOrthogonalMovesAndCapturesCount(PiecePosition position, PieceColor color,
+                                                    BoardStorage positions, int boardSize) {
+        return countOrthogonalMovesAndCaptures(position.getX(), position.getY(), color.getCode(), positions);
+    }
+
+    /**
+     * The method counts all possible moves and captures by moving up, down, left and right from the square,
+     * for pieces which are given by their coordinates and color only.
+     *
+     * @param x         horizontal coordinate of the current piece
+     * @param y         vertical coordinate of the current piece
+     * @param colorCode the code of the color of the current piece
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    static long countOrthogonalMovesAndCaptures(int x, int y, int colorCode, BoardStorage positions) {
+        return generateOrthogonalMoves(x, y, colorCode, PieceType.ROOK.getCode(), positions, null, 0);
+    }
+
+    /**
+     * The method writes all possible moves by moving up, down, left and right from the square into the array
+     * as packed moves.
+     * Counting is the same pass without the array, which only sums lengths of scanned rays
+     *
+     * @param x         horizontal coordinate of the current piece
+     * @param y         vertical coordinate of the current piece
+     * @param colorCode the code of the color of the current piece
+     * @param typeCode  the code of the type of the current piece
+     * @param positions storage with taken board squares, which returns the color code of a piece on a square
+     * @param moves     array for packed moves, nothing is written if it is null
+     * @param offset    index in the array where the first move is written
+     * @return the number of moves and the number of captures packed into one long value
+     */
+    static long generateOrthogonalMoves(int x, int y, int colorCode, int typeCode, BoardStorage positions,
+                                        int[] moves, int offset) {
+        int countOfSteps = 0;
+        int countOfCaptures = 0;
+        for (int i = 0; i < ORTHOGONAL_STEPS_X.length; i++) {
+            int ray = positions.scanRay(x, y, ORTHOGONAL_STEPS_X[i], ORTHOGONAL_STEPS_Y[i]);
+            if (moves != null) {
+                BoardStorage.writeRayMoves(ray, x, y, ORTHOGONAL_STEPS_X[i], ORTHOGONAL_STEPS_Y[i], colorCode, typeCode,
+                        positions.getSize(), moves, offset + countOfSteps);
             }
+            countOfSteps += BoardStorage.getRayMovesCount(ray, colorCode);
+            countOfCaptures += BoardStorage.getRayCapturesCount(ray, colorCode);
         }
-        return sizeOfCaptures;
+        return ChessPiece.packCounts(countOfSteps, countOfCaptures);
     }
 }
 
@@ -1167,6 +8155,25 @@ enum PieceColor {
      */
     BLACK;
 
+    /**
+     * The method returns the code which marks squares taken by pieces of this color in board storages.
+     *
+     * @return 1 for white pieces and 2 for black ones, it never equals BoardStorage.EMPTY
+     */
+    public int getCode() {
+        return ordinal() + 1;
+    }
+
+    /**
+     * The method returns the color by its code.
+     *
+     * @param code the code of the color, see getCode()
+     * @return WHITE for 1 and BLACK for 2
+     */
+    public static PieceColor fromCode(int code) {
+        return code == WHITE.getCode() ? WHITE : BLACK;
+    }
+
     /**
      * In "parse" we get a string with the color of the given chess piece and switch it on PieceColor enum.
      * If the color is neither BLACK, nor WHITE, then we return an exception
@@ -1186,3 +8193,103 @@ enum PieceColor {
         }
     }
 }
+
+/**
+ * PieceType enum contains types of chess pieces, boards keep the code of the type instead of a piece object.
+ */
+enum PieceType {
+    /**
+     * KNIGHT means that the given chess piece is a knight.
+     */
+    KNIGHT,
+    /**
+     * KING means that the given chess piece is a king.
+     */
+    KING,
+    /**
+     * PAWN means that the given chess piece is a pawn.
+     */
+    PAWN,
+    /**
+     * BISHOP means that the given chess piece is a bishop.
+     */
+    BISHOP,
+    /**
+     * ROOK means that the given chess piece is a rook.
+     */
+    ROOK,
+    /**
+     * QUEEN means that the given chess piece is a queen.
+     */
+    QUEEN;
+
+    /**
+     * the number of types.
+     */
+    static final int COUNT = 6;
+    /**
+     * all types by their codes, values() creates a new array on every call.
+     */
+    private static final PieceType[] TYPES = values();
+
+    /**
+     * The method returns the code which is kept for pieces of this type in piece tables.
+     *
+     * @return the code of the type, from 0 to COUNT - 1
+     */
+    public int getCode() {
+        return ordinal();
+    }
+
+    /**
+     * The method returns the type by its code.
+     *
+     * @param code the code of the type, from 0 to COUNT - 1
+     * @return the type with this code
+     */
+    public static PieceType fromCode(int code) {
+        return TYPES[code];
+    }
+
+    /**
+     * The method checks whether pieces of this type slide along diagonals.
+     *
+     * @return true for bishops and queens
+     */
+    public boolean slidesDiagonally() {
+        return this == BISHOP || this == QUEEN;
+    }
+
+    /**
+     * The method checks whether pieces of this type slide along ranks and files.
+     *
+     * @return true for rooks and queens
+     */
+    public boolean slidesOrthogonally() {
+        return this == ROOK || this == QUEEN;
+    }
+
+    /**
+     * The method creates the piece object of this type.
+     *
+     * @param position the coordinates of the piece
+     * @param color    the color of the piece
+     * @return new chess piece
+     */
+    public ChessPiece createPiece(PiecePosition position, PieceColor color) {
+        switch (this) {
+            case KNIGHT:
+                return new Knight(position, color);
+            case KING:
+                return new King(position, color);
+            case PAWN:
+                return new Pawn(position, color);
+            case BISHOP:
+                return new Bishop(position, color);
+            case ROOK:
+                return new Rook(position, color);
+            default:
+                return new Queen(position, color);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package chess;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Class which generates random boards for benchmarks.
+ * The number of pieces is given as "2" for two pieces or as "N%" for N percent of all squares
+ */
+final class BoardGenerator {
+    /**
+     * names of pieces as they are written in the input.
+     */
+    static final String[] NAMES = {"Knight", "King", "Pawn", "Bishop", "Rook", "Queen"};
+    /**
+     * seed of the random generator, so that every run of a benchmark gets the same board.
+     */
+    static final long SEED = 20240229L;
+
+    /**
+     * Benchmarks use only static methods of the class.
+     */
+    private BoardGenerator() {
+    }
+
+    /**
+     * The method turns the description of the number of pieces into the number itself.
+     *
+     * @param pieces    "2" or "N%"
+     * @param boardSize the number of squares on the board horizontally or vertically
+     * @return the number of pieces, at least two
+     */
+    static int parseCount(String pieces, int boardSize) {
+        long squares = (long) boardSize * boardSize;
+        if (pieces.endsWith("%")) {
+            long percent = Long.parseLong(pieces.substring(0, pieces.length() - 1));
+            return (int) Math.max(2, squares * percent / 100);
+        }
+        return (int) Math.min(squares, Long.parseLong(pieces));
+    }
+
+    /**
+     * The method returns distinct random squares of the board, packed as (x - 1) * boardSize + (y - 1).
+     *
+     * @param boardSize the number of squares on the board horizontally or vertically
+     * @param count     the number of squares
+     * @param random    the random generator
+     * @return array of packed squares
+     */
+    static int[] randomSquares(int boardSize, int count, Random random) {
+        int[] squares = new int[boardSize * boardSize];
+        for (int i = 0; i < squares.length; i++) {
+            squares[i] = i;
+        }
+        for (int i = 0; i < count; i++) {
+            int j = i + random.nextInt(squares.length - i);
+            int square = squares[i];
+            squares[i] = squares[j];
+            squares[j] = square;
+        }
+        int[] result = new int[count];
+        System.arraycopy(squares, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * The method creates a piece by its name.
+     *
+     * @param name     name of the piece
+     * @param position coordinates of the piece
+     * @param color    color of the piece
+     * @return new piece
+     */
+    static ChessPiece createPiece(String name, PiecePosition position, PieceColor color) {
+        switch (name) {
+            case "Knight":
+                return new Knight(position, color);
+            case "King":
+                return new King(position, color);
+            case "Pawn":
+                return new Pawn(position, color);
+            case "Bishop":
+                return new Bishop(position, color);
+            case "Rook":
+                return new Rook(position, color);
+            case "Queen":
+                return new Queen(position, color);
+            default:
+                throw new IllegalArgumentException("Unknown piece: " + name);
+        }
+    }
+
+    /**
+     * The method creates a board with random pieces, the first piece has the given type.
+     *
+     * @param boardSize the number of squares on the board horizontally or vertically
+     * @param pieces    "2" or "N%"
+     * @param firstName name of the first piece
+     * @param engine    the engine which scans rays of bishops, rooks and queens
+     * @return new board
+     * @throws InvalidPiecePositionException never, as all squares are distinct
+     */
+    static Board createBoard(int boardSize, String pieces, String firstName, SlidingEngine engine)
+            throws InvalidPiecePositionException {
+        Random random = new Random(SEED);
+        int count = parseCount(pieces, boardSize);
+        int[] squares = randomSquares(boardSize, count, random);
+        Board board = new Board(boardSize, count, engine);
+        for (int i = 0; i < count; i++) {
+            String name = i == 0 ? firstName : NAMES[random.nextInt(NAMES.length)];
+            PieceColor color = random.nextBoolean() ? PieceColor.WHITE : PieceColor.BLACK;
+            PiecePosition position = new PiecePosition(squares[i] / boardSize + 1, squares[i] % boardSize + 1);
+            board.addPiece(createPiece(name, position, color));
+        }
+        return board;
+    }
+
+    /**
+     * The method creates a valid input in the format of input.txt: one king of every color and random other pieces.
+     *
+     * @param boardSize the number of squares on the board horizontally or vertically
+     * @param pieces    "2" or "N%"
+     * @return bytes of the input
+     */
+    static byte[] createInput(int boardSize, String pieces) {
+        Random random = new Random(SEED);
+        int count = parseCount(pieces, boardSize);
+        int[] squares = randomSquares(boardSize, count, random);
+        StringBuilder input = new StringBuilder(count * 20);
+        input.append(boardSize).append('\n').append(count).append('\n');
+        for (int i = 0; i < count; i++) {
+            String name = i < 2 ? "King" : NAMES[random.nextInt(NAMES.length)];
+            if (i >= 2 && name.equals("King")) {
+                name = "Queen";
+            }
+            String color = i == 0 ? "White" : i == 1 ? "Black" : random.nextBoolean() ? "White" : "Black";
+            input.append(name).append(' ').append(color).append(' ')
+                    .append(squares[i] / boardSize + 1).append(' ').append(squares[i] % boardSize + 1).append('\n');
+        }
+        return input.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
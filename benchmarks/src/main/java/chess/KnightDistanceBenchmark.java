@@ -0,0 +1,69 @@
+package chess;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of distances of knight jumps from the first piece of a random board, which is a knight.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KnightDistanceBenchmark {
+    /**
+     * the number of squares on the board horizontally or vertically.
+     */
+    @Param({"100", "1000"})
+    private int boardSize;
+    /**
+     * the number of pieces on the board, "2" or a percent of all squares.
+     */
+    @Param({"2", "10%", "50%"})
+    private String pieces;
+
+    /**
+     * the board with pieces.
+     */
+    private Board board;
+    /**
+     * coordinates of the knight.
+     */
+    private PiecePosition knight;
+
+    /**
+     * The method generates the board.
+     *
+     * @throws InvalidPiecePositionException never, as all squares are distinct
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidPiecePositionException {
+        board = BoardGenerator.createBoard(boardSize, pieces, "Knight", SlidingEngine.BITBOARD);
+        knight = board.getPiece(0).getPosition();
+    }
+
+    /**
+     * Benchmark of Board.getKnightDistances.
+     *
+     * @return distances by squares
+     * @throws InvalidPiecePositionException never, as the square has a knight
+     */
+    @Benchmark
+    public short[] distances() throws InvalidPiecePositionException {
+        return board.getKnightDistances(knight);
+    }
+}
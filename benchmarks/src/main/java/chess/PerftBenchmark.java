@@ -0,0 +1,97 @@
+package chess;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of perft from a random position, white pieces move first.
+ * Every call starts with an empty transposition table, so no call reuses subtrees of the previous one
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PerftBenchmark {
+    /**
+     * the binary logarithm of the number of entries of the transposition table.
+     */
+    private static final int TABLE_BITS = 18;
+
+    /**
+     * the number of squares on the board horizontally or vertically.
+     */
+    @Param({"8", "16"})
+    private int boardSize;
+    /**
+     * the number of pieces on the board, "2" or a percent of all squares.
+     */
+    @Param({"10%", "25%"})
+    private String pieces;
+    /**
+     * the number of moves to the leaves.
+     */
+    @Param({"3", "4"})
+    private int depth;
+    /**
+     * the number of threads which search subtrees of the root.
+     */
+    @Param({"1", "4"})
+    private int threads;
+    /**
+     * the engine which scans rays of bishops, rooks and queens.
+     */
+    @Param({"ray-walk", "bitboard"})
+    private String engine;
+
+    /**
+     * the board with pieces.
+     */
+    private Board board;
+    /**
+     * the search with an empty transposition table.
+     */
+    private Perft perft;
+
+    /**
+     * The method generates the board.
+     *
+     * @throws InvalidPiecePositionException never, as all squares are distinct
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidPiecePositionException {
+        board = BoardGenerator.createBoard(boardSize, pieces, "King", SlidingEngine.parse(engine));
+    }
+
+    /**
+     * The method creates the search with an empty transposition table before every call.
+     */
+    @Setup(Level.Invocation)
+    public void createSearch() {
+        perft = new Perft(TABLE_BITS);
+    }
+
+    /**
+     * Benchmark of Perft.count.
+     *
+     * @return the number of leaves
+     * @throws Exception if a thread fails
+     */
+    @Benchmark
+    public long count() throws Exception {
+        return perft.count(board, PieceColor.WHITE, depth, threads);
+    }
+}
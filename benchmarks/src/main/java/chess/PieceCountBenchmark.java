@@ -0,0 +1,160 @@
+package chess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of counting moves and captures of one piece of the given type.
+ * Every call takes the next piece of that type from the board, so the score is the time per piece
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PieceCountBenchmark {
+    /**
+     * the biggest number of pieces which are measured in turn.
+     */
+    private static final int MAX_TARGETS = 1024;
+
+    /**
+     * type of measured pieces.
+     */
+    @Param({"Knight", "King", "Pawn", "Bishop", "Rook", "Queen"})
+    private String pieceType;
+    /**
+     * the number of squares on the board horizontally or vertically.
+     */
+    @Param({"8", "100", "1000"})
+    private int boardSize;
+    /**
+     * the number of pieces on the board, "2" or a percent of all squares.
+     */
+    @Param({"2", "1%", "10%", "50%", "100%"})
+    private String pieces;
+    /**
+     * the engine which scans rays of bishops, rooks and queens.
+     */
+    @Param({"ray-walk", "bitboard", "line-index"})
+    private String engine;
+
+    /**
+     * the board with pieces.
+     */
+    private Board board;
+    /**
+     * measured pieces.
+     */
+    private ChessPiece[] targets;
+    /**
+     * ids of measured pieces.
+     */
+    private int[] targetIds;
+    /**
+     * reused array for generated moves.
+     */
+    private int[] moves;
+    /**
+     * index of the next measured piece.
+     */
+    private int next;
+
+    /**
+     * The method generates the board and collects pieces of the measured type.
+     *
+     * @throws InvalidPiecePositionException never, as all squares are distinct
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidPiecePositionException {
+        board = BoardGenerator.createBoard(boardSize, pieces, pieceType, SlidingEngine.parse(engine));
+        List<ChessPiece> found = new ArrayList<>();
+        List<Integer> foundIds = new ArrayList<>();
+        for (int i = 0; i < board.getPiecesCount() && found.size() < MAX_TARGETS; i++) {
+            if (board.getPiece(i).getClass().getSimpleName().equals(pieceType)) {
+                found.add(board.getPiece(i));
+                foundIds.add(i);
+            }
+        }
+        targets = found.toArray(new ChessPiece[0]);
+        targetIds = foundIds.stream().mapToInt(Integer::intValue).toArray();
+        moves = new int[board.getMaxMovesCount()];
+    }
+
+    /**
+     * The method moves to the next measured piece.
+     *
+     * @return index of the piece in targets
+     */
+    private int nextIndex() {
+        next += 1;
+        if (next == targets.length) {
+            next = 0;
+        }
+        return next;
+    }
+
+    /**
+     * The method returns the next measured piece.
+     *
+     * @return piece of the measured type
+     */
+    private ChessPiece nextTarget() {
+        return targets[nextIndex()];
+    }
+
+    /**
+     * Benchmark of Board.getPiecePossibleMovesCount.
+     *
+     * @return the number of moves
+     */
+    @Benchmark
+    public int movesCount() {
+        return board.getPiecePossibleMovesCount(nextTarget());
+    }
+
+    /**
+     * Benchmark of Board.getPiecePossibleCapturesCount.
+     *
+     * @return the number of captures
+     */
+    @Benchmark
+    public int capturesCount() {
+        return board.getPiecePossibleCapturesCount(nextTarget());
+    }
+
+    /**
+     * Benchmark of Board.getPiecePossibleMovesAndCapturesCount.
+     *
+     * @return packed counts
+     */
+    @Benchmark
+    public long movesAndCapturesCount() {
+        return board.getPiecePossibleMovesAndCapturesCount(nextTarget());
+    }
+
+    /**
+     * Benchmark of Board.generateMoves, moves are written into the same array every time.
+     *
+     * @return the number of moves
+     */
+    @Benchmark
+    public int generateMoves() {
+        return board.generateMoves(targetIds[nextIndex()], moves, 0);
+    }
+}
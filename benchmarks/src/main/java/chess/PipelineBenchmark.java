@@ -0,0 +1,75 @@
+package chess;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the whole pipeline of Main for one input: parsing, filling the board, counting and printing.
+ * The input is kept in memory and the output is thrown away, so the file system is not measured
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+    /**
+     * the number of squares on the board horizontally or vertically.
+     */
+    @Param({"8", "100", "1000"})
+    private int boardSize;
+    /**
+     * the number of pieces on the board, "2" or a percent of all squares.
+     */
+    @Param({"2", "1%", "10%", "50%", "100%"})
+    private String pieces;
+    /**
+     * the engine which scans rays of bishops, rooks and queens.
+     */
+    @Param({"ray-walk", "bitboard", "line-index", "line-sort"})
+    private String engine;
+
+    /**
+     * bytes of the input.
+     */
+    private byte[] input;
+    /**
+     * writer which throws the output away.
+     */
+    private PrintWriter output;
+
+    /**
+     * The method generates the input.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        input = BoardGenerator.createInput(boardSize, pieces);
+        output = new PrintWriter(Writer.nullWriter());
+    }
+
+    /**
+     * Benchmark of Main.solve in one thread.
+     *
+     * @return the filled board
+     */
+    @Benchmark
+    public Board solve() {
+        return Main.solve(ByteBuffer.wrap(input), output, SlidingEngine.parse(engine), 1, null);
+    }
+}
@@ -0,0 +1,100 @@
+package chess;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of plies of a replay: the first piece of a random board, which is a queen, steps to an empty
+ * neighbouring square and back while counts of all pieces are tracked.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayBenchmark {
+    /**
+     * the number of squares on the board horizontally or vertically.
+     */
+    @Param({"8", "100", "1000"})
+    private int boardSize;
+    /**
+     * the number of pieces on the board, "2" or a percent of all squares.
+     */
+    @Param({"10%", "50%"})
+    private String pieces;
+    /**
+     * the engine which scans rays of bishops, rooks and queens.
+     */
+    @Param({"ray-walk", "bitboard"})
+    private String engine;
+
+    /**
+     * the board with tracked counts.
+     */
+    private Board board;
+    /**
+     * coordinates of the queen.
+     */
+    private int fromX;
+    private int fromY;
+    /**
+     * coordinates of the empty square next to the queen.
+     */
+    private int toX;
+    private int toY;
+
+    /**
+     * The method generates the board, starts tracking of counts and finds an empty square next to the queen.
+     *
+     * @throws InvalidPiecePositionException never, as all squares are distinct
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidPiecePositionException {
+        board = BoardGenerator.createBoard(boardSize, pieces, "Queen", SlidingEngine.parse(engine));
+        board.trackCounts();
+        fromX = board.getPieceX(0);
+        fromY = board.getPieceY(0);
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                int x = fromX + dx;
+                int y = fromY + dy;
+                if (x >= 1 && x <= boardSize && y >= 1 && y <= boardSize
+                        && board.getPiece(new PiecePosition(x, y)) == null) {
+                    toX = x;
+                    toY = y;
+                }
+            }
+        }
+        if (toX == 0) {
+            throw new IllegalStateException("The queen has no empty neighbouring square");
+        }
+    }
+
+    /**
+     * Benchmark of two plies of Board.movePiece with tracked counts.
+     *
+     * @return the number of pieces whose counts changed during both plies
+     * @throws InvalidPiecePositionException never, as the target squares are empty
+     */
+    @Benchmark
+    public int stepAndBack() throws InvalidPiecePositionException {
+        board.movePiece(fromX, fromY, toX, toY);
+        int changed = board.getChangedPiecesCount();
+        board.movePiece(toX, toY, fromX, fromY);
+        return changed + board.getChangedPiecesCount();
+    }
+}
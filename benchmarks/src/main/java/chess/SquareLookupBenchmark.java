@@ -0,0 +1,118 @@
+package chess;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of one square lookup: the string-keyed map which pieces used to probe against the packed storage.
+ * Run it with "-prof gc" to see the allocation of the string keys
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SquareLookupBenchmark {
+    /**
+     * the number of probed squares, a power of two.
+     */
+    private static final int PROBES = 4096;
+
+    /**
+     * the number of squares on the board horizontally or vertically.
+     */
+    @Param({"8", "100", "1000"})
+    private int boardSize;
+    /**
+     * the number of pieces on the board, "2" or a percent of all squares.
+     */
+    @Param({"2", "10%", "100%"})
+    private String pieces;
+
+    /**
+     * pieces by coordinates in string representation, as Board kept them before.
+     */
+    private Map<String, ChessPiece> positionsToPieces;
+    /**
+     * storage with the same pieces.
+     */
+    private BoardStorage storage;
+    /**
+     * horizontal coordinates of probed squares.
+     */
+    private int[] probeX;
+    /**
+     * vertical coordinates of probed squares.
+     */
+    private int[] probeY;
+    /**
+     * index of the next probe.
+     */
+    private int next;
+
+    /**
+     * The method fills the map and the storage with the same random pieces and chooses probed squares.
+     *
+     * @throws InvalidPiecePositionException never, as all squares are distinct
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidPiecePositionException {
+        Board board = BoardGenerator.createBoard(boardSize, pieces, "Queen", SlidingEngine.RAY_WALK);
+        positionsToPieces = new HashMap<>();
+        storage = BoardStorage.create(boardSize, board.getPiecesCount());
+        for (int i = 0; i < board.getPiecesCount(); i++) {
+            ChessPiece piece = board.getPiece(i);
+            positionsToPieces.put(piece.getPosition().toString(), piece);
+            storage.put(piece.getPosition().getX(), piece.getPosition().getY(), i, piece.getColor().getCode());
+        }
+        Random random = new Random(BoardGenerator.SEED);
+        probeX = new int[PROBES];
+        probeY = new int[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            probeX[i] = 1 + random.nextInt(boardSize);
+            probeY[i] = 1 + random.nextInt(boardSize);
+        }
+    }
+
+    /**
+     * Benchmark of the old probe: a new "x y" string, containsKey and get.
+     *
+     * @return the color code of the piece on the square or 0
+     */
+    @Benchmark
+    public int stringKeyLookup() {
+        next = (next + 1) & (PROBES - 1);
+        String key = probeX[next] + " " + probeY[next];
+        if (positionsToPieces.containsKey(key)) {
+            return positionsToPieces.get(key).getColor().getCode();
+        }
+        return BoardStorage.EMPTY;
+    }
+
+    /**
+     * Benchmark of the probe of the packed storage.
+     *
+     * @return the color code of the piece on the square or 0
+     */
+    @Benchmark
+    public int packedStorageLookup() {
+        next = (next + 1) & (PROBES - 1);
+        return storage.getOccupant(probeX[next], probeY[next]);
+    }
+}
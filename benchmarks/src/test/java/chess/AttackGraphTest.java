@@ -0,0 +1,121 @@
+package chess;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests which write the graph of captures into a file, read it back and compare it with brute-force captures.
+ */
+class AttackGraphTest {
+    /**
+     * Edges of every piece lead to the pieces which it captures by brute force, the counts of the same pass are
+     * brute-force counts, and removed pieces have no edges.
+     *
+     * @param directory temporary directory for graph files
+     * @throws Exception if pieces can not be added or removed or the file can not be written or read
+     */
+    @Test
+    void writesCapturesOfEveryPiece(@TempDir Path directory) throws Exception {
+        RandomBoards.check(13, 300, (random, number, engine) -> {
+            int size = RandomBoards.getSize(random, number, 1, 9, 30);
+            Board board = RandomBoards.create(size, engine, random, 1 + random.nextInt(size * size));
+            if (number % 2 == 0) {
+                board.removePiece(board.getPiece(random.nextInt(board.getPiecesCount())).getPosition());
+            }
+            return board;
+        }, round -> {
+            Board board = round.getBoard();
+            BruteForce expected = round.copyBoard();
+            long[] counts = new long[board.getPiecesCount()];
+            File file = directory.resolve("graph" + round.getNumber() + ".bin").toFile();
+            board.getAttackGraph(counts).write(file);
+            int[][] targets = read(file, board.getPiecesCount());
+            Map<Integer, Integer> ids = new HashMap<>();
+            round.forEachPiece((id, piece) -> ids.put(getSquare(board, piece.getPosition()), id));
+            for (int id = 0; id < board.getPiecesCount(); id++) {
+                ChessPiece piece = board.getPiece(id);
+                if (piece == null) {
+                    round.assertCount(0, counts[id], "removed piece", id);
+                    assertArrayEquals(new int[0], targets[id], round.describe("removed piece", id));
+                    continue;
+                }
+                int x = piece.getPosition().getX();
+                int y = piece.getPosition().getY();
+                round.assertCount(expected.countMoves(x, y), counts[id], BruteForce.getName(piece) + " at " + x, y);
+                int[] captured = new int[board.getPiecesCount()];
+                int capturedCount = 0;
+                for (int i = 1; i <= board.getSize(); i++) {
+                    for (int j = 1; j <= board.getSize(); j++) {
+                        Integer target = ids.get(i * (board.getSize() + 1) + j);
+                        if (target != null && expected.reaches(x, y, i, j)) {
+                            captured[capturedCount++] = target;
+                        }
+                    }
+                }
+                int[] actual = targets[id].clone();
+                Arrays.sort(actual);
+                int[] sorted = Arrays.copyOf(captured, capturedCount);
+                Arrays.sort(sorted);
+                assertArrayEquals(sorted, actual, round.describe("captures of", BruteForce.getName(piece), x, y));
+            }
+        });
+    }
+
+    /**
+     * The method reads the file and splits its targets by pieces.
+     *
+     * @param file        the file which AttackGraph.write has written
+     * @param piecesCount the number of pieces of the board
+     * @return targets of every piece in the order of the file
+     * @throws IOException if the file can not be read or its header does not match the board
+     */
+    private static int[][] read(File file, int piecesCount) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != piecesCount) {
+                throw new IOException("wrong number of pieces in " + file);
+            }
+            int edgesCount = input.readInt();
+            int[] offsets = new int[piecesCount + 1];
+            for (int i = 0; i <= piecesCount; i++) {
+                offsets[i] = input.readInt();
+            }
+            if (offsets[0] != 0 || offsets[piecesCount] != edgesCount) {
+                throw new IOException("wrong offsets in " + file);
+            }
+            int[][] result = new int[piecesCount][];
+            for (int id = 0; id < piecesCount; id++) {
+                result[id] = new int[offsets[id + 1] - offsets[id]];
+                for (int i = 0; i < result[id].length; i++) {
+                    result[id][i] = input.readInt();
+                }
+            }
+            if (input.read() != -1) {
+                throw new IOException("extra bytes in " + file);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The method returns the number of the square for the map of ids.
+     *
+     * @param board    the board
+     * @param position the position on the board
+     * @return x * (size + 1) + y
+     */
+    private static int getSquare(Board board, PiecePosition position) {
+        return position.getX() * (board.getSize() + 1) + position.getY();
+    }
+}
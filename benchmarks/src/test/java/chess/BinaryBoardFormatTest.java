@@ -0,0 +1,114 @@
+package chess;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of binary boards and of reading binary results back as text.
+ */
+class BinaryBoardFormatTest {
+    /**
+     * directory for result files.
+     */
+    @TempDir
+    File directory;
+
+    /**
+     * A binary board is read back with the same pieces in the same order, and converting its text form gives
+     * the same bytes.
+     *
+     * @throws Exception if files can not be written or read
+     */
+    @Test
+    void readsBoardsBack() throws Exception {
+        RandomBoards.check(31, 100, (random, number, engine) -> {
+            int size = RandomBoards.getSize(random, number, 3, 9, 60);
+            return RandomBoards.createWithKings(size, engine, random, random.nextInt(size * size));
+        }, round -> {
+            Board board = round.getBoard();
+            File binary = new File(directory, "board" + round.getNumber() + ".bin");
+            BinaryBoardFormat.writeBoard(board, binary);
+            Board read = BinaryBoardFormat.readBoard(ByteBuffer.wrap(Files.readAllBytes(binary.toPath())),
+                    SlidingEngine.RAY_WALK, null, board.getSize(), board.getPiecesCount());
+            round.assertCount(board.getPiecesCount(), read.getPiecesCount(), "pieces");
+            for (int id = 0; id < board.getPiecesCount(); id++) {
+                assertEquals(board.getPiece(id).getPosition().toString(), read.getPiece(id).getPosition().toString(),
+                        round.describe("square of", id));
+                assertEquals(board.getPiece(id).getType(), read.getPiece(id).getType(), round.describe("type of", id));
+                assertEquals(board.getPiece(id).getColor(), read.getPiece(id).getColor(),
+                        round.describe("color of", id));
+            }
+            File text = new File(directory, "board" + round.getNumber() + ".txt");
+            try (PrintWriter pw = new PrintWriter(text)) {
+                BinaryBoardFormat.writeTextBoard(board, pw);
+            }
+            File converted = new File(directory, "converted" + round.getNumber() + ".bin");
+            BinaryBoardFormat.convert(text, converted, board.getSize(), board.getPiecesCount());
+            assertArrayEquals(Files.readAllBytes(binary.toPath()), Files.readAllBytes(converted.toPath()),
+                    round.describe("converted text"));
+        });
+    }
+
+    /**
+     * Counts and error messages are printed as in output.txt.
+     *
+     * @throws IOException if files can not be written
+     */
+    @Test
+    void printsResults() throws IOException {
+        File counts = new File(directory, "counts.bin");
+        BinaryBoardFormat.writeResults(new long[]{ChessPiece.packCounts(3, 1), ChessPiece.packCounts(0, 0)}, counts);
+        assertEquals(String.format("3 1%n0 0%n"), print(Files.readAllBytes(counts.toPath())));
+        File error = new File(directory, "error.bin");
+        BinaryBoardFormat.writeError(new InvalidGivenKingsException().getMessage(), error);
+        assertEquals(String.format("Invalid given Kings%n"), print(Files.readAllBytes(error.toPath())));
+    }
+
+    /**
+     * Results with a length of the message which does not match the file are broken, whatever the length is.
+     *
+     * @throws IOException if files can not be written
+     */
+    @Test
+    void rejectsBrokenErrorMessages() throws IOException {
+        File error = new File(directory, "error.bin");
+        BinaryBoardFormat.writeError("Invalid input", error);
+        byte[] bytes = Files.readAllBytes(error.toPath());
+        int lengthOffset = BinaryBoardFormat.RESULT_HEADER_BYTES;
+        for (int length : new int[]{-1, Integer.MIN_VALUE, Integer.MAX_VALUE, 12, 14}) {
+            byte[] broken = bytes.clone();
+            ByteBuffer.wrap(broken).putInt(lengthOffset, length);
+            assertThrows(IOException.class, () -> print(broken), "length " + length);
+        }
+        assertThrows(IOException.class, () -> print(Arrays.copyOf(bytes, lengthOffset + 2)));
+        assertThrows(IOException.class, () -> print(Arrays.copyOf(bytes, bytes.length - 1)));
+        assertThrows(IOException.class, () -> print(Arrays.copyOf(bytes, bytes.length + 1)));
+    }
+
+    /**
+     * The method prints the binary result.
+     *
+     * @param bytes bytes of the result
+     * @return the result in the format of output.txt
+     * @throws IOException if the result is broken
+     */
+    private static String print(byte[] bytes) throws IOException {
+        StringWriter output = new StringWriter();
+        try (PrintWriter pw = new PrintWriter(output)) {
+            BinaryBoardFormat.writeTextResults(ByteBuffer.wrap(bytes), pw);
+        }
+        return output.toString();
+    }
+}
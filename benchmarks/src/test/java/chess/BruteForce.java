@@ -0,0 +1,446 @@
+package chess;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Class which keeps pieces in plain arrays of squares and counts their moves by trying every square of the board.
+ * It shares no code with the storages, engines and counters of the solution, so tests compare the solution with it
+ */
+final class BruteForce {
+    /**
+     * the number of squares on the board horizontally or vertically.
+     */
+    private final int size;
+    /**
+     * names of pieces by coordinates from 1 as they are written in the input, null for empty squares.
+     */
+    private final String[][] names;
+    /**
+     * colors of pieces by coordinates from 1, null for empty squares.
+     */
+    private final PieceColor[][] colors;
+
+    /**
+     * The constructor creates an empty board.
+     *
+     * @param size the number of squares on the board horizontally or vertically
+     */
+    BruteForce(int size) {
+        this.size = size;
+        this.names = new String[size + 1][size + 1];
+        this.colors = new PieceColor[size + 1][size + 1];
+    }
+
+    /**
+     * The method copies all pieces of the board.
+     *
+     * @param board the board of the solution
+     * @return new brute-force board with the same pieces
+     */
+    static BruteForce of(Board board) {
+        BruteForce result = new BruteForce(board.getSize());
+        for (int id = 0; id < board.getPiecesCount(); id++) {
+            ChessPiece piece = board.getPiece(id);
+            if (piece != null) {
+                PiecePosition position = piece.getPosition();
+                result.put(getName(piece), piece.getColor(), position.getX(), position.getY());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The method adds random pieces to free squares of the board, squares which are taken are skipped.
+     *
+     * @param board  the board of the solution
+     * @param random the random generator
+     * @param count  the number of tries
+     */
+    static void addRandomPieces(Board board, Random random, int count) {
+        addRandomPieces(board, random, count, BoardGenerator.NAMES);
+    }
+
+    /**
+     * The method adds random pieces of the given kinds to free squares of the board, squares which are taken are
+     * skipped.
+     *
+     * @param board  the board of the solution
+     * @param random the random generator
+     * @param count  the number of tries
+     * @param names  names of pieces which may be added
+     */
+    static void addRandomPieces(Board board, Random random, int count, String... names) {
+        int size = board.getSize();
+        for (int i = 0; i < count; i++) {
+            String name = names[random.nextInt(names.length)];
+            PieceColor color = random.nextBoolean() ? PieceColor.WHITE : PieceColor.BLACK;
+            PiecePosition position = new PiecePosition(1 + random.nextInt(size), 1 + random.nextInt(size));
+            try {
+                board.addPiece(BoardGenerator.createPiece(name, position, color));
+            } catch (InvalidPiecePositionException e) {
+                // the square is taken, the piece is skipped
+            }
+        }
+    }
+
+    /**
+     * The method returns the name of the piece as it is written in the input.
+     *
+     * @param piece the piece
+     * @return "Knight", "King", "Pawn", "Bishop", "Rook" or "Queen"
+     */
+    static String getName(ChessPiece piece) {
+        return piece.getClass().getSimpleName();
+    }
+
+    /**
+     * The method returns the name of the type as it is written in the input.
+     *
+     * @param type the type of pieces
+     * @return "Knight", "King", "Pawn", "Bishop", "Rook" or "Queen"
+     */
+    static String getName(PieceType type) {
+        return type.name().charAt(0) + type.name().substring(1).toLowerCase();
+    }
+
+    /**
+     * The method returns the other color.
+     *
+     * @param color white or black
+     * @return black for white and white for black
+     */
+    static PieceColor getOpposite(PieceColor color) {
+        return color == PieceColor.WHITE ? PieceColor.BLACK : PieceColor.WHITE;
+    }
+
+    /**
+     * The method puts a piece on the square, the previous piece of the square is replaced.
+     *
+     * @param name  name of the piece, null for no piece
+     * @param color color of the piece
+     * @param x     the x coordinate from 1
+     * @param y     the y coordinate from 1
+     */
+    void put(String name, PieceColor color, int x, int y) {
+        names[x][y] = name;
+        colors[x][y] = color;
+    }
+
+    /**
+     * The method checks whether the coordinates are on the board.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return true if both coordinates are from 1 to the board size
+     */
+    boolean isInside(int x, int y) {
+        return x >= 1 && x <= size && y >= 1 && y <= size;
+    }
+
+    /**
+     * The method checks whether the piece on the first square attacks the second square, whatever stands on it.
+     * Pawns attack diagonally forward, sliding pieces need free squares between the two squares
+     *
+     * @param fromX the x coordinate of the piece
+     * @param fromY the y coordinate of the piece
+     * @param x     the x coordinate of the square
+     * @param y     the y coordinate of the square
+     * @return true if the square is attacked by the piece
+     */
+    boolean attacks(int fromX, int fromY, int x, int y) {
+        int dx = x - fromX;
+        int dy = y - fromY;
+        if (dx == 0 && dy == 0) {
+            return false;
+        }
+        boolean diagonal = Math.abs(dx) == Math.abs(dy);
+        boolean straight = dx == 0 || dy == 0;
+        switch (names[fromX][fromY]) {
+            case "Knight":
+                return Math.abs(dx * dy) == 2;
+            case "King":
+                return Math.abs(dx) <= 1 && Math.abs(dy) <= 1;
+            case "Pawn":
+                return Math.abs(dx) == 1 && dy == getForward(colors[fromX][fromY]);
+            case "Bishop":
+                return diagonal && isPathFree(fromX, fromY, x, y);
+            case "Rook":
+                return straight && isPathFree(fromX, fromY, x, y);
+            default:
+                return (diagonal || straight) && isPathFree(fromX, fromY, x, y);
+        }
+    }
+
+    /**
+     * The method checks whether the piece on the first square can move to the second square or capture on it.
+     * Pawns move forward to empty squares and capture diagonally forward
+     *
+     * @param fromX the x coordinate of the piece
+     * @param fromY the y coordinate of the piece
+     * @param x     the x coordinate of the target
+     * @param y     the y coordinate of the target
+     * @return true if the move is pseudo-legal
+     */
+    boolean reaches(int fromX, int fromY, int x, int y) {
+        if (!isInside(x, y) || colors[x][y] == colors[fromX][fromY]) {
+            return false;
+        }
+        if (names[fromX][fromY].equals("Pawn") && x == fromX) {
+            return y - fromY == getForward(colors[fromX][fromY]) && names[x][y] == null;
+        }
+        if (names[fromX][fromY].equals("Pawn") && names[x][y] == null) {
+            return false;
+        }
+        return attacks(fromX, fromY, x, y);
+    }
+
+    /**
+     * The method checks whether some piece of the color attacks the square.
+     *
+     * @param x     the x coordinate of the square
+     * @param y     the y coordinate of the square
+     * @param color color of attackers
+     * @return true if the square is attacked
+     */
+    boolean isAttacked(int x, int y, PieceColor color) {
+        for (int i = 1; i <= size; i++) {
+            for (int j = 1; j <= size; j++) {
+                if (colors[i][j] == color && attacks(i, j, x, y)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The method counts pseudo-legal moves and captures of the piece.
+     *
+     * @param x the x coordinate of the piece
+     * @param y the y coordinate of the piece
+     * @return packed counts of moves and captures
+     */
+    long countMoves(int x, int y) {
+        int moves = 0;
+        int captures = 0;
+        for (int i = 1; i <= size; i++) {
+            for (int j = 1; j <= size; j++) {
+                if (reaches(x, y, i, j)) {
+                    moves++;
+                    captures += names[i][j] != null ? 1 : 0;
+                }
+            }
+        }
+        return ChessPiece.packCounts(moves, captures);
+    }
+
+    /**
+     * The method counts moves of the piece to squares which the other color does not attack after the move.
+     *
+     * @param x the x coordinate of the piece
+     * @param y the y coordinate of the piece
+     * @return the number of safe moves and captures
+     */
+    int countSafeMoves(int x, int y) {
+        PieceColor enemy = getOpposite(colors[x][y]);
+        int result = 0;
+        for (int i = 1; i <= size; i++) {
+            for (int j = 1; j <= size; j++) {
+                if (reaches(x, y, i, j)) {
+                    BruteForce next = copy();
+                    next.move(x, y, i, j);
+                    result += next.isAttacked(i, j, enemy) ? 0 : 1;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The method counts leaves of the tree of pseudo-legal moves, colors move in turn and kings can be captured.
+     *
+     * @param side  color which moves first
+     * @param depth the number of moves in every line
+     * @return the number of lines of moves
+     */
+    long perft(PieceColor side, int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        long result = 0;
+        for (int x = 1; x <= size; x++) {
+            for (int y = 1; y <= size; y++) {
+                if (colors[x][y] != side) {
+                    continue;
+                }
+                for (int i = 1; i <= size; i++) {
+                    for (int j = 1; j <= size; j++) {
+                        if (reaches(x, y, i, j)) {
+                            BruteForce next = copy();
+                            next.move(x, y, i, j);
+                            result += next.perft(getOpposite(side), depth - 1);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The method counts moves and captures of the piece after which the king of its color is not attacked.
+     * Every move is made on a copy of the board, a side without a king has no illegal moves
+     *
+     * @param x the x coordinate of the piece
+     * @param y the y coordinate of the piece
+     * @return packed counts of legal moves and captures
+     */
+    long countLegalMoves(int x, int y) {
+        PieceColor color = colors[x][y];
+        int moves = 0;
+        int captures = 0;
+        for (int i = 1; i <= size; i++) {
+            for (int j = 1; j <= size; j++) {
+                if (reaches(x, y, i, j)) {
+                    BruteForce next = copy();
+                    next.move(x, y, i, j);
+                    if (!next.isKingAttacked(color)) {
+                        moves++;
+                        captures += names[i][j] != null ? 1 : 0;
+                    }
+                }
+            }
+        }
+        return ChessPiece.packCounts(moves, captures);
+    }
+
+    /**
+     * The method counts pieces of the type and color in the rectangle, parts outside the board are ignored.
+     *
+     * @param type  the type of pieces
+     * @param color the color of pieces
+     * @param x1    the smallest x coordinate of the rectangle
+     * @param y1    the smallest y coordinate of the rectangle
+     * @param x2    the biggest x coordinate of the rectangle
+     * @param y2    the biggest y coordinate of the rectangle
+     * @return the number of pieces
+     */
+    int countInRectangle(PieceType type, PieceColor color, int x1, int y1, int x2, int y2) {
+        String name = getName(type);
+        int result = 0;
+        for (int x = Math.max(1, x1); x <= Math.min(size, x2); x++) {
+            for (int y = Math.max(1, y1); y <= Math.min(size, y2); y++) {
+                result += name.equals(names[x][y]) && colors[x][y] == color ? 1 : 0;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The method finds the smallest numbers of knight jumps from the square by a breadth-first search.
+     * Squares of pieces of the color of the knight can not be entered, other pieces are captured and jumped from
+     *
+     * @param x the x coordinate of the knight
+     * @param y the y coordinate of the knight
+     * @return distances by (x - 1) * size + (y - 1), -1 for squares which can not be reached
+     */
+    int[] getKnightDistances(int x, int y) {
+        int[] result = new int[size * size];
+        Arrays.fill(result, -1);
+        result[(x - 1) * size + y - 1] = 0;
+        ArrayDeque<int[]> queue = new ArrayDeque<>();
+        queue.add(new int[]{x, y});
+        while (!queue.isEmpty()) {
+            int[] square = queue.poll();
+            for (int dx = -2; dx <= 2; dx++) {
+                for (int dy = -2; dy <= 2; dy++) {
+                    int i = square[0] + dx;
+                    int j = square[1] + dy;
+                    if (Math.abs(dx * dy) != 2 || !isInside(i, j) || result[(i - 1) * size + j - 1] >= 0
+                            || colors[i][j] == colors[x][y]) {
+                        continue;
+                    }
+                    result[(i - 1) * size + j - 1] = result[(square[0] - 1) * size + square[1] - 1] + 1;
+                    queue.add(new int[]{i, j});
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The method checks whether the king of the color is attacked by the other color.
+     *
+     * @param color color of the king
+     * @return true if the king is attacked, false if it is safe or there is no king of the color
+     */
+    private boolean isKingAttacked(PieceColor color) {
+        for (int x = 1; x <= size; x++) {
+            for (int y = 1; y <= size; y++) {
+                if ("King".equals(names[x][y]) && colors[x][y] == color) {
+                    return isAttacked(x, y, getOpposite(color));
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The method checks whether all squares strictly between two squares on one line are empty.
+     *
+     * @param fromX the x coordinate of the first square
+     * @param fromY the y coordinate of the first square
+     * @param x     the x coordinate of the second square
+     * @param y     the y coordinate of the second square
+     * @return true if no piece stands between the squares
+     */
+    private boolean isPathFree(int fromX, int fromY, int x, int y) {
+        int stepX = Integer.signum(x - fromX);
+        int stepY = Integer.signum(y - fromY);
+        for (int i = fromX + stepX, j = fromY + stepY; i != x || j != y; i += stepX, j += stepY) {
+            if (names[i][j] != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The method returns the direction in which pawns of the color move.
+     *
+     * @param color color of the pawn
+     * @return 1 for white pawns and -1 for black pawns
+     */
+    private static int getForward(PieceColor color) {
+        return color == PieceColor.WHITE ? 1 : -1;
+    }
+
+    /**
+     * The method copies the board.
+     *
+     * @return new board with the same pieces
+     */
+    private BruteForce copy() {
+        BruteForce result = new BruteForce(size);
+        for (int x = 1; x <= size; x++) {
+            result.names[x] = names[x].clone();
+            result.colors[x] = colors[x].clone();
+        }
+        return result;
+    }
+
+    /**
+     * The method moves the piece to the square, the piece on the square is captured.
+     *
+     * @param fromX the x coordinate of the piece
+     * @param fromY the y coordinate of the piece
+     * @param x     the x coordinate of the target
+     * @param y     the y coordinate of the target
+     */
+    private void move(int fromX, int fromY, int x, int y) {
+        put(names[fromX][fromY], colors[fromX][fromY], x, y);
+        put(null, null, fromX, fromY);
+    }
+}
@@ -0,0 +1,151 @@
+package chess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests which replay logs of moves and compare tracked counts and printed changes with counts of the whole board.
+ */
+class GameReplayTest {
+    /**
+     * After every ply of a random game tracked counts are counts of the board, and exactly the pieces whose counts
+     * changed are printed, captured pieces with "0 0". Replaying the whole log at once prints the same lines
+     *
+     * @throws Exception if pieces can not be added or a move can not be made
+     */
+    @Test
+    void printsChangedCountsAfterEveryPly() throws Exception {
+        RandomBoards.check(37, 150, (random, number, engine) -> {
+            int size = RandomBoards.getSize(random, number, 2, 8, 30);
+            return RandomBoards.create(size, engine, random, 2 + random.nextInt(size * size));
+        }, round -> {
+            Board board = round.getBoard();
+            Board copy = board.copy();
+            GameReplay replay = new GameReplay(board);
+            long[] before = new long[board.getPiecesCount()];
+            for (int id = 0; id < before.length; id++) {
+                before[id] = board.getTrackedCounts(id);
+            }
+            StringBuilder log = new StringBuilder();
+            StringBuilder printed = new StringBuilder();
+            int[] moves = new int[board.getMaxMovesCount()];
+            for (int ply = 1; ply <= 40; ply++) {
+                String move = createMove(board, round.getRandom(), moves);
+                if (move == null) {
+                    break;
+                }
+                log.append(move).append('\n');
+                String lines = replay(replay, move);
+                printed.append(lines);
+                Set<String> expected = new TreeSet<>();
+                for (int id = 0; id < before.length; id++) {
+                    long counts = board.countMovesAndCaptures(id);
+                    round.assertCount(counts, board.getTrackedCounts(id), "ply " + ply, "tracked counts of", id);
+                    if (counts != before[id]) {
+                        expected.add(ply + " " + id + " " + ChessPiece.unpackMoves(counts) + " "
+                                + ChessPiece.unpackCaptures(counts));
+                    }
+                    before[id] = counts;
+                }
+                assertEquals(expected, new TreeSet<>(lines.lines().toList()), round.describe("ply " + ply, move));
+            }
+            assertEquals(printed.toString(), replay(new GameReplay(copy), log.toString()), round.describe("log"));
+        });
+    }
+
+    /**
+     * A captured piece which had moves is printed with "0 0" in the ply of the capture.
+     *
+     * @throws Exception if pieces can not be added or the move can not be made
+     */
+    @Test
+    void printsCapturedPieceWithNoMoves() throws Exception {
+        Board board = new Board(8, 3, SlidingEngine.RAY_WALK);
+        board.addPiece(PieceType.ROOK, PieceColor.WHITE, 1, 1);
+        board.addPiece(PieceType.KNIGHT, PieceColor.BLACK, 1, 8);
+        board.addPiece(PieceType.PAWN, PieceColor.WHITE, 8, 2);
+        assertEquals(String.format("1 1 0 0%n1 0 14 0%n"), replay(new GameReplay(board), "1 1 1 8"));
+    }
+
+    /**
+     * A log which ends inside a move is broken, the plies before it are made and printed.
+     *
+     * @throws Exception if pieces can not be added
+     */
+    @Test
+    void stopsAtMoveCutInHalf() throws Exception {
+        Board board = new Board(8, 2, SlidingEngine.RAY_WALK);
+        board.addPiece(PieceType.KING, PieceColor.WHITE, 1, 1);
+        board.addPiece(PieceType.KING, PieceColor.BLACK, 8, 8);
+        GameReplay replay = new GameReplay(board);
+        StringWriter output = new StringWriter();
+        try (PrintWriter pw = new PrintWriter(output)) {
+            assertThrows(InvalidInputException.class, () -> replay.replay(createLog("1 1 2 2\n8 8 7"), pw));
+        }
+        assertEquals(1, replay.getPly());
+        assertEquals(String.format("1 0 8 0%n"), output.toString());
+        assertEquals(2, board.getPieceX(0));
+        assertEquals(2, board.getPieceY(0));
+    }
+
+    /**
+     * The method writes a random move of a random piece which has moves.
+     *
+     * @param board  the board
+     * @param random the random generator
+     * @param moves  array for generated moves
+     * @return "fromX fromY toX toY", or null if no piece has moves
+     */
+    private static String createMove(Board board, Random random, int[] moves) {
+        int start = random.nextInt(board.getPiecesCount());
+        for (int i = 0; i < board.getPiecesCount(); i++) {
+            int id = (start + i) % board.getPiecesCount();
+            if (board.getPiece(id) == null) {
+                continue;
+            }
+            int generated = board.generateMoves(id, moves, 0);
+            if (generated > 0) {
+                int move = moves[random.nextInt(generated)];
+                return board.getPieceX(id) + " " + board.getPieceY(id) + " "
+                        + ChessPiece.getMoveX(move, board.getSize()) + " " + ChessPiece.getMoveY(move, board.getSize());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The method replays the log and returns the printed lines.
+     *
+     * @param replay the replay
+     * @param log    moves in the format of the log
+     * @return lines "ply id moves captures"
+     * @throws Exception if a move can not be made
+     */
+    private static String replay(GameReplay replay, String log) throws Exception {
+        StringWriter output = new StringWriter();
+        try (PrintWriter pw = new PrintWriter(output)) {
+            replay.replay(createLog(log), pw);
+        }
+        return output.toString();
+    }
+
+    /**
+     * The method creates a log from its text.
+     *
+     * @param text moves in the format of the log
+     * @return the log
+     */
+    private static MoveLog createLog(String text) {
+        return new MoveLog(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
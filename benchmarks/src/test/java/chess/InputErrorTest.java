@@ -0,0 +1,289 @@
+package chess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests which compare the output of the parser with error codes with the Scanner parser which the solution had
+ * before, so the first error of an input is the same whatever errors it has after it.
+ */
+class InputErrorTest {
+    /**
+     * tokens which replace parts of inputs: valid ones, misspelled ones, signs, digits of other scripts,
+     * numbers which overflow int, empty strings and separators.
+     */
+    private static final String[] TOKENS = {
+        "King", "Queen", "Rook", "Bishop", "Knight", "Pawn", "Qween", "White", "Black", "Red",
+        "1", "2", "3", "0", "-1", "+2", "\u0663", "\u0661\u0662", "\uD835\uDFCF", "2147483648", "99999999999",
+        "", " ", "\t", "\n", "\r\n", "\r", "\u001c"
+    };
+    /**
+     * the number of valid names of pieces at the start of TOKENS.
+     */
+    private static final int NAMES = 6;
+
+    /**
+     * The output of random broken and valid inputs is the same as the output of the Scanner parser.
+     */
+    @Test
+    void reportsFirstErrorAsScannerParser() {
+        Random random = new Random(11);
+        for (int round = 0; round < 20000; round++) {
+            String input = createInput(random);
+            assertEquals(parseWithScanner(input), solve(input), input);
+        }
+    }
+
+    /**
+     * A number of pieces which is allowed by a big board but does not fit the rest of the input is rejected before
+     * the board is created, also above Integer.MAX_VALUE.
+     */
+    @Test
+    void rejectsNumberOfPiecesBeyondInput() {
+        for (String count : new String[]{"2000000000", "4294967298", "17"}) {
+            String input = "100000\n" + count + "\nKing White 1 1\nKing Black 5 5\n";
+            BoardInputParser parser = new BoardInputParser(ByteBuffer.wrap(input.getBytes(StandardCharsets.US_ASCII)),
+                    100000, Long.MAX_VALUE);
+            assertNull(parser.tryParse(SlidingEngine.RAY_WALK, null), count);
+            assertEquals(InputError.NUMBER_OF_PIECES, parser.getError(), count);
+        }
+    }
+
+    /**
+     * The method creates a small input, its lines and tokens are replaced by random tokens sometimes.
+     *
+     * @param random the random generator
+     * @return the input
+     */
+    private static String createInput(Random random) {
+        StringBuilder input = new StringBuilder();
+        int size = 3 + random.nextInt(3);
+        int count = 2 + random.nextInt(4);
+        input.append(random.nextInt(10) == 0 ? getToken(random) : String.valueOf(size));
+        input.append(random.nextInt(8) == 0 ? "\r\n" : "\n");
+        input.append(random.nextInt(10) == 0 ? getToken(random) : String.valueOf(count)).append('\n');
+        int lines = count + random.nextInt(3) - 1;
+        for (int i = 0; i < lines; i++) {
+            String[] parts = {
+                i < 2 ? "King" : TOKENS[random.nextInt(NAMES)],
+                i == 0 ? "White" : i == 1 || random.nextBoolean() ? "Black" : "White",
+                String.valueOf(1 + random.nextInt(size)),
+                String.valueOf(1 + random.nextInt(size))
+            };
+            if (random.nextInt(4) == 0) {
+                parts[random.nextInt(parts.length)] = getToken(random);
+            }
+            input.append(String.join(random.nextInt(6) == 0 ? "  " : " ", parts));
+            if (i < lines - 1 || random.nextBoolean()) {
+                input.append('\n');
+            }
+        }
+        return input.toString();
+    }
+
+    /**
+     * The method returns a random token.
+     *
+     * @param random the random generator
+     * @return one of TOKENS
+     */
+    private static String getToken(Random random) {
+        return TOKENS[random.nextInt(TOKENS.length)];
+    }
+
+    /**
+     * The method runs the solution on the input.
+     *
+     * @param input the input in the format of input.txt
+     * @return the output in the format of output.txt
+     */
+    private static String solve(String input) {
+        StringWriter output = new StringWriter();
+        try (PrintWriter pw = new PrintWriter(output)) {
+            Main.solve(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)), pw, SlidingEngine.RAY_WALK, 1, null);
+        }
+        return output.toString();
+    }
+
+    /**
+     * The method parses the input as the solution did with Scanner: lines are counted by BufferedReader, the board
+     * size and the number of pieces are read by nextLine and every piece by four calls of next. The color of a piece
+     * is checked before its name and its name before the square, which must be free.
+     *
+     * @param input the input in the format of input.txt
+     * @return counts of pseudo-legal moves and captures in the format of output.txt, or the first error message
+     */
+    private static String parseWithScanner(String input) {
+        StringWriter output = new StringWriter();
+        try (PrintWriter pw = new PrintWriter(output); Scanner scanner = new Scanner(input)) {
+            try {
+                pw.print(countWithScanner(scanner, countLines(input)));
+            } catch (NoSuchElementException e) {
+                pw.println(e.getMessage());
+            } catch (InputFailure e) {
+                pw.println(e.error.getMessage());
+            }
+        }
+        return output.toString();
+    }
+
+    /**
+     * The method reads the board and counts moves of its pieces.
+     *
+     * @param scanner scanner of the input
+     * @param lines   the number of lines of the input
+     * @return counts of pseudo-legal moves and captures in the format of output.txt
+     * @throws InputFailure if the input is invalid
+     */
+    private static String countWithScanner(Scanner scanner, int lines) throws InputFailure {
+        String sizeLine = scanner.nextLine();
+        String countLine = scanner.nextLine();
+        int size = parseNumber(sizeLine, InputError.BOARD_SIZE);
+        if (size < 3 || size > BoardInputParser.MAX_BOARD_SIZE) {
+            throw new InputFailure(InputError.BOARD_SIZE);
+        }
+        int count = parseNumber(countLine, InputError.NUMBER_OF_PIECES);
+        if (count < 2 || count > size * size || lines - 2 != count) {
+            throw new InputFailure(InputError.NUMBER_OF_PIECES);
+        }
+        BruteForce board = new BruteForce(size);
+        Set<Integer> squares = new HashSet<>();
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        int whiteKings = 0;
+        int blackKings = 0;
+        for (int i = 0; i < count; i++) {
+            String name = scanner.next();
+            String color = scanner.next();
+            try {
+                xs[i] = Integer.parseInt(scanner.next());
+                ys[i] = Integer.parseInt(scanner.next());
+            } catch (NoSuchElementException | NumberFormatException e) {
+                throw new InputFailure(InputError.PIECE_POSITION);
+            }
+            if (xs[i] < 1 || xs[i] > size || ys[i] < 1 || ys[i] > size) {
+                throw new InputFailure(InputError.PIECE_POSITION);
+            }
+            if (!color.equals("White") && !color.equals("Black")) {
+                throw new InputFailure(InputError.PIECE_COLOR);
+            }
+            PieceType type = getType(name);
+            if (!squares.add(xs[i] * (size + 1) + ys[i])) {
+                throw new InputFailure(InputError.PIECE_POSITION);
+            }
+            PieceColor pieceColor = color.equals("White") ? PieceColor.WHITE : PieceColor.BLACK;
+            board.put(BruteForce.getName(type), pieceColor, xs[i], ys[i]);
+            if (type == PieceType.KING) {
+                whiteKings += pieceColor == PieceColor.WHITE ? 1 : 0;
+                blackKings += pieceColor == PieceColor.BLACK ? 1 : 0;
+            }
+        }
+        if (whiteKings != 1 || blackKings != 1) {
+            throw new InputFailure(InputError.GIVEN_KINGS);
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            long counts = board.countMoves(xs[i], ys[i]);
+            result.append(ChessPiece.unpackMoves(counts)).append(' ').append(ChessPiece.unpackCaptures(counts));
+            result.append(System.lineSeparator());
+        }
+        return result.toString();
+    }
+
+    /**
+     * The method counts lines of the input as BufferedReader splits them.
+     *
+     * @param input the input
+     * @return the number of lines
+     */
+    private static int countLines(String input) {
+        try (BufferedReader reader = new BufferedReader(new StringReader(input))) {
+            int lines = 0;
+            while (reader.readLine() != null) {
+                lines++;
+            }
+            return lines;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The method parses a number as Integer.parseInt does.
+     *
+     * @param text  the text of the number
+     * @param error the error if the text is not a number
+     * @return the number
+     * @throws InputFailure if the text is not a number
+     */
+    private static int parseNumber(String text, InputError error) throws InputFailure {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new InputFailure(error);
+        }
+    }
+
+    /**
+     * The method returns the type of a piece by its name in the input.
+     *
+     * @param name the name
+     * @return the type
+     * @throws InputFailure if the name is unknown
+     */
+    private static PieceType getType(String name) throws InputFailure {
+        switch (name) {
+            case "Knight":
+                return PieceType.KNIGHT;
+            case "King":
+                return PieceType.KING;
+            case "Pawn":
+                return PieceType.PAWN;
+            case "Bishop":
+                return PieceType.BISHOP;
+            case "Rook":
+                return PieceType.ROOK;
+            case "Queen":
+                return PieceType.QUEEN;
+            default:
+                throw new InputFailure(InputError.PIECE_NAME);
+        }
+    }
+
+    /**
+     * Exception which stops the Scanner parser at the first error.
+     */
+    private static final class InputFailure extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * the code of the error.
+         */
+        private final InputError error;
+
+        /**
+         * The constructor keeps the code of the error.
+         *
+         * @param error the code of the error
+         */
+        InputFailure(InputError error) {
+            super(null, null, false, false);
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package chess;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests which compare knight distances from bitset frontiers with a breadth-first search over squares.
+ */
+class KnightDistanceTest {
+    /**
+     * Distances are the same as distances of the search on boards of different sizes and densities,
+     * squares of pieces of the color of the knight are not entered.
+     *
+     * @throws Exception if the knight can not be added
+     */
+    @Test
+    void findsShortestJumps() throws Exception {
+        RandomBoards.check(23, 300, (random, number, engine) -> {
+            int size = RandomBoards.getSize(random, number, 1, 70, 150);
+            Board board = new Board(size, 4, engine);
+            board.addPiece(PieceType.KNIGHT, PieceColor.WHITE, 1 + random.nextInt(size), 1 + random.nextInt(size));
+            BruteForce.addRandomPieces(board, random, (int) (size * size * random.nextDouble() * 0.6));
+            if (number % 3 == 0 && board.getPiecesCount() > 1) {
+                board.removePiece(board.getPiece(board.getPiecesCount() - 1).getPosition());
+            }
+            return board;
+        }, round -> {
+            Board board = round.getBoard();
+            int size = board.getSize();
+            PiecePosition knight = board.getPiece(0).getPosition();
+            int[] expected = round.copyBoard().getKnightDistances(knight.getX(), knight.getY());
+            short[] distances = board.getKnightDistances(knight);
+            for (int i = 0; i < expected.length; i++) {
+                round.assertCount(expected[i], distances[i], "size " + size, "square " + (i / size + 1) + " "
+                        + (i % size + 1));
+            }
+        });
+    }
+
+    /**
+     * Distances from an empty square are not defined.
+     */
+    @Test
+    void rejectsEmptySquare() {
+        assertThrows(InvalidPiecePositionException.class,
+                () -> new Board(8).getKnightDistances(new PiecePosition(1, 1)));
+    }
+}
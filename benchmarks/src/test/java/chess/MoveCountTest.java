@@ -0,0 +1,85 @@
+package chess;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests which compare counts of moves of every engine with brute-force counts on small random boards.
+ */
+class MoveCountTest {
+    /**
+     * Counts of one and several threads are the same as brute-force counts, also after a piece is removed.
+     *
+     * @throws Exception if pieces can not be added or removed
+     */
+    @Test
+    void countsMovesAndCaptures() throws Exception {
+        RandomBoards.check(11, 400, (random, number, engine) -> {
+            int size = RandomBoards.getSize(random, number, 1, 9, 40);
+            Board board = RandomBoards.create(size, engine, random, 1 + random.nextInt(size * size));
+            if (number % 3 == 0) {
+                board.removePiece(board.getPiece(0).getPosition());
+            }
+            return board;
+        }, round -> {
+            BruteForce expected = round.copyBoard();
+            long[] counts = new long[round.getBoard().getPiecesCount()];
+            round.getBoard().countAllMovesAndCaptures(counts, 1 + round.getNumber() % 2 * 3);
+            round.forEachPiece((id, piece) -> {
+                PiecePosition position = piece.getPosition();
+                round.assertCount(expected.countMoves(position.getX(), position.getY()), counts[id],
+                        BruteForce.getName(piece) + " at " + position);
+            });
+        });
+    }
+
+    /**
+     * Legal counts are brute-force counts of moves after which the own king is not attacked, on boards with one king
+     * of each color, so checks, double checks and pins all occur.
+     *
+     * @throws Exception if pieces can not be added or the board has no kings
+     */
+    @Test
+    void countsLegalMoves() throws Exception {
+        RandomBoards.check(3, 600, (random, number, engine) -> {
+            int size = RandomBoards.getSize(random, number, 3, 6, 10);
+            return RandomBoards.createWithKings(size, engine, random, random.nextInt(size * size / 3));
+        }, round -> {
+            BruteForce expected = round.copyBoard();
+            long[] counts = new long[round.getBoard().getPiecesCount()];
+            round.getBoard().countLegalMovesAndCaptures(counts);
+            round.forEachPiece((id, piece) -> {
+                PiecePosition position = piece.getPosition();
+                round.assertCount(expected.countLegalMoves(position.getX(), position.getY()), counts[id],
+                        BruteForce.getName(piece) + " at " + position);
+            });
+        });
+    }
+
+    /**
+     * Safe moves of kings and pawns are moves to squares which are not attacked after the move, including squares
+     * which were covered by the moving piece itself.
+     *
+     * @throws Exception if pieces can not be added
+     */
+    @Test
+    void countsSafeMovesOfKingsAndPawns() throws Exception {
+        RandomBoards.check(5, 600, (random, number, engine) -> {
+            int size = RandomBoards.getSize(random, number, 3, 10, 10);
+            return RandomBoards.create(size, engine, random, 2 + random.nextInt(size * size / 2));
+        }, round -> {
+            Board board = round.getBoard();
+            BruteForce expected = round.copyBoard();
+            AttackMap map = board.getAttackMap();
+            round.forEachPiece((id, piece) -> {
+                PiecePosition position = piece.getPosition();
+                if (piece instanceof King) {
+                    round.assertCount(expected.countSafeMoves(position.getX(), position.getY()),
+                            board.getKingSafeMovesCount((King) piece, map), "king at " + position);
+                } else if (piece instanceof Pawn) {
+                    round.assertCount(expected.countSafeMoves(position.getX(), position.getY()),
+                            board.getPawnSafeMovesCount((Pawn) piece, map), "pawn at " + position);
+                }
+            });
+        });
+    }
+}
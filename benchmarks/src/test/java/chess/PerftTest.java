@@ -0,0 +1,63 @@
+package chess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests which compare perft with make and unmake of moves with a search which copies the board for every move.
+ */
+class PerftTest {
+    /**
+     * Perft of one and several threads counts the same leaves as the brute-force search and restores the board.
+     * Counts which are tracked while moves are made and unmade are the same as counts of the restored board
+     *
+     * @throws Exception if pieces can not be added or a thread fails
+     */
+    @Test
+    void countsLeavesAndRestoresBoard() throws Exception {
+        RandomBoards.check(17, 120, (random, number, engine) -> {
+            int size = 3 + random.nextInt(5);
+            Board board = RandomBoards.create(size, engine, random, 2 + random.nextInt(Math.min(8, size * size - 2)));
+            if (number % 4 == 0 && board.getPiecesCount() > 2) {
+                board.removePiece(board.getPiece(1).getPosition());
+            }
+            if (number % 5 == 0) {
+                board.trackCounts();
+            }
+            return board;
+        }, round -> {
+            Board board = round.getBoard();
+            int depth = 1 + round.getNumber() % (board.getSize() <= 4 ? 4 : 3);
+            long hash = board.getHash();
+            String before = describe(board);
+            long expected = round.copyBoard().perft(PieceColor.WHITE, depth);
+            round.assertCount(expected, new Perft(10).count(board, PieceColor.WHITE, depth, 1), "depth " + depth);
+            round.assertCount(expected, new Perft(4).count(board, PieceColor.WHITE, depth, 4),
+                    "depth " + depth, "4 threads");
+            round.assertCount(hash, board.getHash(), "hash");
+            assertEquals(before, describe(board), () -> round.describe("pieces"));
+            if (round.getNumber() % 5 == 0) {
+                round.forEachPiece((id, piece) -> round.assertCount(board.countMovesAndCaptures(id),
+                        board.getTrackedCounts(id), "tracked counts of", id));
+            }
+        });
+    }
+
+    /**
+     * The method describes pieces of the board by ids.
+     *
+     * @param board the board
+     * @return names, colors and squares of pieces, "-" for removed pieces
+     */
+    private static String describe(Board board) {
+        StringBuilder result = new StringBuilder();
+        for (int id = 0; id < board.getPiecesCount(); id++) {
+            ChessPiece piece = board.getPiece(id);
+            result.append(piece == null ? "-" : BruteForce.getName(piece) + " " + piece.getColor() + " "
+                    + piece.getPosition());
+            result.append(';');
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,244 @@
+package chess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+/**
+ * Class which runs a check on a series of random boards. Engines take turns by rounds, the random generator has
+ * a fixed seed, and every failure names its round
+ */
+final class RandomBoards {
+    /**
+     * names of every piece except the king.
+     */
+    private static final String[] NOT_KINGS = {"Knight", "Pawn", "Bishop", "Rook", "Queen"};
+
+    /**
+     * Tests use only static methods of the class.
+     */
+    private RandomBoards() {
+    }
+
+    /**
+     * The method creates the board of every round and checks it.
+     *
+     * @param seed    seed of the random generator
+     * @param rounds  the number of boards
+     * @param factory creator of boards
+     * @param check   check of one board
+     * @throws Exception if a board can not be created or checked
+     */
+    static void check(long seed, int rounds, Factory factory, Check check) throws Exception {
+        Random random = new Random(seed);
+        SlidingEngine[] engines = SlidingEngine.values();
+        for (int number = 0; number < rounds; number++) {
+            Board board = factory.create(random, number, engines[number % engines.length]);
+            check.check(new Round(number, random, board));
+        }
+    }
+
+    /**
+     * The method returns a random board size, every fourth round gets a bigger board.
+     *
+     * @param random   the random generator
+     * @param number   the number of the round
+     * @param minSize  the smallest size
+     * @param sizes    the number of sizes of usual rounds
+     * @param bigSizes the number of sizes of every fourth round
+     * @return the size
+     */
+    static int getSize(Random random, int number, int minSize, int sizes, int bigSizes) {
+        return minSize + random.nextInt(number % 4 == 0 ? bigSizes : sizes);
+    }
+
+    /**
+     * The method creates a board and tries to add random pieces to it.
+     *
+     * @param size   the number of squares on the board horizontally or vertically
+     * @param engine the engine which scans rays of bishops, rooks and queens
+     * @param random the random generator
+     * @param tries  the number of tries, pieces on taken squares are skipped
+     * @return new board
+     */
+    static Board create(int size, SlidingEngine engine, Random random, int tries) {
+        Board board = new Board(size, size * size, engine);
+        BruteForce.addRandomPieces(board, random, tries);
+        return board;
+    }
+
+    /**
+     * The method creates a board with one king of each color and tries to add random pieces other than kings,
+     * so the board is a valid input.
+     *
+     * @param size   the number of squares on the board horizontally or vertically, at least 2
+     * @param engine the engine which scans rays of bishops, rooks and queens
+     * @param random the random generator
+     * @param tries  the number of tries, pieces on taken squares are skipped
+     * @return new board
+     * @throws InvalidPiecePositionException if a king can not be added
+     */
+    static Board createWithKings(int size, SlidingEngine engine, Random random, int tries)
+            throws InvalidPiecePositionException {
+        Board board = new Board(size, size * size, engine);
+        int whiteKing = random.nextInt(size * size);
+        int blackKing = (whiteKing + 1 + random.nextInt(size * size - 1)) % (size * size);
+        board.addPiece(PieceType.KING, PieceColor.WHITE, whiteKing / size + 1, whiteKing % size + 1);
+        board.addPiece(PieceType.KING, PieceColor.BLACK, blackKing / size + 1, blackKing % size + 1);
+        BruteForce.addRandomPieces(board, random, tries, NOT_KINGS);
+        return board;
+    }
+
+    /**
+     * Creator of the board of a round.
+     */
+    @FunctionalInterface
+    interface Factory {
+        /**
+         * The method creates the board.
+         *
+         * @param random the random generator
+         * @param number the number of the round
+         * @param engine the engine of the round
+         * @return new board
+         * @throws Exception if pieces can not be added
+         */
+        Board create(Random random, int number, SlidingEngine engine) throws Exception;
+    }
+
+    /**
+     * Check of the board of a round.
+     */
+    @FunctionalInterface
+    interface Check {
+        /**
+         * The method checks the board.
+         *
+         * @param round the round
+         * @throws Exception if the board can not be checked
+         */
+        void check(Round round) throws Exception;
+    }
+
+    /**
+     * Check of one piece of a board.
+     */
+    @FunctionalInterface
+    interface PieceCheck {
+        /**
+         * The method checks the piece.
+         *
+         * @param id    the id of the piece
+         * @param piece the piece
+         * @throws Exception if the piece can not be checked
+         */
+        void check(int id, ChessPiece piece) throws Exception;
+    }
+
+    /**
+     * One round: its number, the shared random generator and the board.
+     */
+    static final class Round {
+        /**
+         * the number of the round.
+         */
+        private final int number;
+        /**
+         * the random generator of all rounds.
+         */
+        private final Random random;
+        /**
+         * the board of the round.
+         */
+        private final Board board;
+
+        /**
+         * The constructor keeps the parts of the round.
+         *
+         * @param number the number of the round
+         * @param random the random generator
+         * @param board  the board
+         */
+        Round(int number, Random random, Board board) {
+            this.number = number;
+            this.random = random;
+            this.board = board;
+        }
+
+        /**
+         * The method returns the number of the round.
+         *
+         * @return the number from 0
+         */
+        int getNumber() {
+            return number;
+        }
+
+        /**
+         * The method returns the random generator.
+         *
+         * @return the random generator of all rounds
+         */
+        Random getRandom() {
+            return random;
+        }
+
+        /**
+         * The method returns the board.
+         *
+         * @return the board of the round
+         */
+        Board getBoard() {
+            return board;
+        }
+
+        /**
+         * The method copies the current pieces of the board into a brute-force board.
+         *
+         * @return new brute-force board
+         */
+        BruteForce copyBoard() {
+            return BruteForce.of(board);
+        }
+
+        /**
+         * The method checks every piece of the board, removed pieces are skipped.
+         *
+         * @param check check of one piece
+         * @throws Exception if a piece can not be checked
+         */
+        void forEachPiece(PieceCheck check) throws Exception {
+            for (int id = 0; id < board.getPiecesCount(); id++) {
+                ChessPiece piece = board.getPiece(id);
+                if (piece != null) {
+                    check.check(id, piece);
+                }
+            }
+        }
+
+        /**
+         * The method checks that two numbers are equal, the message names the round and the details.
+         *
+         * @param expected the number of the brute force
+         * @param actual   the number of the solution
+         * @param details  what is compared
+         */
+        void assertCount(long expected, long actual, Object... details) {
+            assertEquals(expected, actual, () -> describe(details));
+        }
+
+        /**
+         * The method describes what is checked in the round.
+         *
+         * @param details what is checked
+         * @return "round N" followed by the details
+         */
+        String describe(Object... details) {
+            StringBuilder result = new StringBuilder("round ").append(number);
+            for (Object detail : details) {
+                result.append(", ").append(detail);
+            }
+            return result.toString();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package chess;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests which compare counts of pieces in rectangles from Fenwick trees with counts over all squares.
+ */
+class RectangleCountTest {
+    /**
+     * the number of rectangles of one query.
+     */
+    private static final int RECTANGLES = 10;
+
+    /**
+     * Counts stay correct while pieces are added, removed, moved, captured by made moves and cleared,
+     * for rectangles which are empty or go out of the board too.
+     *
+     * @throws Exception if pieces can not be moved
+     */
+    @Test
+    void countsPiecesAfterChanges() throws Exception {
+        RandomBoards.check(29, 200, (random, number, engine) -> {
+            int size = RandomBoards.getSize(random, number, 1, 12, 90);
+            return RandomBoards.create(size, engine, random, size * size / 3);
+        }, round -> {
+            Board board = round.getBoard();
+            Random random = round.getRandom();
+            int size = board.getSize();
+            board.countPiecesInRectangle(PieceType.KING, PieceColor.WHITE, 1, 1, size, size);
+            for (int step = 0; step < 60; step++) {
+                change(board, random, step == 30 && round.getNumber() % 7 == 0);
+                int[] rectangles = new int[4 * RECTANGLES];
+                for (int i = 0; i < rectangles.length; i++) {
+                    rectangles[i] = random.nextInt(size + 4) - 1;
+                }
+                PieceType type = PieceType.values()[random.nextInt(PieceType.values().length)];
+                PieceColor color = random.nextBoolean() ? PieceColor.WHITE : PieceColor.BLACK;
+                int[] results = new int[RECTANGLES];
+                board.countPiecesInRectangles(type, color, rectangles, results);
+                BruteForce expected = round.copyBoard();
+                for (int i = 0; i < RECTANGLES; i++) {
+                    int x1 = rectangles[4 * i];
+                    int y1 = rectangles[4 * i + 1];
+                    int x2 = rectangles[4 * i + 2];
+                    int y2 = rectangles[4 * i + 3];
+                    round.assertCount(expected.countInRectangle(type, color, x1, y1, x2, y2), results[i],
+                            "step " + step, type + " " + color + " in " + x1 + " " + y1 + " " + x2 + " " + y2);
+                }
+            }
+        });
+    }
+
+    /**
+     * The method makes one random change of the board.
+     *
+     * @param board  the board
+     * @param random the random generator
+     * @param clear  whether the board is cleared
+     * @throws Exception if a move can not be made
+     */
+    private static void change(Board board, Random random, boolean clear) throws Exception {
+        int size = board.getSize();
+        if (clear) {
+            board.clear();
+            return;
+        }
+        PiecePosition from = new PiecePosition(1 + random.nextInt(size), 1 + random.nextInt(size));
+        PiecePosition to = new PiecePosition(1 + random.nextInt(size), 1 + random.nextInt(size));
+        try {
+            switch (random.nextInt(4)) {
+                case 0:
+                    BruteForce.addRandomPieces(board, random, 1);
+                    break;
+                case 1:
+                    board.removePiece(from);
+                    break;
+                case 2:
+                    board.movePiece(from, to);
+                    break;
+                default:
+                    makeRandomMove(board, random);
+                    break;
+            }
+        } catch (InvalidPiecePositionException e) {
+            // the square is empty or taken, the board is not changed
+        }
+    }
+
+    /**
+     * The method makes a random move of a random piece and unmakes it in half of the cases.
+     *
+     * @param board  the board
+     * @param random the random generator
+     */
+    private static void makeRandomMove(Board board, Random random) {
+        if (board.getPiecesCount() == 0) {
+            return;
+        }
+        int id = random.nextInt(board.getPiecesCount());
+        if (board.getPiece(id) == null) {
+            return;
+        }
+        int[] moves = new int[board.getMaxMovesCount()];
+        int generated = board.generateMoves(id, moves, 0);
+        if (generated == 0) {
+            return;
+        }
+        int move = moves[random.nextInt(generated)];
+        int fromX = board.getPieceX(id);
+        int fromY = board.getPieceY(id);
+        int captured = board.makeMove(id, move);
+        if (random.nextBoolean()) {
+            board.unmakeMove(id, move, fromX, fromY, captured);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package chess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests which count positions through a shared result cache and check its counts and counters.
+ */
+class ResultCacheTest {
+    /**
+     * A position which is stored by one board is found by a board with the same pieces added in another order and
+     * scanned by another engine, and the copied counts belong to the right ids.
+     *
+     * @throws Exception if pieces can not be added
+     */
+    @Test
+    void findsPositionWhateverTheOrderOfPieces() throws Exception {
+        RandomBoards.check(17, 200, (random, number, engine) -> {
+            int size = RandomBoards.getSize(random, number, 1, 9, 30);
+            return RandomBoards.create(size, engine, random, 1 + random.nextInt(size * size));
+        }, round -> {
+            ResultCache cache = new ResultCache(4);
+            Board stored = round.getBoard();
+            stored.setResultCache(cache);
+            stored.countAllMovesAndCaptures(new long[stored.getPiecesCount()], 1);
+            Board shuffled = copyShuffled(stored, round);
+            shuffled.setResultCache(cache);
+            long[] counts = new long[shuffled.getPiecesCount()];
+            shuffled.countAllMovesAndCaptures(counts, 1);
+            round.assertCount(stored.getHash(), shuffled.getHash(), "hash");
+            round.assertCount(1, cache.getHits(), "hits");
+            round.assertCount(1, cache.getMisses(), "misses");
+            round.assertCount(0, cache.getEvictions(), "evictions");
+            BruteForce expected = round.copyBoard();
+            for (int id = 0; id < counts.length; id++) {
+                PiecePosition position = shuffled.getPiece(id).getPosition();
+                round.assertCount(expected.countMoves(position.getX(), position.getY()), counts[id],
+                        BruteForce.getName(shuffled.getPiece(id)) + " at " + position);
+            }
+        });
+    }
+
+    /**
+     * A cache of one position evicts the previous position when another one is stored, so only the last position
+     * is found again.
+     *
+     * @throws Exception if pieces can not be added or removed
+     */
+    @Test
+    void evictsPreviousPositionAtCapacityOne() throws Exception {
+        ResultCache cache = new ResultCache(1);
+        Board board = new Board(8, 64, SlidingEngine.RAY_WALK);
+        board.setResultCache(cache);
+        board.addPiece(PieceType.QUEEN, PieceColor.WHITE, 4, 4);
+        board.addPiece(PieceType.ROOK, PieceColor.BLACK, 4, 7);
+        long[] first = new long[board.getPiecesCount()];
+        board.countAllMovesAndCaptures(first, 1);
+        board.removePiece(new PiecePosition(4, 7));
+        board.addPiece(PieceType.ROOK, PieceColor.BLACK, 7, 7);
+        board.countAllMovesAndCaptures(new long[board.getPiecesCount()], 1);
+        board.removePiece(new PiecePosition(7, 7));
+        board.addPiece(PieceType.ROOK, PieceColor.BLACK, 4, 7);
+        long[] again = new long[board.getPiecesCount()];
+        board.countAllMovesAndCaptures(again, 1);
+        board.countAllMovesAndCaptures(again, 1);
+        assertEquals(1, cache.getHits(), "hits");
+        assertEquals(3, cache.getMisses(), "misses");
+        assertEquals(2, cache.getEvictions(), "evictions");
+        assertEquals(1, cache.size(), "size");
+        assertEquals(first[0], again[0], "queen");
+        assertEquals(first[1], again[3], "rook");
+    }
+
+    /**
+     * The method adds the pieces of the board to a new board in random order, the new board uses the next engine.
+     *
+     * @param board the board
+     * @param round the round whose random generator shuffles the pieces
+     * @return new board with the same position
+     * @throws InvalidPiecePositionException if a piece can not be added
+     */
+    private static Board copyShuffled(Board board, RandomBoards.Round round) throws InvalidPiecePositionException {
+        List<ChessPiece> pieces = new ArrayList<>();
+        for (int id = 0; id < board.getPiecesCount(); id++) {
+            pieces.add(board.getPiece(id));
+        }
+        Collections.shuffle(pieces, round.getRandom());
+        SlidingEngine[] engines = SlidingEngine.values();
+        Board result = new Board(board.getSize(), board.getPiecesCount(),
+                engines[(round.getNumber() + 1) % engines.length]);
+        for (ChessPiece piece : pieces) {
+            result.addPiece(piece);
+        }
+        return result;
+    }
+}